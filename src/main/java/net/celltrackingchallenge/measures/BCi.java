@@ -34,6 +34,7 @@ import io.scif.img.ImgIOException;
 import java.io.IOException;
 
 import java.util.Vector;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -82,77 +83,160 @@ public class BCi
 	private double bcI = 0.0;
 
 
+	///the largest temporal window (the 'i' parameter) for which BC(i) is reported
+	private static final int MAX_I = 5;
+
 	/**
-	 * Check if there is a GT branching event (in gt_forks) that can be considered
-	 * matching the given input branching event (res_fork) with given temporal
-	 * window maxI (in units of number of frame, number of time points).
+	 * Determines the smallest temporal window 'i' (in units of number of frame,
+	 * number of time points) for which the given GT branching event (gt_fork)
+	 * can be considered matching the given RES branching event (res_fork).
+	 * Returns MAX_I+1 if the two events do not match even for i = MAX_I.
+	 *
+	 * The events match for some 'i' iff the parent nodes match 1:1 at the latest
+	 * time in which both parents existed, every GT child matches 1:1 some RES
+	 * child at the earliest time in which both children existed, and all these
+	 * pairs of nodes are at most 'i' frames apart. Hence, the events match for
+	 * every 'i' that is not smaller than the returned value.
 	 */
-	private boolean CorrectFork(final int maxI,
-		//examined res branching event
-		final Fork res_fork,
-		//all GT branching events with "was recovered already" flag
-		final Vector<Fork> gt_forks, final boolean[] gt_correct,
+	private static int ForkMatchWindow(final TrackDataCache cache,
+		final Fork res_fork, final Fork gt_fork,
 		final Map<Integer,Track> gt_tracks,
 		final Map<Integer,Track> res_tracks,
 		final Vector<TemporalLevel> levels)
 	{
-		if (gt_forks.size() != gt_correct.length)
-			throw new IllegalArgumentException(
-				"Arrays of both GT forks and their flags must be of the same length!");
-
-		//scan over all GT forks and find one (for detailed examination) candidate
-		//that has not been "recovered" already and has the same number of children
-		//as the input/testing RES fork
-		for (int i=0; i < gt_correct.length; ++i)
+		if (gt_fork.m_child_ids.length != res_fork.m_child_ids.length) return (MAX_I+1);
+
+		//check if parent nodes overlap at the latest time in which both parents existed
+		int GTtime = gt_tracks.get( gt_fork.m_parent_id).m_end;
+		int Rtime = res_tracks.get(res_fork.m_parent_id).m_end;
+		int consideredTime = Math.min(GTtime, Rtime); //the latest common time point
+
+		//check the overlap (temporal distance and spatial overlap)
+		int window = Math.abs(GTtime - Rtime);
+		if (window > MAX_I || !cache.UniqueMatch(
+			gt_fork.m_parent_id, res_fork.m_parent_id, levels.get(consideredTime)) ) return (MAX_I+1);
+
+		//now, do the same test for all kids
+		//(iterate over every GT and ideally always find some RES -- since
+		//the number of kids is the same and we test for spatial uniqueness,
+		//this (one-way test) suffices to declare GTkids = RESkids, or the opposite)
+		//
+		//over all GT kids
+		for (int k=0; k < gt_fork.m_child_ids.length; ++k)
 		{
-			//shortcut to the examined GT fork
-			final Fork gt_fork = gt_forks.get(i);
-			if (!gt_correct[i] && gt_fork.m_child_ids.length == res_fork.m_child_ids.length)
-			{
-				//candidate found...
+			GTtime = gt_tracks.get(gt_fork.m_child_ids[k]).m_begin;
 
-				//check if parent nodes overlap at the latest time in which both parents existed
-				int GTtime = gt_tracks.get( gt_fork.m_parent_id).m_end;
-				int Rtime = res_tracks.get(res_fork.m_parent_id).m_end;
-				int consideredTime = Math.min(GTtime, Rtime); //the latest common time point
+			//over all RES kids, find the closest (in time) matching one
+			int kidWindow = MAX_I+1;
+			for (int l=0; l < res_fork.m_child_ids.length && kidWindow > window; ++l)
+			{
+				Rtime = res_tracks.get(res_fork.m_child_ids[l]).m_begin;
+				consideredTime = Math.max(GTtime, Rtime); //the earliest common time point
 
 				//check the overlap (temporal distance and spatial overlap)
-				boolean match = ( Math.abs(GTtime - Rtime) <= maxI  &&  cache.UniqueMatch(
-					gt_fork.m_parent_id, res_fork.m_parent_id, levels.get(consideredTime)) );
-
-				//now, do the same test for all kids
-				//(iterate over every GT and ideally always find some RES -- since
-				//the number of kids is the same and we test for spatial uniqueness,
-				//this (one-way test) suffices to declare GTkids = RESkids, or the opposite)
-				//
-				//over all GT kids
-				for (int k=0; k < gt_fork.m_child_ids.length && match; ++k)
-				{
-					GTtime = gt_tracks.get(gt_fork.m_child_ids[k]).m_begin;
+				final int dist = Math.abs(GTtime - Rtime);
+				if (dist < kidWindow && cache.UniqueMatch(
+					gt_fork.m_child_ids[k], res_fork.m_child_ids[l], levels.get(consideredTime)) )
+					kidWindow = dist;
+			}
 
-					//over all RES kids, until a match is found
-					match = false;
-					for (int l=0; l < res_fork.m_child_ids.length && !match; ++l)
-					{
-						Rtime = res_tracks.get(res_fork.m_child_ids[l]).m_begin;
-						consideredTime = Math.max(GTtime, Rtime); //the earliest common time point
+			//the kid needs (at least) this window to be matched
+			if (kidWindow > MAX_I) return (MAX_I+1);
+			window = Math.max(window, kidWindow);
+		}
 
-						//check the overlap (temporal distance and spatial overlap)
-						match = ( Math.abs(GTtime - Rtime) <= maxI  &&  cache.UniqueMatch(
-							gt_fork.m_child_ids[k], res_fork.m_child_ids[l], levels.get(consideredTime)) );
-					}
-				}
+		return (window);
+	}
+
+	/**
+	 * Scans all RES branching events (in their order) and, for every temporal
+	 * window i = 0..MAX_I independently, assigns to each of them the first
+	 * (in the order of gt_forks) GT branching event that has not been "recovered"
+	 * already and that matches within the window i. Returns the number of such
+	 * correctly detected RES branching events for every i.
+	 *
+	 * Only GT events whose parent ends at most MAX_I frames apart from the end
+	 * of the RES parent are examined (others cannot match for any i), and every
+	 * such pair is examined only once for all the windows.
+	 */
+	static int[] CountCorrectForks(final TrackDataCache cache,
+		final Vector<Fork> res_forks, final Vector<Fork> gt_forks,
+		final Map<Integer,Track> gt_tracks,
+		final Map<Integer,Track> res_tracks,
+		final Vector<TemporalLevel> levels)
+	{
+		final int noGT = gt_forks.size();
+
+		//index of GT forks sorted by the end time of their parents
+		final int[] gt_ends = new int[noGT];
+		final Integer[] order = new Integer[noGT];
+		for (int i=0; i < noGT; ++i)
+		{
+			gt_ends[i] = gt_tracks.get(gt_forks.get(i).m_parent_id).m_end;
+			order[i] = i;
+		}
+		Arrays.sort(order, (a,b) -> gt_ends[a] != gt_ends[b] ? Integer.compare(gt_ends[a],gt_ends[b]) : Integer.compare(a,b));
+		final int[] sortedIdx  = new int[noGT];
+		final int[] sortedEnds = new int[noGT];
+		for (int i=0; i < noGT; ++i)
+		{
+			sortedIdx[i]  = order[i];
+			sortedEnds[i] = gt_ends[order[i]];
+		}
+
+		//"was recovered already" flags, for every window separately
+		final boolean[][] gt_correct = new boolean[MAX_I+1][noGT];
+		final int[] numCorrect = new int[MAX_I+1];
+
+		//candidates of the currently examined RES fork, and their match windows
+		final int[] candidates = new int[noGT];
+		final int[] windows = new int[noGT];
+
+		for (Fork res_fork : res_forks)
+		{
+			final int Rtime = res_tracks.get(res_fork.m_parent_id).m_end;
+
+			//find GT forks whose parents end within [Rtime-MAX_I, Rtime+MAX_I]
+			int lo = 0, hi = noGT;
+			while (lo < hi)
+			{
+				final int mid = (lo+hi) >>> 1;
+				if (sortedEnds[mid] < Rtime-MAX_I) lo = mid+1; else hi = mid;
+			}
+			int noCandidates = 0;
+			for (int s=lo; s < noGT && sortedEnds[s] <= Rtime+MAX_I; ++s)
+				candidates[noCandidates++] = sortedIdx[s];
+
+			//keep the greedy first-match order of gt_forks
+			Arrays.sort(candidates, 0, noCandidates);
 
-				//has the GT-kids-for-cycle went whole through?
-				if (match)
+			//examine every candidate only once (and only if some window still may use it)
+			for (int c=0; c < noCandidates; ++c)
+			{
+				final int i = candidates[c];
+				boolean isNeeded = false;
+				for (int maxI = 0; maxI <= MAX_I && !isNeeded; ++maxI)
+					isNeeded = !gt_correct[maxI][i];
+
+				windows[c] = isNeeded ?
+					ForkMatchWindow(cache, res_fork, gt_forks.get(i), gt_tracks, res_tracks, levels) : MAX_I+1;
+			}
+
+			//resolve the greedy assignment for every window
+			for (int maxI = 0; maxI <= MAX_I; ++maxI)
+				for (int c=0; c < noCandidates; ++c)
 				{
-					gt_correct[i] = true;
-					return true;
+					final int i = candidates[c];
+					if (!gt_correct[maxI][i] && windows[c] <= maxI)
+					{
+						gt_correct[maxI][i] = true;
+						++numCorrect[maxI];
+						break;
+					}
 				}
-			}
 		}
 
-		return false;
+		return numCorrect;
 	}
 
 
@@ -172,8 +256,13 @@ public class BCi
 	 * can only carry on with the bottom stage then (thus being overall faster
 	 * than when computing both stages).
 	 *
-	 * The class never re-uses its own cache to allow for fresh complete
-	 * re-calculation on the (new) data in the same folders.
+	 * The class never re-uses its own cache from the previous call. Without a valid
+	 * given cache, the upper stage is calculated completely afresh, unless the
+	 * TrackDataCacheRegistry has been enabled: it then hands out the cache of the
+	 * same folders (and parameters) calculated before by any measure, provided no
+	 * input file has changed its size or modification time since, or re-calculates
+	 * the changed parts of it otherwise. The tracks and levels of such cache are
+	 * shared and must not be modified.
 	 *
 	 * This is the main BCi calculator.
 	 */
@@ -204,25 +293,20 @@ public class BCi
 		log.info("Number of divisions in computed (result) tracks       : "+noRES);
 
 		//store F-scores explicitly to be able to report them separately afterwards
-		final double[] bcis = new double[6];
+		final double[] bcis = new double[MAX_I+1];
+
+		//find correctly detected divisions for all temporal window sizes at once
+		final int[] numCorrect = CountCorrectForks(cache, res_forks, gt_forks, gt_tracks, res_tracks, levels);
 
 		//report for interval for temporal window sizes (the 'i' parameter of BCi)
-		for (int maxI = 0; maxI <= 5; ++maxI)
+		for (int maxI = 0; maxI <= MAX_I; ++maxI)
 		{
-			final boolean[] gt_correct = new boolean[noGT];
-			int numCorrect = 0;
-
-			//scan all result branching events for a match
-			for (Fork res_fork : res_forks)
-				if (CorrectFork(maxI, res_fork, gt_forks, gt_correct, gt_tracks, res_tracks, levels))
-					++numCorrect;
-
-			log.info("Number of correctly detected divisions for i="+maxI+"        : "+numCorrect);
+			log.info("Number of correctly detected divisions for i="+maxI+"        : "+numCorrect[maxI]);
 
 			//calculate F-score:
 			if (noGT > 0)
 			{
-				bcis[maxI] = (2.0 * numCorrect) / (double)(noRES + noGT);
+				bcis[maxI] = (2.0 * numCorrect[maxI]) / (double)(noRES + noGT);
 
 				//are we at the desired 'i' parameter value? save it then...
 				if (maxI == desiredI) bcI = bcis[maxI];
@@ -242,7 +326,7 @@ public class BCi
 		return (bcI);
 	}
 
-	/// This is the wrapper BCi calculator, assuring complete re-calculation.
+	/// This is the wrapper BCi calculator, assuring complete re-calculation (unless the TrackDataCacheRegistry is enabled).
 	public double calculate(final String gtPath, final String resPath)
 	throws IOException, ImgIOException
 	{
@@ -35,9 +35,12 @@ import java.io.IOException;
 
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Arrays;
 
 import net.celltrackingchallenge.measures.TrackDataCache.Track;
 import net.celltrackingchallenge.measures.TrackDataCache.Fork;
+import net.celltrackingchallenge.measures.TrackDataCache.TrackTable;
 
 public class CCA
 {
@@ -69,6 +72,43 @@ public class CCA
 	private double cca = 0.0;
 
 
+	/**
+	 * Detects complete cell cycles and returns their lengths/durations. Complete
+	 * cell cycle corresponds to a track whose begin and end is evidenced in the
+	 * data, i.e. we see the whole life of a cell from its birth till its
+	 * death/division. These are exactly the tracks that are daughters in some
+	 * branching event and, at the same time, mothers in another one.
+	 */
+	static int[] CompleteCycleLengths(final Map<Integer,Track> tracks, final Vector<Fork> forks)
+	{
+		//note all tracks that start with a branching event (the earlier point),
+		//the flags are indexed via the table as track IDs can be any integers
+		final TrackTable table = new TrackTable(tracks);
+		final boolean[] isDaughter = new boolean[table.size()];
+		for (Fork fork : forks)
+			for (int id : fork.m_child_ids)
+			{
+				final int idx = table.indexOf(id);
+				if (idx != -1) isDaughter[idx] = true;
+			}
+
+		//scan all branching events and see if their mothers were born in some
+		final int[] lengths = new int[forks.size()];
+		int count = 0;
+		for (Fork fork : forks) //later/ending point of some track
+		{
+			final int idx = table.indexOf(fork.m_parent_id);
+			if (idx != -1 && isDaughter[idx])
+			{
+				//detected connecting track, its duration/length
+				lengths[count++] = table.m_end[idx] - table.m_begin[idx] +1;
+			}
+		}
+
+		return Arrays.copyOf(lengths, count);
+	}
+
+
 	//---------------------------------------------------------------------/
 	/**
 	 * Measure calculation happens in two stages. The first/upper stage does
@@ -85,8 +125,13 @@ public class CCA
 	 * can only carry on with the bottom stage then (thus being overall faster
 	 * than when computing both stages).
 	 *
-	 * The class never re-uses its own cache to allow for fresh complete
-	 * re-calculation on the (new) data in the same folders.
+	 * The class never re-uses its own cache from the previous call. Without a valid
+	 * given cache, the upper stage is calculated completely afresh, unless the
+	 * TrackDataCacheRegistry has been enabled: it then hands out the cache of the
+	 * same folders (and parameters) calculated before by any measure, provided no
+	 * input file has changed its size or modification time since, or re-calculates
+	 * the changed parts of it otherwise. The tracks and levels of such cache are
+	 * shared and must not be modified.
 	 *
 	 * This is the main CCA calculator.
 	 */
@@ -115,61 +160,24 @@ public class CCA
 		//
 		//this we do by looking for tracks that connect two branching events
 
+		//lengths of the detected complete cell cycles
+		final int[] gt_lengths  = CompleteCycleLengths(gt_tracks,  gt_forks);
+		final int[] res_lengths = CompleteCycleLengths(res_tracks, res_forks);
+
 		//number of detected complete cell cycles
-		int gt_count=0;
-		int res_count=0;
+		final int gt_count  = gt_lengths.length;
+		final int res_count = res_lengths.length;
 
 		//maximum length spotted
 		int maxLength = 0;
+		for (int length : gt_lengths)  if (length > maxLength) maxLength = length;
+		for (int length : res_lengths) if (length > maxLength) maxLength = length;
 
 		//frequency histograms of their lengths
-		HashMap<Integer,Integer> gt_lenHist  = new HashMap<>();
-		HashMap<Integer,Integer> res_lenHist = new HashMap<>();
-
-		//now, scan all GT branching events
-		for (Fork parent : gt_forks) //later/ending point of some track
-		for (Fork child  : gt_forks) //earlier branching (may have many daughters)
-		for (int i=0; i < child.m_child_ids.length; ++i) //earlier/starting point of some track
-		{
-			//here we consider all combinations of starting vs. ending track points,
-			//see if the connection is realized with the same track
-			if (child.m_child_ids[i] == parent.m_parent_id)
-			{
-				//detected connecting track, its id and its duration/length
-				final int id = parent.m_parent_id;
-				final int length = gt_tracks.get(id).m_end - gt_tracks.get(id).m_begin +1;
-
-				//add the length to the histogram
-				Integer count = gt_lenHist.get(length);
-				gt_lenHist.put(length, count == null ? 1 : count+1);
-
-				//updated the max length observed so far
-				if (length > maxLength) maxLength = length;
-
-				//another complete cycle detected...
-				++gt_count;
-			}
-		}
-
-		//the same for RES branching events and tracks
-		for (Fork parent : res_forks)
-		for (Fork child  : res_forks)
-		for (int i=0; i < child.m_child_ids.length; ++i)
-		{
-			if (child.m_child_ids[i] == parent.m_parent_id)
-			{
-				//detected connecting track, its id and its duration/length
-				final int id = parent.m_parent_id;
-				final int length = res_tracks.get(id).m_end - res_tracks.get(id).m_begin +1;
-
-				Integer count = res_lenHist.get(length);
-				res_lenHist.put(length, count == null ? 1 : count+1);
-
-				if (length > maxLength) maxLength = length;
-
-				++res_count;
-			}
-		}
+		final long[] gt_lenHist  = new long[maxLength+1];
+		final long[] res_lenHist = new long[maxLength+1];
+		for (int length : gt_lengths)  if (length >= 0) ++gt_lenHist[length];
+		for (int length : res_lengths) if (length >= 0) ++res_lenHist[length];
 
 		//do some overview reports on the situation in the data
 		log.info("---");
@@ -183,13 +191,10 @@ public class CCA
 		{
 			//now, calculate the CCA
 
-			//accumulate sums for both histograms, respectively, so that
-			//we can move into "domain of probabilities" from "frequency counts"
-			long gt_sum = 0;
-			for (Integer count : gt_lenHist.values()) gt_sum += count;
-
-			long res_sum = 0;
-			for (Integer count : res_lenHist.values()) res_sum += count;
+			//sums of both histograms, respectively, so that we can move
+			//into "domain of probabilities" from "frequency counts"
+			final long gt_sum  = gt_count;
+			final long res_sum = res_count;
 
 			//with (for example) gt_lenHist[i] and gt_sum we can construct
 			//gt_CDF[i] = ( SUM_j=0..i gt_lenHist[j] ) / gt_sum
@@ -203,11 +208,8 @@ public class CCA
 			for (int len = 0; len <= maxLength; ++len)
 			{
 				//calculate gt_CDF[len]
-				Integer c = gt_lenHist.get(len);
-				gt_cumm += c == null ? 0 : c;
-
-				c = res_lenHist.get(len);
-				res_cumm += c == null ? 0 : c;
+				gt_cumm  += gt_lenHist[len];
+				res_cumm += res_lenHist[len];
 
 				//see the difference between the two CDFs[len]
 				double diff  = (double)gt_cumm  / (double)gt_sum;
@@ -225,7 +227,7 @@ public class CCA
 		return (cca);
 	}
 
-	/// This is the wrapper CCA calculator, assuring complete re-calculation.
+	/// This is the wrapper CCA calculator, assuring complete re-calculation (unless the TrackDataCacheRegistry is enabled).
 	public double calculate(final String gtPath, final String resPath)
 	throws IOException, ImgIOException
 	{
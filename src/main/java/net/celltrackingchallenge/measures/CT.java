@@ -38,6 +38,7 @@ import java.util.Map;
 import java.util.HashMap;
 
 import net.celltrackingchallenge.measures.TrackDataCache.Track;
+import net.celltrackingchallenge.measures.TrackDataCache.TrackTable;
 import net.celltrackingchallenge.measures.TrackDataCache.TemporalLevel;
 
 public class CT
@@ -70,7 +71,15 @@ public class CT
 	private double ct = 0.0;
 
 
-	///calculate the number of completely correctly reconstructed tracks
+	/**
+	 * Calculate the number of completely correctly reconstructed tracks.
+	 *
+	 * A RES track can reconstruct only the GT track whose label its first node
+	 * uniquely matches, so that is the only candidate examined for every RES track
+	 * (instead of all GT tracks that start and end at the same time points). The
+	 * candidate is then verified along the rest of the track, which makes the whole
+	 * calculation linear in the total length of the RES tracks.
+	 */
 	public int NumCorrectPaths(final Vector<TemporalLevel> levels,
 		final Map<Integer,Track> gt_tracks,
 		final Map<Integer,Track> res_tracks)
@@ -78,52 +87,47 @@ public class CT
 		//return value
 		int num_correct = 0;
 
-		//serialization of GT tracks to obtain:
-		//indicator if given GT track has been correctly reconstructed ...
-		final boolean[] gt_correct = new boolean[gt_tracks.size()];
-		//... with its corresponding track ID
-		final int[] gt_ids = new int[gt_tracks.size()];
-
-		int i = 0;
-		for (Integer id : gt_tracks.keySet())
-		{
-			//NB: enumerates GT IDs in some undefined order
-			//NB: (and we need to scan gt_tracks repeatedly, always in the same order)
-			gt_correct[i] = false;
-			gt_ids[i] = id;
-			++i;
-		}
-
-		//helper variable
-		boolean overlap;
+		//indexed GT tracks, and an indicator if given GT track has been correctly reconstructed
+		final TrackTable gt_table = new TrackTable(gt_tracks);
+		final boolean[] gt_correct = new boolean[gt_table.size()];
 
 		//now, over all RES tracks and look for appropriate, not yet reconstructed GT track
 		for (Track res_track : res_tracks.values())
 		{
-			//scan over all GT tracks ...
-			for (i = 0; i < gt_correct.length; ++i)
+			//is the track within the image sequence at all?
+			//(if not, it cannot reconstruct any GT track that passes the consistency check)
+			if (res_track.m_begin < 0 || res_track.m_end >= levels.size()
+			    || res_track.m_end < res_track.m_begin)
+			{
+				log.info("Warning: RES track "+res_track.m_id+" ["+res_track.m_begin+","+res_track.m_end
+					+"] is not within the "+levels.size()+" time points, skipping it.");
+				continue;
+			}
+
+			//find the GT label that the first node of the RES track uniquely matches
+			final TemporalLevel first = levels.get(res_track.m_begin);
+			final int res_idx = first.res_lookupLabel(res_track.m_id);
+			final int gt_idx = res_idx != -1 ? first.res_uniqueMatch(res_idx) : -1;
+			if (gt_idx == -1) continue;
+
+			//the track of that label is the only candidate, is it
+			//not reconstructed yet, and does it start and end at the same time point?
+			final int i = gt_table.indexOf( first.m_gt_lab[gt_idx] );
+			if (i == -1 || gt_correct[i]
+			    || gt_table.m_begin[i] != res_track.m_begin || gt_table.m_end[i] != res_track.m_end) continue;
+
+			//check spatial overlap at all (remaining) time points of the track
+			boolean overlap = true;
+			for (int t=res_track.m_begin+1; t <= res_track.m_end && overlap; ++t)
+				if (!cache.UniqueMatch(gt_table.m_id[i], res_track.m_id, levels.get(t)))
+					overlap = false;
+
+			if (overlap == true)
 			{
-				//... to find not reconstructed GT track that starts and ends at the same time point
-				if (!gt_correct[i] && gt_tracks.get(gt_ids[i]).m_begin == res_track.m_begin
-				   && gt_tracks.get(gt_ids[i]).m_end == res_track.m_end)
-				{
-					//check spatial overlap at all time points of the track
-					overlap = true;
-					for (int t=res_track.m_begin; t <= res_track.m_end && overlap; ++t)
-						if (!cache.UniqueMatch(gt_ids[i], res_track.m_id, levels.get(t)))
-							overlap = false;
-
-					if (overlap == true)
-					{
-						//overlaps okay in the entire length of the GT track,
-						//thus, mark it as reconstructed
-						gt_correct[i] = true;
-						++num_correct;
-						break;
-						//NB: breaks the "over all GT" cycle as this res_track
-						//    cannot reconstruct another GT track
-					}
-				}
+				//overlaps okay in the entire length of the GT track,
+				//thus, mark it as reconstructed
+				gt_correct[i] = true;
+				++num_correct;
 			}
 		}
 
@@ -147,8 +151,13 @@ public class CT
 	 * can only carry on with the bottom stage then (thus being overall faster
 	 * than when computing both stages).
 	 *
-	 * The class never re-uses its own cache to allow for fresh complete
-	 * re-calculation on the (new) data in the same folders.
+	 * The class never re-uses its own cache from the previous call. Without a valid
+	 * given cache, the upper stage is calculated completely afresh, unless the
+	 * TrackDataCacheRegistry has been enabled: it then hands out the cache of the
+	 * same folders (and parameters) calculated before by any measure, provided no
+	 * input file has changed its size or modification time since, or re-calculates
+	 * the changed parts of it otherwise. The tracks and levels of such cache are
+	 * shared and must not be modified.
 	 *
 	 * This is the main CT calculator.
 	 */
@@ -189,7 +198,7 @@ public class CT
 		return (ct);
 	}
 
-	/// This is the wrapper CT calculator, assuring complete re-calculation.
+	/// This is the wrapper CT calculator, assuring complete re-calculation (unless the TrackDataCacheRegistry is enabled).
 	public double calculate(final String gtPath, final String resPath)
 	throws IOException, ImgIOException
 	{
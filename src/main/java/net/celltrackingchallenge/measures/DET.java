@@ -41,6 +41,7 @@ import java.util.Set;
 import java.util.Iterator;
 
 import net.celltrackingchallenge.measures.TrackDataCache.TemporalLevel;
+import net.celltrackingchallenge.measures.ReportSink.Kind;
 
 public class DET extends TRA
 {
@@ -57,19 +58,96 @@ public class DET extends TRA
 	    time points, and this when this attribute becomes useful. */
 	public Set<Integer> doOnlyTheseTimepoints = null;
 
+	///the number of GT labels seen so far in the current calculation
+	protected long gtLabelsFound = 0;
+
+	/**
+	 * Classifies the nodes (labels) of the given time point, that is, adds the
+	 * found errors to the counters (and reports them) and counts the GT labels.
+	 */
+	protected void ClassifyNodes(final TemporalLevel level)
+	{
+		//sweep over all gt labels
+		for (int i=0; i < level.m_gt_lab.length; ++i)
+		{
+			//check if we have found corresponding res label
+			if (level.m_gt_match[i] == -1)
+			{
+				//no correspondence -> the gt label represents FN (false negative) case
+				++cntFN;
+				if (doLogReports)
+					reportNode(Kind.FN, level.m_level,level.m_gt_lab[i], 0);
+				if (doMatchingReports)
+					reportNode(Kind.GT_MATCH, level.m_level,level.m_gt_lab[i], 0);
+			}
+			else
+			{
+				if (doMatchingReports)
+					reportNode(Kind.GT_MATCH, level.m_level,level.m_gt_lab[i], level.m_res_lab[level.m_gt_match[i]]);
+			}
+		}
+		gtLabelsFound += level.m_gt_lab.length;
+
+		//for every res label, check we have found exactly one corresponding gt label
+		int num;
+		for (int j=0; j < level.m_res_lab.length; ++j)
+		{
+			//number of overlapping gt labels
+			num = level.res_matchCount(j);
+
+			if (num == 0)
+			{
+				//no label -- too few
+				++cntFP;
+				if (doLogReports)
+					reportNode(Kind.FP, level.m_level,level.m_res_lab[j], 0);
+				if (doMatchingReports)
+					reportNode(Kind.RES_MATCH, level.m_level,level.m_res_lab[j], 0);
+			}
+			else if (num > 1)
+			{
+				//too many labels...
+				cntNS += num - 1;
+				if (doLogReports)
+				{
+					for (int qq=1; qq < num; ++qq)
+						reportNode(Kind.NS, level.m_level,level.m_res_lab[j], 0);
+				}
+				max_split = num > max_split ? num : max_split;
+				if (doMatchingReports)
+					reportNode(Kind.RES_MATCH, level.m_level,level.m_res_lab[j], ReportSink.MULTIPLE);
+			}
+			else //num == 1
+			{
+				if (doMatchingReports)
+					reportNode(Kind.RES_MATCH, level.m_level,level.m_res_lab[j], level.m_gt_lab[level.res_match(j,0)]);
+			}
+		}
+	}
+
+	///creates the cache that classifies the streamed image pairs, set up similar as the 'params'
+	TrackDataCache newStreamingCache(final TrackDataCache params)
+	{
+		final TrackDataCache cache = new TrackDataCache(log);
+		cache.setupSimilarAs(params);
+		return cache;
+	}
+
 	//---------------------------------------------------------------------/
-	///the main DET calculator/calculation pipeline
+	/**
+	 * The main DET calculator/calculation pipeline.
+	 *
+	 * If no (complete and up-to-date) TrackDataCache is available, the image pairs
+	 * are not collected into a new cache. Instead, every pair is classified and its
+	 * nodes are counted right away, and its TemporalLevel is dropped afterwards.
+	 * The memory footprint is then that of a few image pairs (see noOfPrefetchedFrames),
+	 * regardless of the length of the video, and getCache() returns a cache without levels.
+	 */
 	@Override
 	public double calculate(final String gtPath, final String resPath,
 	                        final TrackDataCache _cache)
 	throws IOException, ImgIOException
 	{
-		//due to the above overrides, we can use TRA.calculate() as it is,
-		//we only zero all the links-associated weights to be on the safe side...
-		this.penalty.m_ed = 0.0;
-		this.penalty.m_ea = 0.0;
-		this.penalty.m_ec = 0.0;
-
 		//invalidate own cache
 		cache = null;
 
@@ -77,14 +155,47 @@ public class DET extends TRA
 		//and if it fits our input, then use it
 		if (_cache != null && _cache.validFor(gtPath,resPath)) cache = _cache;
 
-		//if no cache is available after all, compute it,
-		//but remember that it cannot be re-used -- see below
-		if (cache == null)
+		//the cache parameters of this measure
+		final TrackDataCache params = new TrackDataCache(log);
+		params.noOfDigits = noOfDigits;
+		params.noOfPrefetchedFrames = noOfPrefetchedFrames;
+		params.noOfThreads = noOfThreads;
+		params.shouldComplainOnEmptyImages = doStopOnEmptyImages;
+
+		//maybe some other measure has computed it already (for all time points),
+		//if the registry is enabled; the tracks and levels of such cache are shared
+		if (cache == null && doOnlyTheseTimepoints == null)
+			cache = TrackDataCacheRegistry.getInstance().find(gtPath,resPath,params);
+
+		//do the bottom stage
+		//DEBUG//log.info("Computing the TRA bottom part...");
+		aogm = 0.0;
+		resetErrorCounters();
+		gtLabelsFound = 0; //for calculating aogm_empty
+
+		openReports();
+
+		//this is: local ClassifyLabels() -- the part that already does some AOGM checks
+		//this is: the AOGM-specific last portion of the original FindMatch() C++ function:
+		//
+		//this is: basically checks matching between all nodes discovered in both GT and RES images
+		if (cache != null)
 		{
-			//do the upper stage
-			cache = new TrackDataCache(log);
-			cache.noOfDigits = noOfDigits;
-			cache.shouldComplainOnEmptyImages = doStopOnEmptyImages;
+			for (TemporalLevel level : cache.levels)
+			{
+				//skip this time point if the list of wished time points exists
+				//and the current one is not present in it
+				if (doOnlyTheseTimepoints != null && !doOnlyTheseTimepoints.contains(level.m_level)) continue;
+
+				ClassifyNodes(level);
+			}
+		}
+		else
+		{
+			//no cache is available after all, stream the upper stage
+			//through the bottom one: the cache here serves only to classify
+			//the image pairs, it keeps none of them -- it cannot be re-used
+			cache = newStreamingCache(params);
 
 			log.info(" GT path: "+gtPath+"/TRA");
 			log.info("RES path: "+resPath);
@@ -92,7 +203,7 @@ public class DET extends TRA
 
 			//unified approach to either trying filename one by one,
 			//or creating filenames from given list of time points
-			class FileTryer {
+			class FileTryer implements Iterator<FramesPrefetcher.Frame<Integer>> {
 				private final Iterator<Integer> sampler;
 				private int time = -1;
 
@@ -101,17 +212,22 @@ public class DET extends TRA
 					sampler = set != null ? set.iterator() : null;
 				}
 
-				int next()
+				@Override
+				public FramesPrefetcher.Frame<Integer> next()
 				{
 					if (sampler == null)
 						++time;
 					else
 						time = sampler.next();
 
-					return time;
+					//the image pair
+					return new FramesPrefetcher.Frame<>(time,
+						String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",gtPath,time),
+						String.format("%s/mask%0"+noOfDigits+"d.tif",resPath,time) );
 				}
 
-				boolean hasNext()
+				@Override
+				public boolean hasNext()
 				{
 					if (sampler == null)
 						return Files.isReadable(
@@ -124,128 +240,52 @@ public class DET extends TRA
 
 			//iterate through the GT folder and read files, one by one,
 			//find the appropriate file in the RES folder,
-			//and call ClassifyLabels() for every such pair
-			while (fileSampler.hasNext())
+			//classify every such pair and its nodes, and forget it
+			//(while the next pairs are being read in the background)
+			int noOfFrames = 0;
+			try (FramesPrefetcher<Integer> frames
+			       = new FramesPrefetcher<>(fileSampler, cache::ReadImage, cache.noOfPrefetchedFrames))
 			{
-				final int time = fileSampler.next();
-
-				//read the image pair
-				Img<UnsignedShortType> gt_img
-					= cache.ReadImageG16(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",gtPath,time));
+				while (frames.hasNext())
+				{
+					FramesPrefetcher.Frame<Integer> frame = frames.next();
 
-				Img<UnsignedShortType> res_img
-					= cache.ReadImageG16(String.format("%s/mask%0"+noOfDigits+"d.tif",resPath,time));
+					//the image pair
+					Img<UnsignedShortType> gt_img = cache.CheckImageG16(frame.images[0], frame.fileNames[0]);
+					Img<UnsignedShortType> res_img = cache.CheckImageG16(frame.images[1], frame.fileNames[1]);
 
-				cache.ClassifyLabels(gt_img, res_img, time);
+					ClassifyNodes( cache.CreateLevel(gt_img, res_img, cache.shouldComplainOnEmptyImages,
+					                                  frame.key, cache.overlapRatio, cache.noOfThreads) );
+					++noOfFrames;
 
-				//to be on safe side (with memory)
-				gt_img = null;
-				res_img = null;
+					//to be on safe side (with memory)
+					frame = null;
+					gt_img = null;
+					res_img = null;
+				}
 			}
 
-			if (cache.levels.size() == 0)
+			if (noOfFrames == 0)
 				throw new IllegalArgumentException("No reference (GT) image was found!");
 
 			//don't update this.gtPath and this.resPath (make it incompatible this way)
 			//as the content of this cache is not exactly
-			//what it is supposed to be (it is incomplete)
-		}
-
-		//do the bottom stage
-		//DEBUG//log.info("Computing the TRA bottom part...");
-		aogm = 0.0;
-		long gtLabelsFound = 0; //for calculating aogm_empty
-
-		if (doLogReports)
-		{
-			logNS.add(String.format("----------Splitting Operations (Penalty=%g)----------", penalty.m_ns));
-			logFN.add(String.format("----------False Negative Vertices (Penalty=%g)----------", penalty.m_fn));
-			logFP.add(String.format("----------False Positive Vertices (Penalty=%g)----------", penalty.m_fp));
-		}
-		if (doMatchingReports)
-			logMatch.add(String.format("----------Vertices Matching Status (No Penalty)----------", penalty.m_ns));
-
-		//this is: local ClassifyLabels() -- the part that already does some AOGM checks
-		//this is: the AOGM-specific last portion of the original FindMatch() C++ function:
-		//
-		//this is: basically checks matching between all nodes discovered in both GT and RES images
-		for (TemporalLevel level : cache.levels)
-		{
-			//skip this time point if the list of wished time points exists
-			//and the current one is not present in it
-			if (doOnlyTheseTimepoints != null && !doOnlyTheseTimepoints.contains(level.m_level)) continue;
-
-			//sweep over all gt labels
-			for (int i=0; i < level.m_gt_lab.length; ++i)
-			{
-				//check if we have found corresponding res label
-				if (level.m_gt_match[i] == -1)
-				{
-					//no correspondence -> the gt label represents FN (false negative) case
-					aogm += penalty.m_fn;
-					if (doLogReports)
-						logFN.add(String.format("T=%d GT_label=%d",level.m_level,level.m_gt_lab[i]));
-					if (doMatchingReports)
-						logMatch.add(String.format("T=%d GT_label=%d matches none",level.m_level,level.m_gt_lab[i]));
-				}
-				else
-				{
-					if (doMatchingReports)
-						logMatch.add(String.format("T=%d GT_label=%d matches %d",level.m_level,level.m_gt_lab[i], level.m_res_lab[level.m_gt_match[i]] ));
-				}
-			}
-			gtLabelsFound += level.m_gt_lab.length;
-
-			//for every res label, check we have found exactly one corresponding gt label
-			int num;
-			for (int j=0; j < level.m_res_lab.length; ++j)
-			{
-				//number of overlapping gt labels
-				num = level.m_res_match[j].size();
-
-				if (num == 0)
-				{
-					//no label -- too few
-					aogm += penalty.m_fp;
-					if (doLogReports)
-						logFP.add(String.format("T=%d Label=%d",level.m_level,level.m_res_lab[j]));
-					if (doMatchingReports)
-						logMatch.add(String.format("T=%d Label=%d matches nothing",level.m_level,level.m_res_lab[j]));
-				}
-				else if (num > 1)
-				{
-					//too many labels...
-					aogm += (num - 1) * penalty.m_ns;
-					if (doLogReports)
-					{
-						for (int qq=1; qq < num; ++qq)
-							logNS.add(String.format("T=%d Label=%d",level.m_level,level.m_res_lab[j]));
-					}
-					max_split = num > max_split ? num : max_split;
-					if (doMatchingReports)
-						logMatch.add(String.format("T=%d Label=%d matches multiple",level.m_level,level.m_res_lab[j]));
-				}
-				else //num == 1
-				{
-					if (doMatchingReports)
-						logMatch.add(String.format("T=%d Label=%d matches exactly %d",level.m_level,level.m_res_lab[j], level.m_gt_lab[(int)level.m_res_match[j].toArray()[0]] ));
-				}
-			}
+			//what it is supposed to be (it is empty)
 		}
 
 		// check the minimality condition
 		if ((max_split - 1) * penalty.m_ns > (penalty.m_fp + max_split * penalty.m_fn))
 			log.info("Warning: The minimality condition broken! (m*="+max_split+")");
+
+		//no edges are considered here, and the empty result is curated only by adding the GT nodes
+		errorCounts = new ErrorCounts(cntNS,cntFN,cntFP, 0,0,0, max_split, gtLabelsFound, 0);
+		aogm = errorCounts.aogm(penalty);
 		//AOGM calculation ends here
 
 		//should the log reports be printed?
-		if (doLogReports)
-		{
-			reportLog(logNS);
-			reportLog(logFN);
-			reportLog(logFP);
-		}
-		if (doMatchingReports) reportLog(logMatch);
+		if (doLogReports) logReports(Kind.NS, Kind.FN, Kind.FP);
+		if (doMatchingReports) logReports(Kind.GT_MATCH);
+		closeReports();
 
 		//now, the (old) TRA between GT and RES is calculated:
 		//the old refers to the un-normalized TRA value, interval [0,infinity)
@@ -256,7 +296,7 @@ public class DET extends TRA
 			//calculate the DET when no result is supplied
 			// (approx. an energy required to CREATE detection result from the scratch)
 			//
-			final double aogm_empty = penalty.m_fn * (double)gtLabelsFound;
+			final double aogm_empty = errorCounts.aogmEmpty(penalty);
 
 			if (gtLabelsFound == 0)
 				throw new IllegalArgumentException("No reference (GT) label was found at all!");
@@ -266,11 +306,8 @@ public class DET extends TRA
 			log.info("AOGM-D to build a new correct result: "+aogm_empty);
 
 			//if correcting is more expensive than creating, we assume user deletes
-			//the whole result and starts from the scratch, hence aogm = aogm_empty
-			aogm = aogm > aogm_empty ? aogm_empty : aogm;
-
-			//normalization:
-			aogm = 1.0 - aogm/aogm_empty;
+			//the whole result and starts from the scratch, and normalize
+			aogm = errorCounts.normalized(penalty);
 
 			log.info("normalized AOGM-D = DET: "+aogm);
 		}
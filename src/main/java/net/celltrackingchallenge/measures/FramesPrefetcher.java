@@ -0,0 +1,168 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.imglib2.img.Img;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Source of frames, that is, of small groups of images that are processed
+ * together (e.g., a GT and RES image of the same time point), that loads
+ * the upcoming frames in background threads while the caller is busy with
+ * the current frame. The frames are always returned in the order in which
+ * they are requested.
+ *
+ * At most 'depth' frames are loaded ahead, the next one is requested only after
+ * the caller has taken some. This way, the memory consumption stays bounded even
+ * if the loading is much faster than the processing of the frames. With 'depth'
+ * of zero, every frame is loaded only when asked for, in the caller's thread.
+ *
+ * @param <K> Type of the caller's key to identify the frames, e.g., time point
+ */
+public class FramesPrefetcher<K> implements AutoCloseable
+{
+	/** Loader of one image, e.g., TrackDataCache::ReadImage */
+	public interface ImageLoader
+	{
+		Img<?> load(final String fileName) throws IOException;
+	}
+
+	/** One frame: the caller's key, names of its files and, once loaded, its images. */
+	public static class Frame<K>
+	{
+		public Frame(final K key, final String... fileNames)
+		{
+			this.key = key;
+			this.fileNames = fileNames;
+		}
+
+		public final K key;
+		public final String[] fileNames;
+
+		/** The images, in the order of the fileNames, null until the frame is loaded. */
+		public Img<?>[] images = null;
+	}
+
+	/**
+	 * @param requests Provides frames (without images) in the order in which they will be read.
+	 * @param loader The function to load one image.
+	 * @param depth How many frames can be loaded ahead.
+	 */
+	public FramesPrefetcher(final Iterator<Frame<K>> requests, final ImageLoader loader, final int depth)
+	{
+		this.requests = requests;
+		this.loader = loader;
+		this.depth = depth;
+
+		workers = depth > 0 ? Executors.newFixedThreadPool(depth, r -> {
+				final Thread t = new Thread(r, "FramesPrefetcher");
+				t.setDaemon(true);
+				return t;
+			}) : null;
+
+		requestMoreFrames();
+	}
+
+	private final Iterator<Frame<K>> requests;
+	private final ImageLoader loader;
+	private final int depth;
+
+	private final ExecutorService workers;
+	private final ArrayDeque<Future<Frame<K>>> pending = new ArrayDeque<>();
+
+	private Frame<K> load(final Frame<K> frame)
+	throws IOException
+	{
+		final Img<?>[] images = new Img<?>[frame.fileNames.length];
+		for (int i=0; i < images.length; ++i)
+			images[i] = loader.load(frame.fileNames[i]);
+
+		frame.images = images;
+		return frame;
+	}
+
+	private void requestMoreFrames()
+	{
+		while (workers != null && pending.size() < depth && requests.hasNext())
+		{
+			final Frame<K> frame = requests.next();
+			pending.add( workers.submit( () -> load(frame) ) );
+		}
+	}
+
+	public boolean hasNext()
+	{
+		return ( !pending.isEmpty() || requests.hasNext() );
+	}
+
+	/** Returns the next frame, waits for it if it is not loaded yet. */
+	public Frame<K> next()
+	throws IOException
+	{
+		if (workers == null) return load( requests.next() );
+
+		final Future<Frame<K>> frame = pending.poll();
+		if (frame == null) throw new NoSuchElementException("No more frames.");
+
+		//keep the background loading going while the caller works with this frame
+		requestMoreFrames();
+
+		try {
+			return frame.get();
+		}
+		catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new RuntimeException(cause);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a frame.", e);
+		}
+	}
+
+	/** Stops loading of all not-yet-taken frames. */
+	@Override
+	public void close()
+	{
+		for (Future<Frame<K>> frame : pending) frame.cancel(true);
+		pending.clear();
+		if (workers != null) workers.shutdownNow();
+	}
+}
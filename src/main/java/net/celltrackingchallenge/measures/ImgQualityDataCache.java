@@ -68,6 +68,7 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 
 public class ImgQualityDataCache
 {
@@ -86,6 +87,9 @@ public class ImgQualityDataCache
 	///specifies how many digits are to be expected in the input filenames
 	public int noOfDigits = 3;
 
+	///specifies how many image triples can be read ahead (in the background), 0 disables it
+	public int noOfPrefetchedFrames = 1;
+
 	///a constructor requiring connection to Fiji report/log services
 	public ImgQualityDataCache(final Logger _log, final OpService _ops)
 	{
@@ -116,6 +120,7 @@ public class ImgQualityDataCache
 			doDensityPrecalculation = _cache.doDensityPrecalculation;
 			doShapePrecalculation   = _cache.doShapePrecalculation;
 			noOfDigits = _cache.noOfDigits;
+			noOfPrefetchedFrames = _cache.noOfPrefetchedFrames;
 		}
 		else
 		{
@@ -869,40 +874,65 @@ public class ImgQualityDataCache
 		//check also previous frame for overlap size
 		Img<UnsignedShortType> imgFGprev = null;
 		//
-		int time = 0;
-		while (Files.isReadable(
-			new File(String.format("%s/t%0"+noOfDigits+"d.tif",imgPath,time)).toPath()))
-		{
-			//read the image triple (raw image, FG labels, BG label)
-			Img<?> img
-				= tCache.ReadImage(String.format("%s/t%0"+noOfDigits+"d.tif",imgPath,time));
+		//the image triples (raw image, FG labels, BG label) are read ahead in the background
+		final Iterator<FramesPrefetcher.Frame<Integer>> fileTriples = new Iterator<FramesPrefetcher.Frame<Integer>>() {
+			int time = 0;
 
-			Img<UnsignedShortType> imgFG
-				= tCache.ReadImageG16(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",annPath,time));
+			@Override
+			public boolean hasNext()
+			{
+				return Files.isReadable(
+					new File(String.format("%s/t%0"+noOfDigits+"d.tif",imgPath,time)).toPath());
+			}
 
-			Img<UnsignedByteType> imgBG
-				= tCache.ReadImageG8(String.format("%s/BG/mask%0"+noOfDigits+"d.tif",annPath,time));
+			@Override
+			public FramesPrefetcher.Frame<Integer> next()
+			{
+				final FramesPrefetcher.Frame<Integer> frame = new FramesPrefetcher.Frame<>(time,
+					String.format("%s/t%0"+noOfDigits+"d.tif",imgPath,time),
+					String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",annPath,time),
+					String.format("%s/BG/mask%0"+noOfDigits+"d.tif",annPath,time) );
+				++time;
+				return frame;
+			}
+		};
+		//
+		int noOfFrames = 0;
+		try (FramesPrefetcher<Integer> frames
+		       = new FramesPrefetcher<>(fileTriples, tCache::ReadImage, noOfPrefetchedFrames))
+		{
+			while (frames.hasNext())
+			{
+				FramesPrefetcher.Frame<Integer> frame = frames.next();
+				final int time = frame.key;
 
-			ClassifyLabels(time, (Img)img, imgBG, imgFG, imgFGprev, data);
+				//the image triple (raw image, FG labels, BG label)
+				Img<?> img = frame.images[0];
+				Img<UnsignedShortType> imgFG = tCache.CheckImageG16(frame.images[1], frame.fileNames[1]);
+				Img<UnsignedByteType>  imgBG = tCache.CheckImageG8(frame.images[2], frame.fileNames[2]);
+				frame = null;
 
-			imgFGprev = null; //be explicit that we do not want this in memory anymore
-			imgFGprev = imgFG;
-			++time;
+				ClassifyLabels(time, (Img)img, imgBG, imgFG, imgFGprev, data);
 
-			//to be on safe side (with memory)
-			img = null;
-			imgFG = null;
-			imgBG = null;
+				imgFGprev = null; //be explicit that we do not want this in memory anymore
+				imgFGprev = imgFG;
+				++noOfFrames;
+
+				//to be on safe side (with memory)
+				img = null;
+				imgFG = null;
+				imgBG = null;
+			}
 		}
 		imgFGprev = null;
 
-		if (time == 0)
+		if (noOfFrames == 0)
 			throw new IllegalArgumentException("No raw image was found!");
 
-		if (data.volumeFG.size() != time)
+		if (data.volumeFG.size() != noOfFrames)
 			throw new IllegalArgumentException("Internal consistency problem with FG data!");
 
-		if (data.avgBG.size() != time)
+		if (data.avgBG.size() != noOfFrames)
 			throw new IllegalArgumentException("Internal consistency problem with BG data!");
 	}
 }
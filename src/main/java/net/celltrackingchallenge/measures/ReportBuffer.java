@@ -0,0 +1,119 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import java.util.Arrays;
+
+/**
+ * Compact in-memory {@link ReportSink}: records are kept as plain integers, grouped
+ * into the sections of the reports (NS, FN, FP, ED, EA, EC, and the matching status,
+ * where GT_MATCH and RES_MATCH records share one section), and within every section
+ * in the order in which they were recorded. No text is created until a section is
+ * replayed, e.g., with {@link #replaySection(int, ReportSink)}.
+ */
+public class ReportBuffer implements ReportSink
+{
+	/** Number of the sections, see sectionOf(). */
+	public static final int NO_OF_SECTIONS = 7;
+
+	/** Returns the section in which the records of the given 'kind' are kept. */
+	public static int sectionOf(final Kind kind)
+	{
+		return kind == Kind.RES_MATCH ? Kind.GT_MATCH.ordinal() : kind.ordinal();
+	}
+
+	///a record occupies this many consecutive items of its section
+	private static final int RECORD_SIZE = 5;
+
+	///the records of every section: kind, time, label, otherTime, otherLabel
+	private final int[][] data = new int[NO_OF_SECTIONS][];
+	///the number of used items of every section
+	private final int[] used = new int[NO_OF_SECTIONS];
+
+	public ReportBuffer()
+	{
+		for (int s=0; s < NO_OF_SECTIONS; ++s) data[s] = new int[16*RECORD_SIZE];
+	}
+
+	@Override
+	public void record(final Kind kind, final int time, final int label,
+	                   final int otherTime, final int otherLabel)
+	{
+		final int s = sectionOf(kind);
+		if (used[s]+RECORD_SIZE > data[s].length)
+			data[s] = Arrays.copyOf(data[s], 2*data[s].length);
+
+		final int[] d = data[s];
+		int i = used[s];
+		d[i++] = kind.ordinal();
+		d[i++] = time;
+		d[i++] = label;
+		d[i++] = otherTime;
+		d[i++] = otherLabel;
+		used[s] = i;
+	}
+
+	/** Returns the number of records in the given section. */
+	public int size(final int section)
+	{
+		return used[section] / RECORD_SIZE;
+	}
+
+	/** Returns the text of the index-th record of the given section, see Kind.format(). */
+	public String format(final int section, final int index)
+	{
+		if (index < 0 || index >= size(section))
+			throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size(section));
+
+		final int[] d = data[section];
+		final int i = index*RECORD_SIZE;
+		return Kind.values()[d[i]].format(d[i+1], d[i+2], d[i+3], d[i+4]);
+	}
+
+	/** Passes all records of the given section, in their order, to the 'sink'. */
+	public void replaySection(final int section, final ReportSink sink)
+	{
+		final Kind[] kinds = Kind.values();
+		final int[] d = data[section];
+		for (int i=0; i < used[section]; i += RECORD_SIZE)
+			sink.record(kinds[d[i]], d[i+1], d[i+2], d[i+3], d[i+4]);
+	}
+
+	/** Passes all records, section after section, to the 'sink'. */
+	public void replay(final ReportSink sink)
+	{
+		for (int s=0; s < NO_OF_SECTIONS; ++s) replaySection(s, sink);
+	}
+
+	/** Forgets all records. */
+	public void clear()
+	{
+		Arrays.fill(used, 0);
+	}
+}
@@ -0,0 +1,78 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * {@link ReportSink} that writes every record immediately as one line
+ * into a text file, the line is the type of the record, a tab and the text
+ * of the record, e.g., "FN" followed by a tab and "T=5 GT_label=12". Nothing is kept in memory.
+ */
+public class ReportFileWriter implements ReportSink, AutoCloseable
+{
+	private final BufferedWriter out;
+
+	/** Opens (and possibly overwrites) the 'fileName' for the records. */
+	public ReportFileWriter(final String fileName)
+	throws IOException
+	{
+		out = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8);
+	}
+
+	/** Throws UncheckedIOException if the writing fails. */
+	@Override
+	public void record(final Kind kind, final int time, final int label,
+	                   final int otherTime, final int otherLabel)
+	{
+		try
+		{
+			out.write(kind.name());
+			out.write('\t');
+			out.write(kind.format(time,label,otherTime,otherLabel));
+			out.newLine();
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void close()
+	throws IOException
+	{
+		out.close();
+	}
+}
@@ -0,0 +1,95 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+/**
+ * Receiver of the discrepancies between the reference and computed tracking
+ * results that TRA and DET find, and of the vertex matching status. Every record
+ * is a handful of integers, turning it into a text is deferred to whoever reads
+ * it, see {@link Kind#format(int, int, int, int)}.
+ *
+ * For the node records (NS, FN, FP and the matching status), the 'label' is
+ * the node at 'time', and 'otherTime' equals 'time'. For the edge records
+ * (ED, EA, EC), the edge goes from 'label' at 'time' to 'otherLabel' at 'otherTime'.
+ */
+public interface ReportSink
+{
+	/** Types of the records. */
+	enum Kind
+	{
+		/** Splitting operation, 'label' is a RES label. */
+		NS,
+		/** False negative vertex, 'label' is a GT label. */
+		FN,
+		/** False positive vertex, 'label' is a RES label. */
+		FP,
+		/** Redundant edge to be deleted, between RES labels. */
+		ED,
+		/** Edge to be added, between GT labels. */
+		EA,
+		/** Edge with wrong semantics, between RES labels. */
+		EC,
+		/** Matching status of the GT 'label', 'otherLabel' is the matched RES label or 0 if none. */
+		GT_MATCH,
+		/** Matching status of the RES 'label', 'otherLabel' is the only matched GT label,
+		    0 if there is none, or MULTIPLE if there are more of them. */
+		RES_MATCH;
+
+		/** Returns the text of the given record of this type. */
+		public String format(final int time, final int label, final int otherTime, final int otherLabel)
+		{
+			switch (this)
+			{
+			case NS:
+			case FP:
+				return String.format("T=%d Label=%d",time,label);
+			case FN:
+				return String.format("T=%d GT_label=%d",time,label);
+			case ED:
+			case EC:
+				return String.format("[T=%d Label=%d] -> [T=%d Label=%d]",time,label,otherTime,otherLabel);
+			case EA:
+				return String.format("[T=%d GT_label=%d] -> [T=%d GT_label=%d]",time,label,otherTime,otherLabel);
+			case GT_MATCH:
+				return otherLabel == 0 ? String.format("T=%d GT_label=%d matches none",time,label)
+				                       : String.format("T=%d GT_label=%d matches %d",time,label,otherLabel);
+			default: //RES_MATCH
+				if (otherLabel == 0) return String.format("T=%d Label=%d matches nothing",time,label);
+				if (otherLabel == MULTIPLE) return String.format("T=%d Label=%d matches multiple",time,label);
+				return String.format("T=%d Label=%d matches exactly %d",time,label,otherLabel);
+			}
+		}
+	}
+
+	/** The 'otherLabel' of the RES_MATCH record of a RES label that matches multiple GT labels. */
+	int MULTIPLE = -1;
+
+	/** Receives one record. */
+	void record(Kind kind, int time, int label, int otherTime, int otherLabel);
+}
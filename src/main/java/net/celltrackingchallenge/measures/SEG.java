@@ -30,6 +30,7 @@ package net.celltrackingchallenge.measures;
 
 import org.scijava.log.LogService;
 
+import net.imglib2.img.Img;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.view.Views;
@@ -47,6 +48,15 @@ import java.util.stream.Stream;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.List;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import net.celltrackingchallenge.measures.TrackDataCache.TemporalLevel;
 
@@ -92,12 +102,42 @@ public class SEG
 	    if empty ground-truth or result image was found. */
 	public boolean doStopOnEmptyImages = false;
 
+	/** How many time points (their images) can be read ahead (in the background) while
+	    the current one is processed, use 0 to disable the reading ahead. */
+	public int noOfPrefetchedFrames = 1;
+
+	/** How many threads can be used; calculate() then processes that many time
+	    points concurrently, the SEG value and the reports (and their order) are
+	    always the same as with the single-threaded processing. */
+	public int noOfThreads = 1;
+
+	/** How many time points (the RES image with all its GT images) can be loaded
+	    in the memory at the same time when calculate() is run with more than
+	    one thread (this is the memory budget of the parallel processing). */
+	public int maxFramesInFlight = 4;
+
 	// ----------- the SEG essentially starts here -----------
 	//auxiliary data:
 
 	///the to-be-calculated measure value
 	private double seg = 0.0;
 
+	///the number of GT labels considered so far
+	private long counter = 0;
+
+	///the number of pairs of images processed so far
+	private int imgCounter = 0;
+
+	///outcome of the processing of one time point, that is, of its GT images against its RES image
+	private static class FrameResult
+	{
+		///Jaccards of all GT labels, in the order of the GT images and of the labels
+		final List<double[]> jaccards = new ArrayList<>();
+
+		///lines to be logged for this time point
+		final List<String> reports = new ArrayList<>();
+	}
+
 
 	//---------------------------------------------------------------------/
 	/**
@@ -110,24 +150,24 @@ public class SEG
 		log.info("RES path: "+resPath);
 
 		//instantiate the cache because it has functions we will use
-		final TrackDataCache cache = new TrackDataCache(log);
+		final TrackDataCache cache = newCache();
 		cache.noOfDigits = noOfDigits;
 
 		//do the bottom stage
 		//DEBUG//log.info("Computing the SEG completely...");
 		seg = 0.0;
-		long counter = 0;
-		int imgCounter = 0;
+		counter = 0;
+		imgCounter = 0;
 
-		//scan the SEG folder to get a list of files to process,
-		//NB: the processing order of the files is not important
+		//scan the SEG folder to get a list of files to process
 		final PathMatcher fileMatcher
 			= FileSystems.getDefault().getPathMatcher("glob:man_seg*");
 		@SuppressWarnings("resource")
 		final Stream<Path> fileList
 			= Files.list(Paths.get(gtPath+"/SEG"));
 
-		//list file by file and process...
+		//list file by file and collect the GT files to process...
+		final List<FramesPrefetcher.Frame<int[]>> gtFiles = new ArrayList<>();
 		Iterator<Path> files = fileList.iterator();
 		while (files.hasNext())
 		{
@@ -166,107 +206,63 @@ public class SEG
 			//and the current one is not present in it
 			if (doOnlyTheseTimepoints != null && !doOnlyTheseTimepoints.contains(time)) continue;
 
-			//read the image pair
-			IterableInterval<UnsignedShortType> gt_img
-				= cache.ReadImageG16(file.toString());
-
-			RandomAccessibleInterval<UnsignedShortType> res_img
-				= cache.ReadImageG16(String.format("%s/mask%0"+noOfDigits+"d.tif",resPath,time));
-
-			//check that slice "extracting" can make sense (the 3rd dim must be present)
-			if (slice > -1 && res_img.numDimensions() <= 2)
-				throw new IllegalArgumentException("GT image at time "+time
-					+" specifies slice but the image is not 3D.");
-
-			/*
-			for (int n=0; n < 2; ++n)
-				if (gt_img.dimension(n) != res_img.dimension(n))
-					throw new IllegalArgumentException("Image pair at time"+time
-						+" does not consist of images of the same x,y size.");
-			*/
+			gtFiles.add( new FramesPrefetcher.Frame<>(new int[] {time,slice}, file.toString()) );
+		}
+		fileList.close();
 
-			//should extract slice? use imglib2 views instead
-			if (slice > -1)
+		//the order of the listed files is up to the file system, make it independent of it
+		//(so that the reports, and the summing of the Jaccards, are always in the same order)
+		gtFiles.sort( Comparator.<FramesPrefetcher.Frame<int[]>>comparingInt(f -> f.key[0])
+		                        .thenComparingInt(f -> f.key[1])
+		                        .thenComparing(f -> f.fileNames[0]) );
+
+		//group the GT files by their time points, so that every RES image is loaded only
+		//once even if its GT is annotated in several slices (man_seg_TTT_ZZZ.tif),
+		//the key is then the time point and the slices of the GT files, and the
+		//files are the RES image followed by the GT files
+		final List<FramesPrefetcher.Frame<int[]>> timePoints = new ArrayList<>();
+		for (int first = 0; first < gtFiles.size(); )
+		{
+			final int time = gtFiles.get(first).key[0];
+			int last = first+1;
+			while (last < gtFiles.size() && gtFiles.get(last).key[0] == time) ++last;
+
+			final int[] key = new int[last-first+1];
+			final String[] fileNames = new String[last-first+1];
+			key[0] = time;
+			fileNames[0] = String.format("%s/mask%0"+noOfDigits+"d.tif",resPath,time);
+			for (int i = first; i < last; ++i)
 			{
-				res_img = Views.hyperSlice(res_img, 2, slice);
-				log.info("Considering only slice "+slice);
+				key[i-first+1] = gtFiles.get(i).key[1];
+				fileNames[i-first+1] = gtFiles.get(i).fileNames[0];
 			}
+			timePoints.add( new FramesPrefetcher.Frame<>(key, fileNames) );
 
-			//now, both images must of the same size...
-			for (int n=0; n < gt_img.numDimensions(); ++n)
-				if (gt_img.dimension(n) != res_img.dimension(n))
-					throw new IllegalArgumentException("Image pair at time"+time
-						+" does not consist of images of the same size.");
-
-			cache.ClassifyLabels(gt_img, res_img, doStopOnEmptyImages);
-			++imgCounter;
-
-			//after ClassifyLabels(), the voxel-matching info is here:
-			final TemporalLevel level = cache.levels.lastElement();
-
-			//calculate Jaccard for matching markers at this 'level'/time point
-			if (doLogReports)
-				log.info("----------T="+time+" Z="+(slice==-1?0:slice)+"----------");
-
-			//over all GT labels
-			final int m_match_lineSize = level.m_gt_lab.length;
-			for (int i=0; i < level.m_gt_lab.length; ++i)
-			{
-				//Jaccard for this GT label at this time point
-				double acc = 0.0;
-
-				if (level.m_gt_match[i] > -1)
-				{
-					//actually, we have a match,
-					//update the Jaccard accordingly
-					final int intersectSize
-						= level.m_match[i + m_match_lineSize*level.m_gt_match[i]];
-
-					acc  = (double)intersectSize;
-					acc /= (double)level.m_gt_size[i]
-					          + (double)level.m_res_size[level.m_gt_match[i]] - acc;
-				}
-
-				//update overall stats
-				seg += acc;
-				++counter;
-
-				if (doLogReports)
-				{
-					if (doAllResReports)
-						//extended SEG report
-						log.info(String.format("GT_label=%d J=%.6g considered_RES_label=", level.m_gt_lab[i], acc)
-						  +(level.m_gt_match[i] > -1 ? level.m_res_lab[level.m_gt_match[i]] : "-"));
-					else
-						//standard SEG report
-						log.info(String.format("GT_label=%d J=%.6g", level.m_gt_lab[i], acc));
-				}
-			}
+			first = last;
+		}
 
-			//extended SEG report
-			if (doLogReports && doAllResReports)
+		if (noOfThreads > 1)
+		{
+			calculateFramesInParallel(cache, timePoints);
+		}
+		else
+		{
+			//process the time points one by one (while the next ones are being read in the background)
+			try (FramesPrefetcher<int[]> frames
+			       = new FramesPrefetcher<>(timePoints.iterator(), cache::ReadImage, noOfPrefetchedFrames))
 			{
-				//report matches from the "RES side"
-				for (int j=0; j < level.m_res_lab.length; ++j)
+				while (frames.hasNext())
 				{
-					final int matchCnt
-						= level.m_res_match[j] != null ? level.m_res_match[j].size() : -1;
+					final FramesPrefetcher.Frame<int[]> frame = frames.next();
+					final FrameResult result = processTimePoint(cache, frame.key, frame.fileNames, frame.images);
 
-					String matchedGTlabs = "";
-					if (matchCnt < 1)
-						matchedGTlabs = " -";
-					else
-						for (Integer i : level.m_res_match[j]) matchedGTlabs = matchedGTlabs.concat(" "+level.m_gt_lab[i]);
+					//to be on safe side (with memory), the frame is still listed in the timePoints
+					frame.images = null;
 
-					log.info("RES_label="+level.m_res_lab[j]+" matches GT labels:"+matchedGTlabs);
+					collectFrame(result);
 				}
 			}
-
-			//to be on safe side (with memory)
-			gt_img = null;
-			res_img = null;
 		}
-		fileList.close();
 
 		//complain if necessary, to behave identially as the other measures
 		if (imgCounter == 0)
@@ -281,6 +277,213 @@ public class SEG
 		return (seg);
 	}
 
+	///creates the cache whose functions read the images and match their labels
+	TrackDataCache newCache()
+	{
+		return new TrackDataCache(log);
+	}
+
+	/**
+	 * Processes the time points with 'noOfThreads' workers, while at most
+	 * 'maxFramesInFlight' time points are loaded and waiting for (or undergoing)
+	 * their processing at any moment. The outcomes are collected in the order of
+	 * the 'timePoints', as soon as all preceding ones are collected.
+	 */
+	private void calculateFramesInParallel(final TrackDataCache cache,
+	                                       final List<FramesPrefetcher.Frame<int[]>> timePoints)
+	throws IOException
+	{
+		final ExecutorService workers = Executors.newFixedThreadPool(noOfThreads);
+		final Semaphore framesInFlight = new Semaphore( Math.max(maxFramesInFlight,1) );
+		final AtomicBoolean someFrameFailed = new AtomicBoolean(false);
+		final ArrayDeque<Future<FrameResult>> results = new ArrayDeque<>();
+
+		try {
+			for (FramesPrefetcher.Frame<int[]> frame : timePoints)
+			{
+				if (someFrameFailed.get()) break;
+
+				framesInFlight.acquire();
+				results.add( workers.submit( () -> {
+					try {
+						final Img<?>[] images = new Img<?>[frame.fileNames.length];
+						for (int i=0; i < images.length; ++i)
+							images[i] = cache.ReadImage(frame.fileNames[i]);
+						return processTimePoint(cache, frame.key, frame.fileNames, images);
+					}
+					catch (IOException | RuntimeException e) {
+						someFrameFailed.set(true);
+						throw e;
+					}
+					finally {
+						framesInFlight.release();
+					}
+				} ) );
+
+				//collect what is ready already
+				while (!results.isEmpty() && results.peekFirst().isDone())
+					collectFrame( results.pollFirst().get() );
+			}
+
+			//collect the rest in the order of the files
+			while (!results.isEmpty())
+				collectFrame( results.pollFirst().get() );
+		}
+		catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new RuntimeException(cause);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while processing the image pairs.", e);
+		}
+		finally {
+			workers.shutdownNow();
+		}
+	}
+
+	///adds the outcome of one time point to the overall stats, and logs its reports
+	private void collectFrame(final FrameResult result)
+	{
+		for (String line : result.reports) log.info(line);
+
+		for (double[] jaccards : result.jaccards)
+		{
+			for (double acc : jaccards) seg += acc;
+			counter += jaccards.length;
+			++imgCounter;
+		}
+	}
+
+	/**
+	 * Evaluates all GT images of one time point against its RES image, the 'key'
+	 * and the 'fileNames' (and the loaded 'images') are as in the frames prepared
+	 * in calculate(). This method does not change this object nor the 'cache',
+	 * and can be thus called from multiple threads simultaneously.
+	 */
+	private FrameResult processTimePoint(final TrackDataCache cache,
+	                                     final int[] key, final String[] fileNames, final Img<?>[] images)
+	throws IOException
+	{
+		final FrameResult result = new FrameResult();
+		for (int i=1; i < fileNames.length; ++i)
+			processFrame(cache, images[i], fileNames[i], images[0], fileNames[0], key[0], key[i], result);
+		return result;
+	}
+
+	/**
+	 * Calculates the Jaccards of all GT labels of the given pair of images (and
+	 * prepares the reports about it), and adds them to the 'result'.
+	 */
+	private void processFrame(final TrackDataCache cache,
+	                          final Img<?> gtImage, final String gtFileName,
+	                          final Img<?> resImage, final String resFileName,
+	                          final int time, final int slice,
+	                          final FrameResult result)
+	throws IOException
+	{
+
+		//the image pair
+		IterableInterval<UnsignedShortType> gt_img
+			= cache.CheckImageG16(gtImage, gtFileName);
+
+		RandomAccessibleInterval<UnsignedShortType> res_img
+			= cache.CheckImageG16(resImage, resFileName);
+
+		//check that slice "extracting" can make sense (the 3rd dim must be present)
+		if (slice > -1 && res_img.numDimensions() <= 2)
+			throw new IllegalArgumentException("GT image at time "+time
+				+" specifies slice but the image is not 3D.");
+
+		/*
+		for (int n=0; n < 2; ++n)
+			if (gt_img.dimension(n) != res_img.dimension(n))
+				throw new IllegalArgumentException("Image pair at time"+time
+					+" does not consist of images of the same x,y size.");
+		*/
+
+		//should extract slice? use imglib2 views instead
+		if (slice > -1)
+		{
+			res_img = Views.hyperSlice(res_img, 2, slice);
+			result.reports.add("Considering only slice "+slice);
+		}
+
+		//now, both images must of the same size...
+		for (int n=0; n < gt_img.numDimensions(); ++n)
+			if (gt_img.dimension(n) != res_img.dimension(n))
+				throw new IllegalArgumentException("Image pair at time"+time
+					+" does not consist of images of the same size.");
+
+		//NB: the level is not stored in the cache, the pairs may be processed in parallel,
+		//    and it holds only the matching pairs -- SEG needs no other intersections
+		final TemporalLevel level
+			= cache.CreateLevelOfMatches(gt_img, res_img, doStopOnEmptyImages, time, cache.overlapRatio);
+
+		//to be on safe side (with memory)
+		gt_img = null;
+		res_img = null;
+
+		//calculate Jaccard for matching markers at this 'level'/time point
+		if (doLogReports)
+			result.reports.add("----------T="+time+" Z="+(slice==-1?0:slice)+"----------");
+
+		//over all GT labels
+		final double[] jaccards = new double[level.m_gt_lab.length];
+		result.jaccards.add(jaccards);
+		for (int i=0; i < level.m_gt_lab.length; ++i)
+		{
+			//Jaccard for this GT label at this time point
+			double acc = 0.0;
+
+			if (level.m_gt_match[i] > -1)
+			{
+				//actually, we have a match,
+				//update the Jaccard accordingly
+				final int intersectSize
+					= level.getOverlap(i, level.m_gt_match[i]);
+
+				acc  = (double)intersectSize;
+				acc /= (double)level.m_gt_size[i]
+				          + (double)level.m_res_size[level.m_gt_match[i]] - acc;
+			}
+
+			jaccards[i] = acc;
+
+			if (doLogReports)
+			{
+				if (doAllResReports)
+					//extended SEG report
+					result.reports.add(String.format("GT_label=%d J=%.6g considered_RES_label=", level.m_gt_lab[i], acc)
+					  +(level.m_gt_match[i] > -1 ? level.m_res_lab[level.m_gt_match[i]] : "-"));
+				else
+					//standard SEG report
+					result.reports.add(String.format("GT_label=%d J=%.6g", level.m_gt_lab[i], acc));
+			}
+		}
+
+		//extended SEG report
+		if (doLogReports && doAllResReports)
+		{
+			//report matches from the "RES side"
+			for (int j=0; j < level.m_res_lab.length; ++j)
+			{
+				final int matchCnt = level.res_matchCount(j);
+
+				String matchedGTlabs = "";
+				if (matchCnt < 1)
+					matchedGTlabs = " -";
+				else
+					for (int k=0; k < matchCnt; ++k) matchedGTlabs = matchedGTlabs.concat(" "+level.m_gt_lab[level.res_match(j,k)]);
+
+				result.reports.add("RES_label="+level.m_res_lab[j]+" matches GT labels:"+matchedGTlabs);
+			}
+		}
+	}
+
 
 	/**
 	 * Calculates pairing of/matching between the segments from the two images,
@@ -344,7 +547,6 @@ public class SEG
 		int fnCnt = 0;
 
 		//over all GT labels
-		final int m_match_lineSize = level.m_gt_lab.length;
 		for (int i=0; i < level.m_gt_lab.length; ++i)
 		{
 			//Jaccard for this GT label at this time point
@@ -355,7 +557,7 @@ public class SEG
 				//actually, we have a match,
 				//update the Jaccard accordingly
 				final int intersectSize
-					= level.m_match[i + m_match_lineSize*level.m_gt_match[i]];
+					= level.getOverlap(i, level.m_gt_match[i]);
 
 				acc  = (double)intersectSize;
 				acc /= (double)level.m_gt_size[i]
@@ -372,7 +574,7 @@ public class SEG
 		//over all RES labels
 		for (int j=0; j < level.m_res_lab.length; ++j)
 		{
-			if (level.m_res_match[j] != null && level.m_res_match[j].size() > 0)
+			if (level.res_matchCount(j) > 0)
 				TP.add( level.m_res_lab[j] );
 			else
 				FP.add( level.m_res_lab[j] );
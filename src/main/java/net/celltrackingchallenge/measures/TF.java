@@ -33,11 +33,13 @@ import org.scijava.log.LogService;
 import io.scif.img.ImgIOException;
 import java.io.IOException;
 
+import java.util.Arrays;
 import java.util.Vector;
 import java.util.Map;
 import java.util.HashMap;
 
 import net.celltrackingchallenge.measures.TrackDataCache.Track;
+import net.celltrackingchallenge.measures.TrackDataCache.TrackTable;
 import net.celltrackingchallenge.measures.TrackDataCache.TemporalLevel;
 
 public class TF
@@ -70,7 +72,15 @@ public class TF
 	private double tf = 0.0;
 
 
-	///calculate correctly reconstructed fractions of entire tracks
+	/**
+	 * Calculate correctly reconstructed fractions of entire tracks.
+	 *
+	 * A RES track can follow only such GT tracks whose labels it uniquely
+	 * matches at some time points, the others are left untouched by it anyway.
+	 * Hence, the GT labels uniquely matched by every node of the RES track
+	 * are determined first (from the RES side of the matching of every level),
+	 * and only those GT tracks are examined, still in the order of their IDs.
+	 */
 	public void CalcFRs(final Vector<TemporalLevel> levels,
 		final Map<Integer,Track> gt_tracks,
 		final Map<Integer,Track> res_tracks,
@@ -81,134 +91,147 @@ public class TF
 		gt_startingRatio.clear();
 		gt_followedRatio.clear();
 
-		//serialization of GT tracks to obtain:
+		//indexed GT tracks to obtain, per track:
+		final TrackTable gt_table = new TrackTable(gt_tracks);
 		//indicator if given GT track has been correctly reconstructed ...
-		final boolean[] gt_correct = new boolean[gt_tracks.size()];
-		//... with its corresponding track ID
-		final int[] gt_ids = new int[gt_tracks.size()];
-
-		int i = 0;
-		//for (Integer id : gt_tracks.keySet())
-		Vector<Integer> sortedIDs = new Vector<>(gt_tracks.keySet());
-		sortedIDs.sort(null);
-		for (Integer id : sortedIDs)
-		{
-			//NB: enumerates GT IDs in defined order (from the smallest to the largest)
-			//NB: (and we need to scan gt_tracks repeatedly, always in the same order)
-			gt_correct[i] = false;
-			gt_ids[i] = id;
-			gt_startingRatio.put(id,0.0f);
-			gt_followedRatio.put(id,0.0f);
-			++i;
-		}
+		final boolean[] gt_correct = new boolean[gt_table.size()];
+		//... and the so far the best progress
+		final float[] gt_start = new float[gt_table.size()];
+		final float[] gt_fraction = new float[gt_table.size()];
 
 		//now, over all RES tracks and look for appropriate, not yet reconstructed GT track
-		//for (Track res_track : res_tracks.values())
-		sortedIDs = new Vector<>(res_tracks.keySet());
-		sortedIDs.sort(null);
-		for (Integer id : sortedIDs)
+		//NB: enumerates RES IDs in defined order (from the smallest to the largest)
+		final int[] res_ids = new int[res_tracks.size()];
+		int r = 0;
+		for (Integer id : res_tracks.keySet()) res_ids[r++] = id;
+		Arrays.sort(res_ids);
+
+		for (int id : res_ids)
 		{
 			final Track res_track = res_tracks.get(id);
 
-			//scan over all GT tracks ...
-			for (i = 0; i < gt_correct.length; ++i)
+			//the GT label uniquely matched at every time point of the RES track (or 0)
+			final int[] matchedGT = new int[Math.max(res_track.m_end - res_track.m_begin +1, 0)];
+			for (int j = res_track.m_begin; j <= res_track.m_end; ++j)
+			{
+				final TemporalLevel level = levels.get(j);
+				final int res_idx = level.res_lookupLabel(res_track.m_id);
+				final int gt_idx = res_idx != -1 ? level.res_uniqueMatch(res_idx) : -1;
+				if (gt_idx != -1) matchedGT[j - res_track.m_begin] = level.m_gt_lab[gt_idx];
+			}
+
+			//the candidate GT tracks, in the order of their IDs (from the smallest to the largest)
+			final int[] candidates = matchedGT.clone();
+			Arrays.sort(candidates);
+
+			//scan over the candidate GT tracks ...
+			for (int c = 0; c < candidates.length; ++c)
 			{
+				final int gt_id = candidates[c];
+				if (gt_id == 0 || (c > 0 && candidates[c-1] == gt_id)) continue;
+
 				//... to find not yet reconstructed GT track ...
-				if (!gt_correct[i])
+				final int i = gt_table.indexOf(gt_id);
+				if (i == -1 || gt_correct[i]) continue;
+
+				//... to see how far we can reconstruct it with this RES track
+				//
+				//so far the best progress
+				float bestStartPos = gt_start[i];
+				float bestFraction = gt_fraction[i];
+
+				//current progress
+				int res_progress = 0;
+
+				//max progress possible
+				final int gt_trackLength = gt_table.m_end[i] - gt_table.m_begin[i] +1;
+				final int gtStart = gt_table.m_begin[i];
+
+				//scan given RES track to see how well it follows the selected GT
+				int j = res_track.m_begin;
+				while (j <= res_track.m_end)
 				{
-					//... to see how far we can reconstruct it with this RES track
-					//
-					//so far the best progress
-					float bestStartPos = gt_startingRatio.get(gt_ids[i]);
-					float bestFraction = gt_followedRatio.get(gt_ids[i]);
-
-					//current progress
-					int res_progress = 0;
-
-					//max progress possible
-					final int gt_trackLength = gt_tracks.get(gt_ids[i]).m_end
-					                         - gt_tracks.get(gt_ids[i]).m_begin +1;
-					final int gtStart = gt_tracks.get(gt_ids[i]).m_begin;
-
-					//scan given RES track to see how well it follows the selected GT
-					int j = res_track.m_begin;
-					while (j <= res_track.m_end)
+					if (matchedGT[j - res_track.m_begin] == gt_id)
 					{
-						if (cache.UniqueMatch(gt_ids[i], res_track.m_id, levels.get(j)))
-						{
-							//we have a match at time point j
-							++res_progress;
-						}
-						else
+						//we have a match at time point j
+						++res_progress;
+					}
+					else
+					{
+						//we do not have a match
+						//
+						//check this recent following attempt,
+						//and possibly update with this attempt
+						final float curFraction=(float)res_progress/(float)gt_trackLength;
+						if (curFraction > bestFraction)
 						{
-							//we do not have a match
-							//
-							//check this recent following attempt,
-							//and possibly update with this attempt
-							final float curFraction=(float)res_progress/(float)gt_trackLength;
-							if (curFraction > bestFraction)
+							//j current time when following got broken, at this moment res_progress frames
+							//were discovered... j-res_progress is thus time we started this discovery
+							//minus further the gtStart gives distance from the GT track beginning,
+							//which is normalized by its (GT) length...
+							bestStartPos=(float)(j-gtStart -res_progress)/(float)gt_trackLength;
+							bestFraction=curFraction;
+
+							//REMOVE ME, DEBUG
+							if (bestStartPos > 1.0f)
 							{
-								//j current time when following got broken, at this moment res_progress frames
-								//were discovered... j-res_progress is thus time we started this discovery
-								//minus further the gtStart gives distance from the GT track beginning,
-								//which is normalized by its (GT) length...
-								bestStartPos=(float)(j-gtStart -res_progress)/(float)gt_trackLength;
-								bestFraction=curFraction;
-
-								//REMOVE ME, DEBUG
-								if (bestStartPos > 1.0f)
-								{
-									//hmm... something is wrong, debug me
-									log.info("m bSP="+bestStartPos+": j="+j
-									        +", rP="+res_progress+", b="+res_track.m_begin
-									        +", e="+res_track.m_end
-									        +", gtLen="+gt_trackLength);
-								}
+								//hmm... something is wrong, debug me
+								log.info("m bSP="+bestStartPos+": j="+j
+								        +", rP="+res_progress+", b="+res_track.m_begin
+								        +", e="+res_track.m_end
+								        +", gtLen="+gt_trackLength);
 							}
-
-							//reset the current progress
-							res_progress=0;
 						}
 
-						++j;
+						//reset the current progress
+						res_progress=0;
 					}
 
-					//check and possibly update with this attempt
-					final float curFraction=(float)res_progress/(float)gt_trackLength;
-					if (curFraction > bestFraction)
-					{
-						bestStartPos=(float)(j-gtStart -res_progress)/(float)gt_trackLength;
-						bestFraction=curFraction;
+					++j;
+				}
 
-						//REMOVE ME, DEBUG
-						if (bestStartPos > 1.0f)
-						{
-							log.info("e bSP="+bestStartPos+": j="+j
-							        +", rP="+res_progress+", b="+res_track.m_begin
-							        +", e="+res_track.m_end
-							        +", gtLen="+gt_trackLength);
-						}
-					}
+				//check and possibly update with this attempt
+				final float curFraction=(float)res_progress/(float)gt_trackLength;
+				if (curFraction > bestFraction)
+				{
+					bestStartPos=(float)(j-gtStart -res_progress)/(float)gt_trackLength;
+					bestFraction=curFraction;
 
-					if (bestFraction > 0.999f) //just to avoid float-point imprecisions
+					//REMOVE ME, DEBUG
+					if (bestStartPos > 1.0f)
 					{
-						//save the (updated) so far the best progress
-						gt_startingRatio.put(gt_ids[i],0.f);
-						gt_followedRatio.put(gt_ids[i],1.f);
-						gt_correct[i] = true;
-						//should be commented out to continue searching for other GTs
-						//that can this RES track satisfy/discover/reconstruct
-						break;
-					}
-					else
-					{
-						//save the (updated) so far the best progress
-						gt_startingRatio.put(gt_ids[i],bestStartPos);
-						gt_followedRatio.put(gt_ids[i],bestFraction);
+						log.info("e bSP="+bestStartPos+": j="+j
+						        +", rP="+res_progress+", b="+res_track.m_begin
+						        +", e="+res_track.m_end
+						        +", gtLen="+gt_trackLength);
 					}
 				}
+
+				if (bestFraction > 0.999f) //just to avoid float-point imprecisions
+				{
+					//save the (updated) so far the best progress
+					gt_start[i] = 0.f;
+					gt_fraction[i] = 1.f;
+					gt_correct[i] = true;
+					//should be commented out to continue searching for other GTs
+					//that can this RES track satisfy/discover/reconstruct
+					break;
+				}
+				else
+				{
+					//save the (updated) so far the best progress
+					gt_start[i] = bestStartPos;
+					gt_fraction[i] = bestFraction;
+				}
 			}
 		}
+
+		//report the progress of all GT tracks
+		for (int i = 0; i < gt_table.size(); ++i)
+		{
+			gt_startingRatio.put(gt_table.m_id[i], gt_start[i]);
+			gt_followedRatio.put(gt_table.m_id[i], gt_fraction[i]);
+		}
 	}
 
 
@@ -228,8 +251,13 @@ public class TF
 	 * can only carry on with the bottom stage then (thus being overall faster
 	 * than when computing both stages).
 	 *
-	 * The class never re-uses its own cache to allow for fresh complete
-	 * re-calculation on the (new) data in the same folders.
+	 * The class never re-uses its own cache from the previous call. Without a valid
+	 * given cache, the upper stage is calculated completely afresh, unless the
+	 * TrackDataCacheRegistry has been enabled: it then hands out the cache of the
+	 * same folders (and parameters) calculated before by any measure, provided no
+	 * input file has changed its size or modification time since, or re-calculates
+	 * the changed parts of it otherwise. The tracks and levels of such cache are
+	 * shared and must not be modified.
 	 *
 	 * This is the main TF calculator.
 	 */
@@ -283,7 +311,7 @@ public class TF
 		return (tf);
 	}
 
-	/// This is the wrapper TF calculator, assuring complete re-calculation.
+	/// This is the wrapper TF calculator, assuring complete re-calculation (unless the TrackDataCacheRegistry is enabled).
 	public double calculate(final String gtPath, final String resPath)
 	throws IOException, ImgIOException
 	{
@@ -33,16 +33,18 @@ import org.scijava.log.LogService;
 import io.scif.img.ImgIOException;
 import java.io.IOException;
 
-import java.util.Collection;
 import java.util.Vector;
-import java.util.HashSet;
+import java.util.List;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.List;
-import java.util.LinkedList;
 
 import net.celltrackingchallenge.measures.TrackDataCache.Track;
+import net.celltrackingchallenge.measures.TrackDataCache.TrackTable;
+import net.celltrackingchallenge.measures.ReportSink.Kind;
 import net.celltrackingchallenge.measures.TrackDataCache.TemporalLevel;
+import net.celltrackingchallenge.measures.util.ParallelChunks;
 
 public class TRA
 {
@@ -52,6 +54,15 @@ public class TRA
 	///specifies how many digits are to be expected in the input filenames
 	public int noOfDigits = 3;
 
+	///specifies how many pairs of images can be read ahead (in the background), 0 disables it
+	public int noOfPrefetchedFrames = 1;
+
+	///specifies how many threads can be used to check the consistency and to classify the edges (and to build the TrackDataCache)
+	public int noOfThreads = 1;
+
+	///specifies a folder for snapshots of the computed upper stage (see TrackDataCache.snapshotFolder), null disables it
+	public String snapshotFolder = null;
+
 	///a constructor requiring connection to Fiji report/log services
 	public TRA(final LogService _log)
 	{
@@ -141,28 +152,267 @@ public class TRA
 	public PenaltyConfig penalty
 		= new PenaltyConfig(5.0, 10.0, 1.0, 1.0, 1.5, 1.0);
 
+	/**
+	 * Numbers of the individual errors found by the bottom stage, from which
+	 * the AOGM (and the normalized TRA or DET) is evaluated for any given
+	 * penalty configuration, without visiting the data again.
+	 */
+	public static class ErrorCounts
+	{
+		/** Constructor. */
+		public ErrorCounts(final long ns, final long fn, final long fp,
+		                   final long ed, final long ea, final long ec,
+		                   final int maxSplit, final long gtNodes, final long gtEdges)
+		{
+			m_ns = ns; m_fn = fn; m_fp = fp;
+			m_ed = ed; m_ea = ea; m_ec = ec;
+			m_maxSplit = maxSplit;
+			m_gtNodes = gtNodes; m_gtEdges = gtEdges;
+		}
+
+		/** The number of splitting operations. */
+		public final long m_ns;
+		/** The number of false negative nodes. */
+		public final long m_fn;
+		/** The number of false positive nodes. */
+		public final long m_fp;
+		/** The number of redundant edges. */
+		public final long m_ed;
+		/** The number of missing edges. */
+		public final long m_ea;
+		/** The number of edges with wrong semantics. */
+		public final long m_ec;
+
+		/** The largest incorrect split detected. */
+		public final int m_maxSplit;
+
+		/** The number of GT nodes, that is, the number of nodes to add to an empty result. */
+		public final long m_gtNodes;
+		/** The number of GT edges, that is, the number of edges to add to an empty result. */
+		public final long m_gtEdges;
+
+		/** Returns the AOGM to curate the result, weighted with the given penalties. */
+		public double aogm(final PenaltyConfig p)
+		{
+			return p.m_fn * m_fn + p.m_fp * m_fp + p.m_ns * m_ns
+			     + p.m_ed * m_ed + p.m_ec * m_ec + p.m_ea * m_ea;
+		}
+
+		/** Returns the AOGM to build the result from the scratch, weighted with the given penalties. */
+		public double aogmEmpty(final PenaltyConfig p)
+		{
+			return p.m_fn * m_gtNodes + p.m_ea * m_gtEdges;
+		}
+
+		/** Returns the normalized AOGM (that is, the TRA or the DET) for the given penalties. */
+		public double normalized(final PenaltyConfig p)
+		{
+			final double aogm_empty = aogmEmpty(p);
+
+			//if correcting is more expensive than creating, we assume user deletes
+			//the whole result and starts from the scratch, hence aogm = aogm_empty
+			final double aogm = Math.min(aogm(p), aogm_empty);
+			return 1.0 - aogm/aogm_empty;
+		}
+
+		/** Returns true if the minimality condition is broken for the given penalties. */
+		public boolean isMinimalityBroken(final PenaltyConfig p)
+		{
+			return (m_maxSplit - 1) * p.m_ns > (p.m_fp + m_maxSplit * p.m_fn);
+		}
+	}
+
 	///the to-be-calculated TRA value (based on the AOGM measure)
 	protected double aogm = 0.0;
 
 	///the largest incorrect split detected
 	protected int max_split = 1;
 
-	///logs to note discrepancies between GT and RES tracks
-	public List<String> logNS = new LinkedList<>();
-	public List<String> logFN = new LinkedList<>();
-	public List<String> logFP = new LinkedList<>();
-	public List<String> logED = new LinkedList<>();
-	public List<String> logEA = new LinkedList<>();
-	public List<String> logEC = new LinkedList<>();
-	public List<String> logMatch = new LinkedList<>();
+	///counters of the individual errors (in the order of the penalties) during the bottom stage
+	protected long cntNS, cntFN, cntFP, cntED, cntEA, cntEC;
+
+	///the errors found by the recent bottom stage
+	protected ErrorCounts errorCounts = null;
+
+	/** Returns the errors found by the recent calculate(), from which the AOGM or
+	    TRA can be evaluated for other penalties, or null if nothing was calculated. */
+	public ErrorCounts getErrorCounts()
+	{ return (errorCounts); }
+
+	///resets the counters of the individual errors
+	protected void resetErrorCounters()
+	{
+		cntNS = cntFN = cntFP = cntED = cntEA = cntEC = 0;
+		max_split = 1;
+		errorCounts = null;
+	}
+
+	/**
+	 * Receiver of the discrepancies between GT and RES tracks (if doLogReports)
+	 * and of the vertices matching status (if doMatchingReports), e.g., a ReportFileWriter.
+	 * If left null, the records are kept in a compact form during the calculation
+	 * and reported into the log service, section after section, at its end.
+	 */
+	public ReportSink reportSink = null;
+
+	///the receiver of the records during the current calculation
+	protected ReportSink reports = null;
+	///the records to be reported into the log service at the end of the current calculation
+	protected ReportBuffer reportsToLog = null;
+
+	///prepares the receiver of the records for the current calculation
+	protected void openReports()
+	{
+		reportsToLog = reportSink == null && (doLogReports || doMatchingReports) ? new ReportBuffer() : null;
+		reports = reportSink != null ? reportSink : reportsToLog;
+
+		lastReports = null;
+		Arrays.fill(lastReportedSections, false);
+	}
 
-	///convenience function to report given log -- one of the above
+	///releases the records of the current calculation
+	protected void closeReports()
+	{
+		reports = null;
+		reportsToLog = null;
+	}
+
+	///records a report about a node, see ReportSink for the meaning of the params
+	protected void reportNode(final Kind kind, final int time, final int label, final int otherLabel)
+	{
+		reports.record(kind, time, label, time, otherLabel);
+	}
+
+	///reports the given sections of the reportsToLog (if there are any) into the log service
+	protected void logReports(final Kind... sections)
+	{
+		if (reportsToLog == null) return;
+
+		final ReportSink toLog = (kind,time,label,otherTime,otherLabel)
+			-> log.info(kind.format(time,label,otherTime,otherLabel));
+
+		for (Kind section : sections)
+		{
+			log.info(sectionHeader(section));
+			reportsToLog.replaySection(ReportBuffer.sectionOf(section), toLog);
+			lastReportedSections[ReportBuffer.sectionOf(section)] = true;
+		}
+		lastReports = reportsToLog;
+	}
+
+	///the records of the most recent calculation that were reported into the log service (or null),
+	///and which of their sections were reported, see the (deprecated) logNS and alike
+	private ReportBuffer lastReports = null;
+	private final boolean[] lastReportedSections = new boolean[ReportBuffer.NO_OF_SECTIONS];
+
+	///read-only view on one section of the lastReports, the heading line and then the records,
+	///it can be only cleared (as the former lists used to be) until the next calculation
+	private class ReportSectionView extends AbstractList<String>
+	{
+		ReportSectionView(final Kind section)
+		{ this.section = section; }
+
+		private final Kind section;
+
+		@Override
+		public int size()
+		{
+			final int s = ReportBuffer.sectionOf(section);
+			return ( lastReports != null && lastReportedSections[s] ? 1 + lastReports.size(s) : 0 );
+		}
+
+		@Override
+		public String get(final int index)
+		{
+			if (index < 0 || index >= size())
+				throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size());
+			return ( index == 0 ? sectionHeader(section)
+			                    : lastReports.format(ReportBuffer.sectionOf(section), index-1) );
+		}
+
+		@Override
+		public void clear()
+		{
+			lastReportedSections[ReportBuffer.sectionOf(section)] = false;
+		}
+	}
+
+	/**
+	 * Logs to note discrepancies between GT and RES tracks, and the vertices matching status.
+	 *
+	 * @deprecated Use the {@link #reportSink} to receive the records. Every list is now
+	 * a read-only view on the respective section of the reports of the most recent
+	 * calculation, provided that they were reported into the log service (the reportSink
+	 * was null); the lists are not accumulated over more calculations anymore. A list
+	 * can still be cleared, it then stays empty until the next calculation.
+	 */
+	@Deprecated
+	public List<String> logNS = new ReportSectionView(Kind.NS);
+	/** @deprecated See {@link #logNS}. */
+	@Deprecated
+	public List<String> logFN = new ReportSectionView(Kind.FN);
+	/** @deprecated See {@link #logNS}. */
+	@Deprecated
+	public List<String> logFP = new ReportSectionView(Kind.FP);
+	/** @deprecated See {@link #logNS}. */
+	@Deprecated
+	public List<String> logED = new ReportSectionView(Kind.ED);
+	/** @deprecated See {@link #logNS}. */
+	@Deprecated
+	public List<String> logEA = new ReportSectionView(Kind.EA);
+	/** @deprecated See {@link #logNS}. */
+	@Deprecated
+	public List<String> logEC = new ReportSectionView(Kind.EC);
+	/** @deprecated See {@link #logNS}. */
+	@Deprecated
+	public List<String> logMatch = new ReportSectionView(Kind.GT_MATCH);
+
+	/**
+	 * Convenience function to report given log -- one of the above.
+	 * @deprecated The reports are logged at the end of the calculation already.
+	 */
+	@Deprecated
 	public void reportLog(final List<String> log)
 	{
 		for (String msg : log)
 			this.log.info(msg);
 	}
 
+	///returns the heading line of the given section of the reports
+	protected String sectionHeader(final Kind section)
+	{
+		switch (section)
+		{
+		case NS:
+			return String.format("----------Splitting Operations (Penalty=%g)----------", penalty.m_ns);
+		case FN:
+			return String.format("----------False Negative Vertices (Penalty=%g)----------", penalty.m_fn);
+		case FP:
+			return String.format("----------False Positive Vertices (Penalty=%g)----------", penalty.m_fp);
+		case ED:
+			return String.format("----------Redundant Edges To Be Deleted (Penalty=%g)----------", penalty.m_ed);
+		case EA:
+			return String.format("----------Edges To Be Added (Penalty=%g)----------", penalty.m_ea);
+		case EC:
+			return String.format("----------Edges with Wrong Semantics (Penalty=%g)----------", penalty.m_ec);
+		default:
+			return "----------Vertices Matching Status (No Penalty)----------";
+		}
+	}
+
+	///into how many chunks to split 'noOfItems' items for their parallel processing
+	protected int noOfChunksFor(final int noOfItems)
+	{
+		//several chunks per thread to even out the differently demanding items
+		return noOfThreads < 2 ? 1 : Math.max(1, Math.min(noOfItems, 8*noOfThreads));
+	}
+
+	///index of the first item in the given chunk when 'noOfItems' items are split into 'noOfChunks' chunks
+	protected static int chunkStart(final int chunk, final int noOfChunks, final int noOfItems)
+	{
+		return (int)((long)chunk*noOfItems/noOfChunks);
+	}
+
 	//---------------------------------------------------------------------/
 	//aux data fillers -- merely a node data processors and classifiers
 
@@ -173,6 +423,21 @@ public class TRA
 	public void CheckConsistency(final Vector<TemporalLevel> levels,
 		final Map<Integer,Track> tracks,
 		final boolean isGTcheck)
+	{
+		CheckConsistency(levels, new TrackTable(tracks), isGTcheck);
+	}
+
+	/**
+	 * Internal test of GT data sanity mainly to alleviate for heavy bound checking etc.
+	 * during the TRA/AOGM calculation.
+	 *
+	 * The tracks, and later the time points, are tested in parallel chunks when
+	 * noOfThreads > 1. If the data contain more inconsistencies, it is always the one
+	 * that would be found first when testing sequentially that gets reported.
+	 */
+	public void CheckConsistency(final Vector<TemporalLevel> levels,
+		final TrackTable tracks,
+		final boolean isGTcheck)
 	{
 		//a helper string for messaging
 		final String DS = isGTcheck? " GT " : " RES ";
@@ -180,73 +445,100 @@ public class TRA
 
 		//check that all tracks metadata (tracks) are sane and have a counterpart in the images (levels)
 		//therefore, over all tracks
-		for (Track track : tracks.values())
-		{
-			//check for track bounds: do they fall within the temporal interval of loaded images
-			if (track.m_begin < 0 || track.m_begin >= levels.size()
-			   || track.m_end < 0 || track.m_end   >= levels.size())
-				throw new IllegalArgumentException("The"+DS+"track with label "
-					+track.m_id+" begins or ends outside the image sequence!");
-
-			if (track.m_end < track.m_begin)
-				throw new IllegalArgumentException("The"+DS+"track with label "
-					+track.m_id+" is declared to end before it begins!");
-
-			//check that we have located the track's label in the images in the whole track temporal span
-			for (int t = track.m_begin; t <= track.m_end; ++t)
+		final int noOfTrackChunks = noOfChunksFor(tracks.size());
+		throwFirstInconsistency( ParallelChunks.run(noOfThreads, noOfTrackChunks, chunk -> {
+			final int to = chunkStart(chunk+1, noOfTrackChunks, tracks.size());
+			for (int i = chunkStart(chunk, noOfTrackChunks, tracks.size()); i < to; ++i)
 			{
-				try {
-					if (isGTcheck)
-						levels.get(t).gt_findLabel(track.m_id);
-					else
-						levels.get(t).res_findLabel(track.m_id);
-					//NB: level.get(t) should work because of the previous test
-				}
-				catch (IllegalArgumentException e) {
-					throw new IllegalArgumentException("The"+DS+"track with label "
-						+track.m_id+" was not found in the image at time point "+t+"!");
-				}
+				final String inconsistency = CheckTrackConsistency(levels, tracks, i, isGTcheck, DS);
+				if (inconsistency != null) return inconsistency;
 			}
+			return null;
+		}) );
 
-			//do we have a mother?
-			if (track.m_parent > 0)
+		//check that all labels discovered in images (levels) have a counterpart in tracks metadata (tracks)
+		//therefore, iterate over all time points:
+		final int noOfLevelChunks = noOfChunksFor(levels.size());
+		throwFirstInconsistency( ParallelChunks.run(noOfThreads, noOfLevelChunks, chunk -> {
+			final int to = chunkStart(chunk+1, noOfLevelChunks, levels.size());
+			for (int t = chunkStart(chunk, noOfLevelChunks, levels.size()); t < to; ++t)
 			{
-				//yes, is she listed among the available tracks?
-				if (!tracks.containsKey(track.m_parent))
-					throw new IllegalArgumentException("Reference to unavailable parent track "
-						+track.m_parent+" in the"+DS+"track with label "+track.m_id+"!");
-
-				//check if daughter track does not start earlier than mother track ends
-				if (track.m_begin <= tracks.get(track.m_parent).m_end)
-					throw new IllegalArgumentException("Invalid parent connection for the"
-						+DS+"track with label "+track.m_id+"!");
+				//over all labels found in an image at time t
+				final int[] idArray = isGTcheck ? levels.get(t).m_gt_lab : levels.get(t).m_res_lab;
+				for (int id : idArray)
+				{
+					//find it in the track metadata
+					final int track = tracks.indexOf(id);
+
+					//do we have such a track at all?
+					if (track == -1)
+						return "The"+DS+"track with label "+id
+							+" found in image at time point "+t+" is not declared (in tracks.txt) at all!";
+
+					//if we do, does the current image fall into the range declared in the metadata?
+					if (t < tracks.m_begin[track] || t > tracks.m_end[track])
+						return "The"+DS+"track with label "+id
+							+" found in image at time point "+t+" is not declared (in tracks.txt) to be found here!";
+				}
 			}
+			return null;
+		}) );
+	}
+
+	/**
+	 * Tests the track at index 'i' in the 'tracks' against the 'levels', returns
+	 * the description of the first inconsistency found, or null if there's none.
+	 */
+	protected String CheckTrackConsistency(final Vector<TemporalLevel> levels,
+		final TrackTable tracks,
+		final int i,
+		final boolean isGTcheck,
+		final String DS)
+	{
+		final int id = tracks.m_id[i];
+		final int begin = tracks.m_begin[i];
+		final int end = tracks.m_end[i];
+
+		//check for track bounds: do they fall within the temporal interval of loaded images
+		if (begin < 0 || begin >= levels.size()
+		   || end < 0 || end   >= levels.size())
+			return "The"+DS+"track with label "+id+" begins or ends outside the image sequence!";
+
+		if (end < begin)
+			return "The"+DS+"track with label "+id+" is declared to end before it begins!";
+
+		//check that we have located the track's label in the images in the whole track temporal span
+		for (int t = begin; t <= end; ++t)
+		{
+			//NB: level.get(t) should work because of the previous test
+			final int idx = isGTcheck ? levels.get(t).gt_lookupLabel(id) : levels.get(t).res_lookupLabel(id);
+			if (idx == -1)
+				return "The"+DS+"track with label "+id+" was not found in the image at time point "+t+"!";
 		}
 
-		//check that all labels discovered in images (levels) have a counterpart in tracks metadata (tracks)
-		//therefore, iterate over all time points:
-		for (int t = 0; t < levels.size(); ++t)
+		//do we have a mother?
+		final int parent = tracks.m_parent[i];
+		if (parent > 0)
 		{
-			//over all labels found in an image at time t
-			final int[] idArray = isGTcheck ? levels.get(t).m_gt_lab : levels.get(t).m_res_lab;
-			for (int id : idArray)
-			{
-				//find it in the track metadata   //if (!tracks.containsKey(id))
-				final Track track = tracks.get(id);
-
-				//do we have such a track at all?
-				if (track == null)
-					throw new IllegalArgumentException("The"+DS+"track with label "+id
-						+" found in image at time point "+t+" is not declared (in tracks.txt) at all!");
-
-				//if we do, does the current image fall into the range declared in the metadata?
-				if (t < track.m_begin || t > track.m_end)
-					throw new IllegalArgumentException("The"+DS+"track with label "+id
-						+" found in image at time point "+t+" is not declared (in tracks.txt) to be found here!");
-			}
+			//yes, is she listed among the available tracks?
+			final int p = tracks.indexOf(parent);
+			if (p == -1)
+				return "Reference to unavailable parent track "+parent+" in the"+DS+"track with label "+id+"!";
+
+			//check if daughter track does not start earlier than mother track ends
+			if (begin <= tracks.m_end[p])
+				return "Invalid parent connection for the"+DS+"track with label "+id+"!";
 		}
+
+		return null;
 	}
 
+	///throws the first (in the order of chunks) found inconsistency, if there's any
+	private void throwFirstInconsistency(final List<String> inconsistencies)
+	{
+		for (String inconsistency : inconsistencies)
+			if (inconsistency != null) throw new IllegalArgumentException(inconsistency);
+	}
 
 	/**
 	 * Returns index of RES label that matches with given GT lbl,
@@ -259,28 +551,65 @@ public class TRA
 
 
 	/**
-	 * Returns collection of indices of GT labels that matches with given RES lbl,
-	 * or collection with single item (of -1 value) if no such label was found.
+	 * Returns index of the GT label that matches with given RES lbl, provided
+	 * it is the only such label, or -1 if there is none or more than one.
 	 */
-	protected Collection<Integer> GetResMatch(final TemporalLevel level, final int lbl)
+	protected int GetResMatch(final TemporalLevel level, final int lbl)
 	{
-		final int idx = level.res_findLabel(lbl);
-		if (idx != -1)
-		{
-			return (level.m_res_match[idx]);
-		}
-		else
-		{
-			//return "not-found" set
-			HashSet<Integer> tmp = new HashSet<>();
-			tmp.add(-1);
-			return (tmp);
-		}
+		return ( level.res_uniqueMatch(level.res_findLabel(lbl)) );
 	}
 
 	//---------------------------------------------------------------------/
 	//aux data fillers -- merely an edge data classifiers
 
+	///counters and records of the edge errors found by one worker of classifyEdges()
+	protected static class EdgeErrors
+	{
+		EdgeErrors(final ReportSink _reports)
+		{ reports = _reports; }
+
+		long m_ed = 0, m_ea = 0, m_ec = 0;
+
+		///where to record the found errors (if doLogReports)
+		final ReportSink reports;
+	}
+
+	///classifier of the edges of the tracks with indices [from,to)
+	protected interface EdgeClassifier
+	{
+		void classify(final int from, final int to, final EdgeErrors errors);
+	}
+
+	/**
+	 * Runs the 'classifier' over all 'noOfTracks' tracks and adds the errors it has
+	 * found to this calculation. With more than one noOfThreads, the tracks are split
+	 * into chunks of consecutive tracks which are classified in parallel, each into
+	 * its own counters and records. These are merged afterwards in the order of the
+	 * chunks, so the records of every kind of error come in the same order as if
+	 * classified sequentially, and the counts are the same regardless of the threads.
+	 */
+	protected void classifyEdges(final int noOfTracks, final EdgeClassifier classifier)
+	{
+		final int noOfChunks = noOfChunksFor(noOfTracks);
+
+		final List<EdgeErrors> partials = ParallelChunks.run(noOfThreads, noOfChunks, chunk -> {
+			final EdgeErrors errors = new EdgeErrors( noOfChunks == 1 ? reports
+				: (doLogReports ? new ReportBuffer() : null) );
+			classifier.classify(chunkStart(chunk,noOfChunks,noOfTracks),
+			                    chunkStart(chunk+1,noOfChunks,noOfTracks), errors);
+			return errors;
+		});
+
+		for (EdgeErrors errors : partials)
+		{
+			cntED += errors.m_ed;
+			cntEA += errors.m_ea;
+			cntEC += errors.m_ec;
+			if (errors.reports != reports && errors.reports != null)
+				((ReportBuffer)errors.reports).replay(reports);
+		}
+	}
+
 	/**
 	 * Check if there is an edge of a given type between given
 	 * temporal levels in the reference tracks.
@@ -290,7 +619,7 @@ public class TRA
 		final int start_index,
 		final int end_level,
 		final int end_index,
-		final Map<Integer,Track> tracks,
+		final TrackTable tracks,
 		boolean[] parental) //an output variable...
 	{
 		//TODO: test if start_level and end_level are sane...
@@ -316,12 +645,12 @@ public class TRA
 			else
 			{
 				// the edge connects two tracks, get them...
-				final Track parent = tracks.get(start_label);
-				final Track child = tracks.get(end_label);
+				final int parent = tracks.getIndex(start_label);
+				final int child = tracks.getIndex(end_label);
 
 				//is the edge correctly connecting two tracks?
-				if (parent.m_end == start_level && child.m_begin == end_level
-				    && child.m_parent == start_label)
+				if (tracks.m_end[parent] == start_level && tracks.m_begin[child] == end_level
+				    && tracks.m_parent[child] == start_label)
 				{
 					parental[0] = true;
 					return true;
@@ -342,15 +671,15 @@ public class TRA
 		final int start_index,
 		final int end_level,
 		final int end_index,
-		final Map<Integer,Track> tracks)
+		final TrackTable tracks)
 	{
 		//TODO: test if start_level and end_level are sane...
 
 		//reasonable label indices? existing labels?
 		//do start and end labels/nodes have 1:1 matching?
 		if (start_index != -1 && end_index != -1
-		    && levels.get(start_level).m_res_match[start_index].size() == 1
-			 && levels.get(end_level).m_res_match[end_index].size() == 1)
+		    && levels.get(start_level).res_uniqueMatch(start_index) != -1
+			 && levels.get(end_level).res_uniqueMatch(end_index) != -1)
 		{
 			// get labels at given times at given indices
 			final int start_label = levels.get(start_level).m_res_lab[start_index];
@@ -366,12 +695,12 @@ public class TRA
 			else
 			{
 				// the edge connects two tracks, get them...
-				final Track parent = tracks.get(start_label);
-				final Track child = tracks.get(end_label);
+				final int parent = tracks.getIndex(start_label);
+				final int child = tracks.getIndex(end_label);
 
 				//is the edge correctly connecting two tracks?
-				return (parent.m_end == start_level && child.m_begin == end_level
-				        && child.m_parent == start_label);
+				return (tracks.m_end[parent] == start_level && tracks.m_begin[child] == end_level
+				        && tracks.m_parent[child] == start_label);
 			}
 		}
 
@@ -381,63 +710,75 @@ public class TRA
 
 	/** Find edges in the computed tracks that must be removed or altered. */
 	protected void FindEDAndECEdges(final Vector<TemporalLevel> levels,
-		final Map<Integer,Track> gt_tracks,
-		final Map<Integer,Track> res_tracks)
+		final TrackTable gt_tracks,
+		final TrackTable res_tracks)
+	{
+		classifyEdges(res_tracks.size(), (from,to,errors)
+			-> FindEDAndECEdges(levels, gt_tracks, res_tracks, from, to, errors));
+	}
+
+	/** Find edges, in the computed tracks with indices [from,to), that must be removed or altered. */
+	protected void FindEDAndECEdges(final Vector<TemporalLevel> levels,
+		final TrackTable gt_tracks,
+		final TrackTable res_tracks,
+		final int from, final int to,
+		final EdgeErrors errors)
 	{
 		final boolean[] parent = new boolean[1];
 		int start_level, end_level;
-		Collection<Integer> start_match, end_match;
+		int start_match, end_match;
 
-		//over all tracks/labels present in the result data
-		for (Integer res_track_id : res_tracks.keySet())
+		//over the given tracks/labels present in the result data
+		for (int r=from; r < to; ++r)
 		{
 			//short-cut to the track data
-			final Track res_track = res_tracks.get(res_track_id);
+			final int res_track_id = res_tracks.m_id[r];
+			final int res_track_parent = res_tracks.m_parent[r];
 
 			// A) check the edge between the first node of the current track
 			// B) and the last one of the parent track
 			// A):
-			end_level = res_track.m_begin;
+			end_level = res_tracks.m_begin[r];
 			end_match = GetResMatch(levels.get(end_level), res_track_id);
 
 			//does this track have a parent?
-			if (res_track.m_parent > 0)
+			if (res_track_parent > 0)
 			{
 				//yes, it does
 				// B):
-				start_level = res_tracks.get(res_track.m_parent).m_end;
-				start_match = GetResMatch(levels.get(start_level), res_track.m_parent);
+				start_level = res_tracks.m_end[ res_tracks.getIndex(res_track_parent) ];
+				start_match = GetResMatch(levels.get(start_level), res_track_parent);
 
-				//*_match contain lists of indices of GT labels that matches
-				if (start_match.size() == 1 && end_match.size() == 1)
+				//*_match contain indices of the only GT labels that matches
+				if (start_match != -1 && end_match != -1)
 				{
 					//right number of matches, deal with this RES edge:
-					if (ExistGTEdge(levels, start_level, start_match.iterator().next(),
-					                end_level, end_match.iterator().next(), gt_tracks, parent))
+					if (ExistGTEdge(levels, start_level, start_match,
+					                end_level, end_match, gt_tracks, parent))
 					{
 						//corresponding edge exists in GT, does it connect two different tracks too?
 						if (parent[0] == false)
 						{
 							//it does not connect different tracks, that's an error
-							aogm += penalty.m_ec;
+							++errors.m_ec;
 							if (doLogReports)
-								logEC.add(String.format("[T=%d Label=%d] -> [T=%d Label=%d]",
-									start_level, res_track.m_parent, end_level, res_track_id));
+								errors.reports.record(Kind.EC,
+									start_level, res_track_parent, end_level, res_track_id);
 						}
 					}
 					else
 					{
 						//there is no corresponding edge in GT, that's an error
-						aogm += penalty.m_ed;
+						++errors.m_ed;
 						if (doLogReports)
-							logED.add(String.format("[T=%d Label=%d] -> [T=%d Label=%d]",
-								start_level, res_track.m_parent, end_level, res_track_id));
+							errors.reports.record(Kind.ED,
+								start_level, res_track_parent, end_level, res_track_id);
 					}
 				}
 			}
 
 			// check edges within the current track
-			for (int t = res_track.m_begin; t < res_track.m_end; ++t)
+			for (int t = res_tracks.m_begin[r]; t < res_tracks.m_end[r]; ++t)
 			{
 				//define temporal consecutive nodes
 				start_level = end_level;
@@ -445,30 +786,30 @@ public class TRA
 				end_level = t + 1;
 				end_match = GetResMatch(levels.get(end_level), res_track_id);
 
-				//*_match contain lists of indices of GT labels that matches
-				if (start_match.size() == 1 && end_match.size() == 1)
+				//*_match contain indices of the only GT labels that matches
+				if (start_match != -1 && end_match != -1)
 				{
 					//we have a reasonable edge here, deal with this RES edge:
-					if (ExistGTEdge(levels, start_level, start_match.iterator().next(),
-					                end_level, end_match.iterator().next(), gt_tracks, parent))
+					if (ExistGTEdge(levels, start_level, start_match,
+					                end_level, end_match, gt_tracks, parent))
 					{
 						//corresponding edge exists in GT, should not be parental link however
 						if (parent[0] == true)
 						{
 							//it is parental, that's an error
-							aogm += penalty.m_ec;
+							++errors.m_ec;
 							if (doLogReports)
-								logEC.add(String.format("[T=%d Label=%d] -> [T=%d Label=%d]",
-									start_level, res_track_id, end_level, res_track_id));
+								errors.reports.record(Kind.EC,
+									start_level, res_track_id, end_level, res_track_id);
 						}
 					}
 					else
 					{
 						//there is no corresponding edge in GT, that's an error
-						aogm += penalty.m_ed;
+						++errors.m_ed;
 						if (doLogReports)
-							logED.add(String.format("[T=%d Label=%d] -> [T=%d Label=%d]",
-								start_level, res_track_id, end_level, res_track_id));
+							errors.reports.record(Kind.ED,
+								start_level, res_track_id, end_level, res_track_id);
 					}
 				}
 			}
@@ -478,44 +819,56 @@ public class TRA
 
 	/** Find edges in the reference tracks that must be added. */
 	protected void FindEAEdges(final Vector<TemporalLevel> levels,
-		final Map<Integer,Track> gt_tracks,
-		final Map<Integer,Track> res_tracks)
+		final TrackTable gt_tracks,
+		final TrackTable res_tracks)
+	{
+		classifyEdges(gt_tracks.size(), (from,to,errors)
+			-> FindEAEdges(levels, gt_tracks, res_tracks, from, to, errors));
+	}
+
+	/** Find edges, in the reference tracks with indices [from,to), that must be added. */
+	protected void FindEAEdges(final Vector<TemporalLevel> levels,
+		final TrackTable gt_tracks,
+		final TrackTable res_tracks,
+		final int from, final int to,
+		final EdgeErrors errors)
 	{
 		int start_level, end_level;
 		int start_index, end_index;
 
-		for (Integer gt_track_id : gt_tracks.keySet())
+		for (int g=from; g < to; ++g)
 		{
 			//short-cut to the track data
-			final Track gt_track = gt_tracks.get(gt_track_id);
+			final int gt_track_id = gt_tracks.m_id[g];
+			final int gt_track_parent = gt_tracks.m_parent[g];
 
 			// A) check the edge between the first node of the current track
 			// B) and the last one of the parent track
 			// A):
-			end_level = gt_track.m_begin;
+			end_level = gt_tracks.m_begin[g];
 			end_index = GetGTMatch(levels.get(end_level), gt_track_id);
 
 			//does this track have a parent?
-			if (gt_track.m_parent > 0)
+			if (gt_track_parent > 0)
 			{
 				//yes, it does
 				// B):
-				start_level = gt_tracks.get(gt_track.m_parent).m_end;
-				start_index = GetGTMatch(levels.get(start_level), gt_track.m_parent);
+				start_level = gt_tracks.m_end[ gt_tracks.getIndex(gt_track_parent) ];
+				start_index = GetGTMatch(levels.get(start_level), gt_track_parent);
 				//*_index contain indices of RES labels that matches ...
 
 				if (!ExistResEdge(levels, start_level, start_index, end_level, end_index, res_tracks))
 				{
 					//... but there is no edge between them, that's an error
-					aogm += penalty.m_ea;
+					++errors.m_ea;
 					if (doLogReports)
-						logEA.add(String.format("[T=%d GT_label=%d] -> [T=%d GT_label=%d]",
-							start_level, gt_track.m_parent, end_level, gt_track_id));
+						errors.reports.record(Kind.EA,
+							start_level, gt_track_parent, end_level, gt_track_id);
 				}
 			}
 
 			// check edges within the current track
-			for (int t = gt_track.m_begin; t < gt_track.m_end; ++t)
+			for (int t = gt_tracks.m_begin[g]; t < gt_tracks.m_end[g]; ++t)
 			{
 				//define temporal consecutive nodes
 				start_level = end_level;
@@ -527,10 +880,10 @@ public class TRA
 				if (!ExistResEdge(levels, start_level, start_index, end_level, end_index, res_tracks))
 				{
 					//... but there is no edge between them, that's an error
-					aogm += penalty.m_ea;
+					++errors.m_ea;
 					if (doLogReports)
-						logEA.add(String.format("[T=%d GT_label=%d] -> [T=%d GT_label=%d]",
-							start_level, gt_track_id, end_level, gt_track_id));
+						errors.reports.record(Kind.EA,
+							start_level, gt_track_id, end_level, gt_track_id);
 				}
 			}
 		}
@@ -549,41 +902,39 @@ public class TRA
 		//and if it fits our input, then use it
 		if (_cache != null && _cache.validFor(gtPath,resPath)) cache = _cache;
 
-		//if no cache is available after all, compute it
+		//if no cache is available after all, obtain it from the registry
+		//(that computes it afresh, unless it is enabled and some other measure
+		// has done it already), the tracks and levels of the cache may be shared
 		if (cache == null)
 		{
 			//do the upper stage
-			cache = new TrackDataCache(log);
-			cache.noOfDigits = noOfDigits;
-			cache.shouldComplainOnEmptyImages = doStopOnEmptyImages;
-			cache.calculate(gtPath,resPath);
+			final TrackDataCache params = new TrackDataCache(log);
+			params.noOfDigits = noOfDigits;
+			params.noOfPrefetchedFrames = noOfPrefetchedFrames;
+			params.noOfThreads = noOfThreads;
+			params.snapshotFolder = snapshotFolder;
+			params.shouldComplainOnEmptyImages = doStopOnEmptyImages;
+			cache = TrackDataCacheRegistry.getInstance().getOrCalculate(gtPath,resPath,params,log);
 		}
 
 		//do the bottom stage
 		//DEBUG//log.info("Computing the TRA bottom part...");
 		aogm = 0.0;
+		resetErrorCounters();
 
-		if (doLogReports)
-		{
-			logNS.add(String.format("----------Splitting Operations (Penalty=%g)----------", penalty.m_ns));
-			logFN.add(String.format("----------False Negative Vertices (Penalty=%g)----------", penalty.m_fn));
-			logFP.add(String.format("----------False Positive Vertices (Penalty=%g)----------", penalty.m_fp));
-			logED.add(String.format("----------Redundant Edges To Be Deleted (Penalty=%g)----------", penalty.m_ed));
-			logEA.add(String.format("----------Edges To Be Added (Penalty=%g)----------", penalty.m_ea));
-			logEC.add(String.format("----------Edges with Wrong Semantics (Penalty=%g)----------", penalty.m_ec));
-		}
-		if (doMatchingReports)
-			logMatch.add(String.format("----------Vertices Matching Status (No Penalty)----------", penalty.m_ns));
+		openReports();
 
 		//shadows of the/short-cuts to the cache data
 		final HashMap<Integer,Track> gt_tracks  = cache.gt_tracks;
 		final HashMap<Integer,Track> res_tracks = cache.res_tracks;
 		final Vector<TemporalLevel> levels = cache.levels;
+		final TrackTable gt_table  = new TrackTable(gt_tracks);
+		final TrackTable res_table = new TrackTable(res_tracks);
 
 		if (doConsistencyCheck)
 		{
-			CheckConsistency(levels,  gt_tracks, true);
-			CheckConsistency(levels, res_tracks, false);
+			CheckConsistency(levels,  gt_table, true);
+			CheckConsistency(levels, res_table, false);
 		}
 
 		//this is: local ClassifyLabels() -- the part that already does some AOGM checks
@@ -599,16 +950,16 @@ public class TRA
 				if (level.m_gt_match[i] == -1)
 				{
 					//no correspondence -> the gt label represents FN (false negative) case
-					aogm += penalty.m_fn;
+					++cntFN;
 					if (doLogReports)
-						logFN.add(String.format("T=%d GT_label=%d",level.m_level,level.m_gt_lab[i]));
+						reportNode(Kind.FN, level.m_level,level.m_gt_lab[i], 0);
 					if (doMatchingReports)
-						logMatch.add(String.format("T=%d GT_label=%d matches none",level.m_level,level.m_gt_lab[i]));
+						reportNode(Kind.GT_MATCH, level.m_level,level.m_gt_lab[i], 0);
 				}
 				else
 				{
 					if (doMatchingReports)
-						logMatch.add(String.format("T=%d GT_label=%d matches %d",level.m_level,level.m_gt_lab[i], level.m_res_lab[level.m_gt_match[i]] ));
+						reportNode(Kind.GT_MATCH, level.m_level,level.m_gt_lab[i], level.m_res_lab[level.m_gt_match[i]]);
 				}
 			}
 
@@ -617,34 +968,34 @@ public class TRA
 			for (int j=0; j < level.m_res_lab.length; ++j)
 			{
 				//number of overlapping gt labels
-				num = level.m_res_match[j].size();
+				num = level.res_matchCount(j);
 
 				if (num == 0)
 				{
 					//no label -- too few
-					aogm += penalty.m_fp;
+					++cntFP;
 					if (doLogReports)
-						logFP.add(String.format("T=%d Label=%d",level.m_level,level.m_res_lab[j]));
+						reportNode(Kind.FP, level.m_level,level.m_res_lab[j], 0);
 					if (doMatchingReports)
-						logMatch.add(String.format("T=%d Label=%d matches nothing",level.m_level,level.m_res_lab[j]));
+						reportNode(Kind.RES_MATCH, level.m_level,level.m_res_lab[j], 0);
 				}
 				else if (num > 1)
 				{
 					//too many labels...
-					aogm += (num - 1) * penalty.m_ns;
+					cntNS += num - 1;
 					if (doLogReports)
 					{
 						for (int qq=1; qq < num; ++qq)
-							logNS.add(String.format("T=%d Label=%d",level.m_level,level.m_res_lab[j]));
+							reportNode(Kind.NS, level.m_level,level.m_res_lab[j], 0);
 					}
 					max_split = num > max_split ? num : max_split;
 					if (doMatchingReports)
-						logMatch.add(String.format("T=%d Label=%d matches multiple",level.m_level,level.m_res_lab[j]));
+						reportNode(Kind.RES_MATCH, level.m_level,level.m_res_lab[j], ReportSink.MULTIPLE);
 				}
 				else //num == 1
 				{
 					if (doMatchingReports)
-						logMatch.add(String.format("T=%d Label=%d matches exactly %d",level.m_level,level.m_res_lab[j], level.m_gt_lab[(int)level.m_res_match[j].toArray()[0]] ));
+						reportNode(Kind.RES_MATCH, level.m_level,level.m_res_lab[j], level.m_gt_lab[level.res_match(j,0)]);
 				}
 			}
 		}
@@ -653,21 +1004,32 @@ public class TRA
 		if ((max_split - 1) * penalty.m_ns > (penalty.m_fp + max_split * penalty.m_fn))
 			log.info("Warning: The minimality condition broken! (m*="+max_split+")");
 
-		FindEDAndECEdges(levels, gt_tracks, res_tracks);
-		FindEAEdges(levels, gt_tracks, res_tracks);
-		//AOGM calculation ends here
+		//the edges are classified over dense, primitive copies of the tracks
+		FindEDAndECEdges(levels, gt_table, res_table);
+		FindEAEdges(levels, gt_table, res_table);
 
-		//should the log reports be printed?
-		if (doLogReports)
+		//the GT nodes and edges, that is, what it takes to create the result from the scratch:
+		//how many parental links to add
+		long num_par = 0;
+		//how many track links (edges) to add
+		long sum = 0;
+
+		for (int g=0; g < gt_table.size(); ++g)
 		{
-			reportLog(logNS);
-			reportLog(logFN);
-			reportLog(logFP);
-			reportLog(logED);
-			reportLog(logEA);
-			reportLog(logEC);
+			sum += gt_table.m_end[g] - gt_table.m_begin[g];
+
+			if (gt_table.m_parent[g] > 0) ++num_par;
 		}
-		if (doMatchingReports) reportLog(logMatch);
+
+		errorCounts = new ErrorCounts(cntNS,cntFN,cntFP,cntED,cntEA,cntEC, max_split,
+		                              sum + gt_table.size(), sum + num_par);
+		aogm = errorCounts.aogm(penalty);
+		//AOGM calculation ends here
+
+		//should the log reports be printed?
+		if (doLogReports) logReports(Kind.NS, Kind.FN, Kind.FP, Kind.ED, Kind.EA, Kind.EC);
+		if (doMatchingReports) logReports(Kind.GT_MATCH);
+		closeReports();
 
 		//now, the (old) TRA between GT and RES is calculated:
 		//the old refers to the un-normalized TRA value, interval [0,infinity)
@@ -677,33 +1039,15 @@ public class TRA
 		{
 			//calculate the (old) TRA when no result is supplied
 			// (approx. an energy required to CREATE tracking result from the scratch)
-			//
-			//how many parental links to add
-			int num_par = 0;
-			//how many track links (edges) to add
-			int sum = 0;
-
-			for (Integer id : gt_tracks.keySet())
-			{
-				Track t = gt_tracks.get(id);
-				sum += t.m_end - t.m_begin;
-
-				if (t.m_parent > 0) ++num_par;
-			}
-
-			final double aogm_empty = penalty.m_fn * (sum + gt_tracks.size()) //adding nodes
-											+ penalty.m_ea * (sum + num_par);         //adding edges
+			final double aogm_empty = errorCounts.aogmEmpty(penalty);
 
 			log.info("---");
 			log.info("AOGM to curate  the  given  result: "+aogm);
 			log.info("AOGM to build a new correct result: "+aogm_empty);
 
 			//if correcting is more expensive than creating, we assume user deletes
-			//the whole result and starts from the scratch, hence aogm = aogm_empty
-			aogm = aogm > aogm_empty ? aogm_empty : aogm;
-
-			//normalization:
-			aogm = 1.0 - aogm/aogm_empty;
+			//the whole result and starts from the scratch, and normalize
+			aogm = errorCounts.normalized(penalty);
 
 			log.info("normalized AOGM = TRA: "+aogm);
 		}
@@ -716,7 +1060,7 @@ public class TRA
 		return (aogm);
 	}
 
-	/// This is the wrapper TRA calculator, assuring complete re-calculation.
+	/// This is the wrapper TRA calculator, assuring complete re-calculation (unless the TrackDataCacheRegistry is enabled).
 	public double calculate(final String gtPath, final String resPath)
 	throws IOException, ImgIOException
 	{
@@ -35,24 +35,36 @@ import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.Cursor;
 import net.imglib2.RandomAccess;
+import net.imglib2.FinalInterval;
+import net.imglib2.view.Views;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 
 import sc.fiji.simplifiedio.SimplifiedIO;
 
+import net.celltrackingchallenge.measures.util.LabelPairsCounter;
+import net.celltrackingchallenge.measures.util.ParallelChunks;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
-
-import java.io.FileReader;
-import java.io.BufferedReader;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Scanner;
 
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Vector;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TrackDataCache
 {
@@ -86,6 +98,10 @@ public class TrackDataCache
 		noOfDigits = _referenceCache.noOfDigits;
 		shouldComplainOnEmptyImages = _referenceCache.shouldComplainOnEmptyImages;
 		overlapRatio = _referenceCache.overlapRatio;
+		noOfThreads = _referenceCache.noOfThreads;
+		maxFramesInFlight = _referenceCache.maxFramesInFlight;
+		noOfPrefetchedFrames = _referenceCache.noOfPrefetchedFrames;
+		snapshotFolder = _referenceCache.snapshotFolder;
 	}
 
 	/** specifies how many digits are to be expected in the input filenames */
@@ -101,13 +117,47 @@ public class TrackDataCache
 	    it's advisable to avoid going below 0.5, the code may assume at places that overlapRatio &ge; 0.5 */
 	public double overlapRatio = 0.5;
 
-	///GT and RES paths combination for which this cache is valid, null means invalid
+	/** specifies how many threads can be used; calculate() then processes that many image pairs
+	    concurrently, and ClassifyLabels() sweeps one image pair in that many parallel slabs (along
+	    the last image dimension); the results are always identical to the single-threaded processing */
+	public int noOfThreads = 1;
+
+	/** specifies, when calculate() is run with more than one thread, how many image pairs can be
+	    loaded in the memory at the same time (this is the memory budget of the parallel processing) */
+	public int maxFramesInFlight = 4;
+
+	/** specifies how many image pairs calculate() can read ahead (in the background) when it
+	    is run single-threaded, use 0 to read every image pair only when it is to be processed */
+	public int noOfPrefetchedFrames = 1;
+
+	///workers that sweep the image pairs in slabs, kept for all CreateLevel()s with the same noOfThreads
+	private ParallelChunks sweepWorkers = null;
+
+	private synchronized ParallelChunks getSweepWorkers(final int noOfThreads)
+	{
+		if (sweepWorkers == null || sweepWorkers.getNoOfThreads() != noOfThreads)
+		{
+			if (sweepWorkers != null) sweepWorkers.close();
+			sweepWorkers = new ParallelChunks(noOfThreads);
+		}
+		return sweepWorkers;
+	}
+
+	/** specifies a folder in which calculate() keeps snapshots of its results, one per pair of
+	    GT and RES folders; a snapshot is loaded instead of processing the images again as long as
+	    the inputs (their sizes and modification times) and the parameters above have not changed,
+	    if only some inputs have changed, only the affected time points are processed again,
+	    use null to disable the snapshots */
+	public String snapshotFolder = null;
+
+	///GT and RES paths combination (normalized) for which this cache is valid, null means invalid
 	private String gtPath = null;
-	///GT and RES paths combination for which this cache is valid, null means invalid
+	///GT and RES paths combination (normalized) for which this cache is valid, null means invalid
 	private String resPath = null;
 
 	/**
-	 * Reference-based-only check if the parameters are those on which this cache was computed.
+	 * Check if the parameters are those on which this cache was computed. The paths
+	 * are compared by their value, after they are made absolute and normalized.
 	 *
 	 * @param _gtPath Was this cache recently operated against this GT data folder?
 	 * @param _resPath Was this cache recently operated against this result data folder?
@@ -117,15 +167,43 @@ public class TrackDataCache
 	{
 		return ( gtPath != null &&  resPath != null
 		     && _gtPath != null && _resPath != null
-		     && gtPath == _gtPath
-		     && resPath == _resPath);
+		     && gtPath.equals(TrackDataCacheSnapshot.normalizedPath(_gtPath))
+		     && resPath.equals(TrackDataCacheSnapshot.normalizedPath(_resPath)) );
+	}
+
+	/**
+	 * Returns a cache that is set up, calculated and valid the same as this one, but with
+	 * its own maps and vectors of the tracks, forks and levels. The tracks, forks and levels
+	 * themselves are shared with this cache, so they must not be modified.
+	 */
+	TrackDataCache shallowCopy()
+	{
+		final TrackDataCache copy = new TrackDataCache(log);
+		copy.setupSimilarAs(this);
+		copy.gt_tracks.putAll(gt_tracks);
+		copy.res_tracks.putAll(res_tracks);
+		copy.levels.addAll(levels);
+		copy.gt_forks.addAll(gt_forks);
+		copy.res_forks.addAll(res_forks);
+		copy.gtPath = gtPath;
+		copy.resPath = resPath;
+		copy.fingerprint = fingerprint;
+		return copy;
 	}
 
 	/**
 	 * Returns a cache that's ready for the provided paths. It attempts to reuse the provided
-	 * 'cacheConsideredForReusing' if possible, otherwise it creates a brand new one. The brand
-	 * new one attempts to mimic the provided with {@link TrackDataCache#setupSimilarAs(TrackDataCache)},
-	 * if there's one provided (not null).
+	 * 'cacheConsideredForReusing' if possible, otherwise it asks the {@link TrackDataCacheRegistry}
+	 * for a cache of the same inputs and parameters, or it creates a brand new one (and registers it).
+	 * The brand new one attempts to mimic the provided with {@link TrackDataCache#setupSimilarAs(TrackDataCache)},
+	 * if there's one provided (not null). If the provided one has its snapshotFolder set, the
+	 * brand new one is loaded from a snapshot there, unless the inputs have changed since.
+	 *
+	 * The registry is disabled by default, and it then calculates the cache completely
+	 * afresh. Once enabled with {@link TrackDataCacheRegistry#setEnabled(boolean)}, it hands
+	 * out its cache while no input file has changed its size or modification time, otherwise
+	 * it re-calculates the cache incrementally. The tracks and levels of such cache are shared
+	 * with other callers and must not be modified.
 	 *
 	 * @param cacheConsideredForReusing Check for validity and try to reuse this cache in the first place.
 	 * @param _gtPath Path to ground truth data that's used to check for the validity.
@@ -143,10 +221,10 @@ public class TrackDataCache
 		if (cacheConsideredForReusing != null && cacheConsideredForReusing.validFor(_gtPath, _resPath))
 			return cacheConsideredForReusing;
 
-		TrackDataCache newCache = new TrackDataCache(log);
-		if (cacheConsideredForReusing != null) newCache.setupSimilarAs(cacheConsideredForReusing);
-		newCache.calculate(_gtPath,_resPath);
-		return newCache;
+		//the registry needs to know the parameters, use the default ones if no cache is given
+		final TrackDataCache template = cacheConsideredForReusing != null ?
+			cacheConsideredForReusing : new TrackDataCache(log);
+		return TrackDataCacheRegistry.getInstance().getOrCalculate(_gtPath,_resPath,template,log);
 	}
 
 
@@ -224,6 +302,100 @@ public class TrackDataCache
 		}
 	}
 
+	/**
+	 * Read-only, densely indexed copy of a collection of tracks. Every track gets
+	 * a compact index (0 till size()-1, in the iteration order of the collection)
+	 * and its attributes are stored in plain arrays at this index, e.g., the
+	 * m_begin[getIndex(id)] is the begin of the track with identifier 'id'.
+	 *
+	 * It is a snapshot, it does not follow later changes of the collection.
+	 */
+	public static class TrackTable
+	{
+		/** Creates the table from the given tracks. */
+		public TrackTable(final Map<Integer,Track> tracks)
+		{
+			final int size = tracks.size();
+			m_id = new int[size];
+			m_begin = new int[size];
+			m_end = new int[size];
+			m_parent = new int[size];
+
+			int maxSmallId = -1, noOfLargeIds = 0;
+			int i = 0;
+			for (Track t : tracks.values())
+			{
+				m_id[i] = t.m_id;
+				m_begin[i] = t.m_begin;
+				m_end[i] = t.m_end;
+				m_parent[i] = t.m_parent;
+				++i;
+
+				if (t.m_id >= 0 && t.m_id <= 0xFFFF) maxSmallId = Math.max(maxSmallId, t.m_id);
+				else ++noOfLargeIds;
+			}
+
+			//identifiers that can appear in the (16-bit) images are looked up directly,
+			//the remaining ones (if any at all) are searched in a sorted list
+			m_smallIdIdx = new int[maxSmallId+1];
+			Arrays.fill(m_smallIdIdx, -1);
+			m_largeIds = new long[noOfLargeIds];
+			noOfLargeIds = 0;
+			for (i=0; i < size; ++i)
+				if (m_id[i] >= 0 && m_id[i] <= 0xFFFF) m_smallIdIdx[m_id[i]] = i;
+				else m_largeIds[noOfLargeIds++] = (long)m_id[i] << 32 | i;
+			Arrays.sort(m_largeIds);
+		}
+
+		/** Track identifiers (IDs). */
+		public final int[] m_id;
+		/** The time points in which the tracks begin (inclusive). */
+		public final int[] m_begin;
+		/** The time points in which the tracks end (inclusive). */
+		public final int[] m_end;
+		/** Identifiers (IDs) of the parent tracks, 0 if no parent exists. */
+		public final int[] m_parent;
+
+		///index of the track with the given (16-bit) ID, or -1
+		private final int[] m_smallIdIdx;
+		///the other IDs (in the upper half) with their indices (in the lower half), sorted
+		private final long[] m_largeIds;
+
+		/** Returns the number of tracks. */
+		public int size()
+		{
+			return m_id.length;
+		}
+
+		/** Returns index of the track with the given identifier, or -1 if there's no such track. */
+		public int indexOf(final int id)
+		{
+			if (id >= 0 && id <= 0xFFFF)
+				return ( id < m_smallIdIdx.length ? m_smallIdIdx[id] : -1 );
+
+			int lo = 0, hi = m_largeIds.length-1;
+			while (lo <= hi)
+			{
+				final int mid = (lo+hi) >>> 1;
+				final int midId = (int)(m_largeIds[mid] >> 32);
+				if (midId < id) lo = mid+1;
+				else if (midId > id) hi = mid-1;
+				else return (int)m_largeIds[mid];
+			}
+			return -1;
+		}
+
+		/** Returns index of the track with the given identifier, throws
+		    IllegalArgumentException if there's no such track. */
+		public int getIndex(final int id)
+		{
+			final int idx = indexOf(id);
+			if (idx == -1)
+				throw new IllegalArgumentException("Reference to unavailable track "+id+"!");
+			return idx;
+		}
+	}
+
 	/** Fork representation. */
 	public class Fork
 	{
@@ -238,6 +410,13 @@ public class TrackDataCache
 			for (Integer id : child_ids) m_child_ids[i++] = id;
 		}
 
+		/** Explicit constructor that takes over the 'child_ids' array. */
+		Fork(final int parent_id, final int[] child_ids)
+		{
+			m_parent_id = parent_id;
+			m_child_ids = child_ids;
+		}
+
 		/** Parent identificator. */
 		final int m_parent_id;
 
@@ -278,32 +457,104 @@ public class TrackDataCache
 		/** List of sizes of labels in the computed image. */
 		int[] m_res_size = null;
 
+		/** Direct lookup table: GT label -> its index in the m_gt_lab,
+		    or -1 if the label is not present at this time point. */
+		int[] m_gt_idx = null;
+
+		/** Direct lookup table: RES label -> its index in the m_res_lab,
+		    or -1 if the label is not present at this time point. */
+		int[] m_res_idx = null;
+
+		/** (Re)creates the m_gt_idx and m_res_idx lookup tables from the
+		    current content of the m_gt_lab and m_res_lab. */
+		void buildLabelIndices()
+		{
+			m_gt_idx  = createLabelIndexTable(m_gt_lab);
+			m_res_idx = createLabelIndexTable(m_res_lab);
+		}
+
+		///returns index of the input GT label, or -1 if label was not found
+		public int gt_lookupLabel(final int label)
+		{
+			return ( label >= 0 && label < m_gt_idx.length ? m_gt_idx[label] : -1 );
+		}
+
+		///returns index of the input RES label, or -1 if label was not found
+		public int res_lookupLabel(final int label)
+		{
+			return ( label >= 0 && label < m_res_idx.length ? m_res_idx[label] : -1 );
+		}
+
 		///returns index of the input GT label
 		public int gt_findLabel(final int label)
 		{
-			for (int i=0; i < m_gt_lab.length; ++i)
-				if (m_gt_lab[i] == label) return (i);
-
-			throw new IllegalArgumentException("Label not found!");
+			final int idx = gt_lookupLabel(label);
+			if (idx == -1) throw new IllegalArgumentException("Label not found!");
+			return (idx);
 		}
 
 		///returns index of the input RES label
 		public int res_findLabel(final int label)
 		{
-			for (int i=0; i < m_res_lab.length; ++i)
-				if (m_res_lab[i] == label) return (i);
-
-			throw new IllegalArgumentException("Label not found!");
+			final int idx = res_lookupLabel(label);
+			if (idx == -1) throw new IllegalArgumentException("Label not found!");
+			return (idx);
 		}
 
 		/**
-		 * Matching matrix, stored as a plain 1D array.
+		 * Matching matrix, stored sparsely in the compressed-row form,
+		 * a row per GT label. Only intersecting pairs of labels are stored.
 		 *
-		 * For every position (j,i) (j-th row and i-th column), it contains
-		 * number of voxels in the intersection between m_res_lab[j] label
-		 * and m_gt_lab[i] label.
+		 * The row of the m_gt_lab[i] label is found at the positions
+		 * m_match_rowStart[i] till m_match_rowStart[i+1]-1 (inclusive) in the
+		 * m_match_resIdx and m_match_count arrays. For every such position k,
+		 * the m_match_count[k] tells the number of voxels in the intersection
+		 * between m_gt_lab[i] label and m_res_lab[m_match_resIdx[k]] label.
+		 * Every row is sorted by the RES label indices.
 		 */
-		int[] m_match = null;
+		int[] m_match_rowStart = null;
+		/** See m_match_rowStart. */
+		int[] m_match_resIdx = null;
+		/** See m_match_rowStart. */
+		int[] m_match_count = null;
+
+		/// returns number of voxels in the intersection of the i-th GT and j-th RES labels
+		public int getOverlap(final int gtIdx, final int resIdx)
+		{
+			final int k = Arrays.binarySearch(m_match_resIdx,
+				m_match_rowStart[gtIdx], m_match_rowStart[gtIdx+1], resIdx);
+			return ( k >= 0 ? m_match_count[k] : 0 );
+		}
+
+		/**
+		 * Creates the (sparse) matching matrix from the intersections histogram,
+		 * the m_gt_lab, m_res_lab and the lookup tables must be ready already.
+		 */
+		void buildMatchingMatrix(final LabelPairsCounter overlaps)
+		{
+			//count the length of every row
+			m_match_rowStart = new int[m_gt_lab.length+1];
+			overlaps.forEach( (gtLbl,resLbl,count) -> ++m_match_rowStart[gt_findLabel(gtLbl)+1] );
+			for (int i=0; i < m_gt_lab.length; ++i)
+				m_match_rowStart[i+1] += m_match_rowStart[i];
+
+			//fill the rows, an element is the RES index in the upper and the count in the lower half
+			final long[] elems = new long[overlaps.size()];
+			final int[] rowFill = Arrays.copyOf(m_match_rowStart, m_gt_lab.length);
+			overlaps.forEach( (gtLbl,resLbl,count) ->
+				elems[ rowFill[gt_findLabel(gtLbl)]++ ] = (long)res_findLabel(resLbl) << 32 | count );
+
+			//sort every row (by the RES index) and unpack
+			m_match_resIdx = new int[elems.length];
+			m_match_count = new int[elems.length];
+			for (int i=0; i < m_gt_lab.length; ++i)
+				Arrays.sort(elems, m_match_rowStart[i], m_match_rowStart[i+1]);
+			for (int k=0; k < elems.length; ++k)
+			{
+				m_match_resIdx[k] = (int)(elems[k] >>> 32);
+				m_match_count[k] = (int)elems[k];
+			}
+		}
 
 		/// prints out the current matching matrix on a terminal
 		public void PrintMatchingMatrix()
@@ -325,14 +576,13 @@ public class TrackDataCache
 			System.out.println();
 
 			//print for every RES:
-			final int m_match_lineSize = m_gt_lab.length;
 			for (int res : RESlabs)
 			{
 				System.out.print(res+":\t");
 				for (int gt : GTlabs)
 				{
 					System.out.print(
-						m_match[ gt_findLabel(gt) + m_match_lineSize*res_findLabel(res) ]
+						getOverlap( gt_findLabel(gt), res_findLabel(res) )
 						+"\t");
 				}
 				System.out.println();
@@ -358,14 +608,13 @@ public class TrackDataCache
 			RESlabs.sort(null);
 
 			//print for every RES:
-			final int m_match_lineSize = m_gt_lab.length;
 			for (int res : RESlabs)
 			{
 				for (int gt : GTlabs)
 				{
 					System.out.println("time "+this.m_level
 						+" GT ID "+gt+" RES ID "+res+" overlap "
-						+m_match[ gt_findLabel(gt) + m_match_lineSize*res_findLabel(res) ]);
+						+getOverlap( gt_findLabel(gt), res_findLabel(res) ));
 				}
 			}
 		}
@@ -398,13 +647,97 @@ public class TrackDataCache
 		int[] m_gt_match = null;
 
 		/**
-		 * Sets of indices of computed vertex matching, i.e., it is of the same length
-		 * as m_res_lab and it holds sets of indices into the m_gt_lab.
+		 * Indices of computed vertex matching, i.e., for every m_res_lab label
+		 * it holds the (possibly empty) list of indices into the m_gt_lab.
 		 *
-		 * It is initialized with empty sets. After matching is done,
-		 * an empty set corresponds to a FP vertex.
+		 * The lists are stored one after another in the m_res_match_gtIdx, the list
+		 * of the m_res_lab[j] label is found at the positions m_res_match_start[j] till
+		 * m_res_match_start[j+1]-1 (inclusive), and it is sorted increasingly.
+		 * After matching is done, an empty list corresponds to a FP vertex.
+		 *
+		 * It is derived from the m_gt_match, see buildResMatch().
 		 */
-		HashSet<Integer>[] m_res_match = null;
+		int[] m_res_match_start = null;
+		/** See m_res_match_start. */
+		int[] m_res_match_gtIdx = null;
+
+		/**
+		 * The 1:1 matching, i.e., for every m_gt_lab label the index into the m_res_lab
+		 * of the RES label that is matched to it and to no other GT label, or -1.
+		 * Similarly, for every m_res_lab label the index into the m_gt_lab of its only
+		 * matched GT label, or -1. Both are derived from the m_gt_match, see buildResMatch().
+		 */
+		int[] m_gt_unique = null;
+		/** See m_gt_unique. */
+		int[] m_res_unique = null;
+
+		/** (Re)creates the m_res_match_start and m_res_match_gtIdx, and the
+		    m_gt_unique and m_res_unique from the current content of the m_gt_match. */
+		void buildResMatch()
+		{
+			m_res_match_start = new int[m_res_lab.length+1];
+			for (int j : m_gt_match)
+				if (j > -1) ++m_res_match_start[j+1];
+			for (int j=0; j < m_res_lab.length; ++j)
+				m_res_match_start[j+1] += m_res_match_start[j];
+
+			//NB: GT indices are visited increasingly, so the lists get sorted
+			m_res_match_gtIdx = new int[m_res_match_start[m_res_lab.length]];
+			final int[] listFill = Arrays.copyOf(m_res_match_start, m_res_lab.length);
+			for (int i=0; i < m_gt_match.length; ++i)
+				if (m_gt_match[i] > -1) m_res_match_gtIdx[ listFill[m_gt_match[i]]++ ] = i;
+
+			//RES labels with exactly one match, and their GT counterparts
+			m_res_unique = new int[m_res_lab.length];
+			for (int j=0; j < m_res_lab.length; ++j)
+				m_res_unique[j] = res_matchCount(j) == 1 ? m_res_match_gtIdx[m_res_match_start[j]] : -1;
+
+			m_gt_unique = new int[m_gt_lab.length];
+			for (int i=0; i < m_gt_match.length; ++i)
+				m_gt_unique[i] = m_gt_match[i] > -1 && m_res_unique[m_gt_match[i]] == i ? m_gt_match[i] : -1;
+		}
+
+		///returns the number of GT labels matched to the j-th RES label
+		public int res_matchCount(final int resIdx)
+		{
+			return ( m_res_match_start[resIdx+1] - m_res_match_start[resIdx] );
+		}
+
+		///returns index of the k-th (0 &le; k &lt; res_matchCount()) GT label matched to the j-th RES label
+		public int res_match(final int resIdx, final int k)
+		{
+			return ( m_res_match_gtIdx[m_res_match_start[resIdx] + k] );
+		}
+
+		///returns index of the RES label matched 1:1 to the i-th GT label, or -1 if there is none
+		public int gt_uniqueMatch(final int gtIdx)
+		{
+			return ( m_gt_unique[gtIdx] );
+		}
+
+		///returns index of the GT label matched 1:1 to the j-th RES label, or -1 if there is none
+		public int res_uniqueMatch(final int resIdx)
+		{
+			return ( m_res_unique[resIdx] );
+		}
+	}
+
+	/**
+	 * Creates a direct lookup table for the given list of (non-negative) labels.
+	 * The table is just long enough to hold the largest label and it stores,
+	 * for every label, its index in the 'labels' or -1 if the label is not listed.
+	 */
+	static int[] createLabelIndexTable(final int[] labels)
+	{
+		int maxLabel = -1;
+		for (int l : labels)
+			if (l > maxLabel) maxLabel = l;
+
+		final int[] table = new int[maxLabel+1];
+		Arrays.fill(table, -1);
+		for (int i=0; i < labels.length; ++i) table[labels[i]] = i;
+
+		return (table);
 	}
 
 	//representation of tracks
@@ -422,12 +755,17 @@ public class TrackDataCache
 	//data loading functions:
 
 	/// Loads the given filename AND checks it has appropriate GRAY16 voxel type.
-	@SuppressWarnings("unchecked")
 	public Img<UnsignedShortType> ReadImageG16(final String fname)
 	throws IOException
 	{
-		Img<?> img = ReadImage(fname);
+		return CheckImageG16(ReadImage(fname), fname);
+	}
 
+	/// Checks the given (already loaded from 'fname') image has appropriate GRAY16 voxel type.
+	@SuppressWarnings("unchecked")
+	public Img<UnsignedShortType> CheckImageG16(final Img<?> img, final String fname)
+	throws IOException
+	{
 		//check input file for the appropriate type
 		if (!(img.firstElement() instanceof UnsignedShortType))
 		{
@@ -439,12 +777,17 @@ public class TrackDataCache
 	}
 
 	/// Loads the given filename AND checks it has appropriate GRAY8 voxel type.
-	@SuppressWarnings("unchecked")
 	public Img<UnsignedByteType> ReadImageG8(final String fname)
 	throws IOException
 	{
-		Img<?> img = ReadImage(fname);
+		return CheckImageG8(ReadImage(fname), fname);
+	}
 
+	/// Checks the given (already loaded from 'fname') image has appropriate GRAY8 voxel type.
+	@SuppressWarnings("unchecked")
+	public Img<UnsignedByteType> CheckImageG8(final Img<?> img, final String fname)
+	throws IOException
+	{
 		//check input file for the appropriate type
 		if (!(img.firstElement() instanceof UnsignedByteType))
 		{
@@ -482,45 +825,17 @@ public class TrackDataCache
 	                   final Logger log)
 	throws IOException
 	{
-		Scanner s = null;
-		int id=-1,begin,end,parent;
-
 		try {
-			s = new Scanner(new BufferedReader(new FileReader(fname)));
-			//TODO: read the file line by line, so that "missing element" errors are detected earlier
-
-			while (s.hasNext())
-			{
-				//read track data
-				id = Integer.parseInt(s.next());
-				//NB: id should be hopefully available as hasNext() has passed
-				//NB: the remaining 3 calls are not "guarded" like that
-				begin = Integer.parseInt(s.next());
-				end = Integer.parseInt(s.next());
-				parent = Integer.parseInt(s.next());
-
-				//check for duplicities
-				if (track_list.containsKey(id))
-					throw new IOException("Detected multiple occurrence of the same track.");
-
-				//check the track has reasonable time stamps
-				if (begin > end)
-					throw new IOException("Detected track with wrong time stamps.");
-
-				//store the track
-				track_list.put(id,new Track(id,begin,end,parent));
-			}
+			TrackFileIO.read(fname, track_list);
+		} catch (NoSuchFileException e) {
+			//nothing was read in, no TRA-related report then
+			throw e;
 		} catch (IOException e) {
-			//TRA-related report only if something was read in
-			if (id > -1) log.error("Error reading track with ID="+id);
+			//TRA-related report, the message tells the offending line
+			log.error("Error reading track file: "+e.getMessage());
 
 			//anyway, send the original error message further
 			throw e;
-		} finally {
-			if (s != null)
-			{
-				s.close();
-			}
 		}
 
 		log.info("Loaded track file: "+fname);
@@ -563,12 +878,192 @@ public class TrackDataCache
 		ClassifyLabels(gt_img,res_img, _shouldComplainOnEmptyImages, time, overlapRatio);
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Frequency histograms of GT labels, of RES labels and of the (GT,RES)
+	 * label pairs, that is, sizes of GT segments, RES segments and sizes of
+	 * their intersections. Since the labels are 16-bit values, the histograms
+	 * of labels are stored directly in plain arrays, and the (typically sparse)
+	 * histogram of intersections is kept in the primitive LabelPairsCounter.
+	 */
+	static class OverlapHistograms
+	{
+		///number of voxels per GT label, including the background (label 0)
+		final int[] gt_size = new int[65536];
+		///number of voxels per RES label, including the background (label 0)
+		final int[] res_size = new int[65536];
+		///number of voxels per every pair of intersecting GT and RES labels
+		final LabelPairsCounter overlaps = new LabelPairsCounter();
+
+		//the currently open run of the same non-background (GT,RES) pair,
+		//it saves on the hashing as neighboring voxels are typically the same
+		private int runGt = 0, runRes = 0, runLength = 0;
+
+		private void add(final int gtLbl, final int resLbl)
+		{
+			++gt_size[gtLbl];
+			++res_size[resLbl];
+
+			//intersection?
+			if (gtLbl > 0 && resLbl > 0)
+			{
+				if (gtLbl == runGt && resLbl == runRes) ++runLength;
+				else
+				{
+					flushRun();
+					runGt = gtLbl;
+					runRes = resLbl;
+					runLength = 1;
+				}
+			}
+		}
+
+		private void flushRun()
+		{
+			if (runLength > 0) overlaps.add(runGt,runRes,runLength);
+			runLength = 0;
+		}
+
+		/**
+		 * Sweeps both images simultaneously, and just once, and updates the histograms.
+		 * If the images iterate the same way (e.g., both are ArrayImgs or PlanarImgs
+		 * of the same geometry), both are swept with plain cursors in a lock-step,
+		 * otherwise the res_img is positioned at every voxel of the gt_img.
+		 */
+		@SuppressWarnings("unchecked")
+		void sweep(final IterableInterval<UnsignedShortType> gt_img,
+		           final RandomAccessibleInterval<UnsignedShortType> res_img)
+		{
+			if (res_img instanceof IterableInterval
+			    && gt_img.iterationOrder().equals( ((IterableInterval<?>)res_img).iterationOrder() ))
+			{
+				final Cursor<UnsignedShortType> c = gt_img.cursor();
+				final Cursor<UnsignedShortType> c2 = ((IterableInterval<UnsignedShortType>)res_img).cursor();
+				while (c.hasNext())
+					add(c.next().getInteger(), c2.next().getInteger());
+			}
+			else
+			{
+				final Cursor<UnsignedShortType> c = gt_img.localizingCursor();
+				final RandomAccess<UnsignedShortType> c2 = res_img.randomAccess();
+				while (c.hasNext())
+				{
+					final int gtLbl = c.next().getInteger();
+					c2.setPosition(c);
+					add(gtLbl, c2.get().getInteger());
+				}
+			}
+
+			flushRun();
+		}
+
+		///adds the content of the 'other' histograms to this one
+		void mergeWith(final OverlapHistograms other)
+		{
+			for (int lbl = 0; lbl < gt_size.length; ++lbl)
+			{
+				gt_size[lbl]  += other.gt_size[lbl];
+				res_size[lbl] += other.res_size[lbl];
+			}
+			overlaps.addAll(other.overlaps);
+		}
+
+		/**
+		 * The same as sweep() but the images are split along their last dimension
+		 * into (at most) as many slabs as the 'workers' have threads, and these are
+		 * swept in parallel, each into its own histograms. These are merged afterwards
+		 * in the order of the slabs, which is why the outcome is always the same as
+		 * that of the plain sweep().
+		 */
+		@SuppressWarnings("unchecked")
+		static OverlapHistograms sweepInParallel(final IterableInterval<UnsignedShortType> gt_img,
+		                                         final RandomAccessibleInterval<UnsignedShortType> res_img,
+		                                         final ParallelChunks workers)
+		{
+			final int lastDim = gt_img.numDimensions()-1;
+			final long length = gt_img.dimension(lastDim);
+			final int noOfSlabs = (int)Math.min(workers.getNoOfThreads(), length);
+
+			//can the work be split at all?
+			if (noOfSlabs < 2 || !(gt_img instanceof RandomAccessibleInterval))
+			{
+				final OverlapHistograms hist = new OverlapHistograms();
+				hist.sweep(gt_img, res_img);
+				return hist;
+			}
+
+			final RandomAccessibleInterval<UnsignedShortType> gt_rai
+				= (RandomAccessibleInterval<UnsignedShortType>)gt_img;
+
+			final List<OverlapHistograms> partials = workers.process(noOfSlabs, slab -> {
+				//the slab covers the whole image except for the last dimension
+				final long[] min = new long[lastDim+1];
+				final long[] max = new long[lastDim+1];
+				gt_img.min(min);
+				gt_img.max(max);
+				min[lastDim] = gt_img.min(lastDim) + slab*length/noOfSlabs;
+				max[lastDim] = gt_img.min(lastDim) + (slab+1)*length/noOfSlabs -1;
+				final FinalInterval slabInterval = new FinalInterval(min,max);
+
+				final OverlapHistograms hist = new OverlapHistograms();
+				hist.sweep(Views.interval(gt_rai, slabInterval), Views.interval(res_img, slabInterval));
+				return hist;
+			});
+
+			final OverlapHistograms hist = partials.get(0);
+			for (int slab = 1; slab < partials.size(); ++slab)
+				hist.mergeWith(partials.get(slab));
+
+			return hist;
+		}
+
+		///returns sorted list of non-background labels found in the given histogram
+		static int[] listLabels(final int[] hist)
+		{
+			int cnt = 0;
+			for (int lbl = 1; lbl < hist.length; ++lbl)
+				if (hist[lbl] > 0) ++cnt;
+
+			final int[] labels = new int[cnt];
+			cnt = 0;
+			for (int lbl = 1; lbl < hist.length; ++lbl)
+				if (hist[lbl] > 0) labels[cnt++] = lbl;
+
+			return labels;
+		}
+
+		///returns sizes of the given labels as found in the given histogram
+		static int[] listSizes(final int[] hist, final int[] labels)
+		{
+			final int[] sizes = new int[labels.length];
+			for (int i = 0; i < labels.length; ++i)
+				sizes[i] = hist[labels[i]];
+
+			return sizes;
+		}
+	}
+
 	public void ClassifyLabels(IterableInterval<UnsignedShortType> gt_img,
 	                           RandomAccessibleInterval<UnsignedShortType> res_img,
 	                           final boolean _shouldComplainOnEmptyImages,
 	                           final int time,
 	                           final double overlapRatio)
+	{
+		//finally, "save" the level data
+		levels.add( CreateLevel(gt_img,res_img, _shouldComplainOnEmptyImages, time, overlapRatio, noOfThreads) );
+	}
+
+	/**
+	 * Does the whole job of the ClassifyLabels() except that the created
+	 * TemporalLevel is returned instead of being appended to the 'levels'.
+	 * This method does not change this cache and can be thus called from
+	 * multiple threads simultaneously.
+	 */
+	public TemporalLevel CreateLevel(IterableInterval<UnsignedShortType> gt_img,
+	                                 RandomAccessibleInterval<UnsignedShortType> res_img,
+	                                 final boolean _shouldComplainOnEmptyImages,
+	                                 final int time,
+	                                 final double overlapRatio,
+	                                 final int noOfThreads)
 	{
 		//check the sizes of the images
 		if (gt_img.numDimensions() != res_img.numDimensions())
@@ -583,67 +1078,21 @@ public class TrackDataCache
 		//create output TemporalLevel to which we gonna save our findings about both images
 		TemporalLevel level = new TemporalLevel(time);
 
-		//helper frequency histogram of discovered labels
-		HashMap<Integer,Integer> gt_hist = new HashMap<>();
-		HashMap<Integer,Integer> res_hist = new HashMap<>();
-		//helper variables
-		int label = -1;        //marker value = label
-		Integer count = null;  //marker presence counter
-
-		//sweep the gt image
-		Cursor<UnsignedShortType> c = gt_img.localizingCursor();
-		RandomAccess<UnsignedShortType> c2 = res_img.randomAccess();
-		while (c.hasNext())
-		{
-			//update the GT histogram of found values/labels
-			label = c.next().getInteger();
-			count = gt_hist.get(label);
-			gt_hist.put(label, count == null ? 1 : count+1);
-
-			//update the RES histogram of found values/labels
-			c2.setPosition(c);
-			label = c2.get().getInteger();
-			count = res_hist.get(label);
-			res_hist.put(label, count == null ? 1 : count+1);
-		}
-
-		//we want to skip background bin, is there some?
-		int zeroBinPresence = gt_hist.get(0) == null? 0 : 1;
-
-		//copy the histogram to the level data class
-		level.m_gt_lab = new int[gt_hist.size()-zeroBinPresence];
-		level.m_gt_size = new int[gt_hist.size()-zeroBinPresence];
-		level.m_gt_match = new int[gt_hist.size()-zeroBinPresence];
-
-		int idx = 0; //label's index in the arrays
-		for (Integer lbl : gt_hist.keySet())
-		//NB: should be true: gt_hist.get(lbl) > 0
-		if (lbl > 0)
-		{
-			level.m_gt_lab[idx] = lbl;
-			level.m_gt_size[idx] = gt_hist.get(lbl);
-			level.m_gt_match[idx] = -1;
-			++idx;
-		}
+		//sweep both images (just once) and obtain histograms of discovered labels
+		//together with the sizes of their intersections
+		//(the threads are shared by all image pairs, they are not started for every pair)
+		OverlapHistograms hist = OverlapHistograms.sweepInParallel(gt_img, res_img, getSweepWorkers(noOfThreads));
 
-		//we want to skip background bin, is there some?
-		zeroBinPresence = res_hist.get(0) == null? 0 : 1;
+		//copy the histograms to the level data class,
+		//we want to skip background bin (listLabels() does it)
+		level.m_gt_lab  = OverlapHistograms.listLabels(hist.gt_size);
+		level.m_gt_size = OverlapHistograms.listSizes(hist.gt_size, level.m_gt_lab);
+		level.m_gt_match = new int[level.m_gt_lab.length];
+		Arrays.fill(level.m_gt_match, -1);
 
 		//now, the same for the res image
-		//copy the histogram to the level data class
-		level.m_res_lab = new int[res_hist.size()-zeroBinPresence];
-		level.m_res_size = new int[res_hist.size()-zeroBinPresence];
-		level.m_res_match = (HashSet<Integer>[])new HashSet<?>[res_hist.size()-zeroBinPresence];
-
-		idx = 0; //label's index in the arrays
-		for (Integer lbl : res_hist.keySet())
-		if (lbl > 0)
-		{
-			level.m_res_lab[idx] = lbl;
-			level.m_res_size[idx] = res_hist.get(lbl);
-			level.m_res_match[idx] = new HashSet<Integer>();
-			++idx;
-		}
+		level.m_res_lab  = OverlapHistograms.listLabels(hist.res_size);
+		level.m_res_size = OverlapHistograms.listSizes(hist.res_size, level.m_res_lab);
 
 		//check the images are not completely blank
 		if (_shouldComplainOnEmptyImages && level.m_res_lab.length == 0)
@@ -651,11 +1100,8 @@ public class TrackDataCache
 		if (_shouldComplainOnEmptyImages && level.m_gt_lab.length == 0)
 			throw new IllegalArgumentException("GT image has no markers!");
 
-		//we don't need this one anymore
-		gt_hist.clear();
-		gt_hist = null;
-		res_hist.clear();
-		res_hist = null;
+		//O(1) label->index lookups for the matching matrix below (and for everyone later)
+		level.buildLabelIndices();
 
 		/*
 		NB: the code so far represented the following passage in the C++ implementation:
@@ -674,30 +1120,14 @@ public class TrackDataCache
 		levels.push_back(level);
 		*/
 
-		//init the matching matrix
-		final int m_match_lineSize = level.m_gt_lab.length;
-		level.m_match = new int[m_match_lineSize * level.m_res_lab.length];
+		//create the matching matrix from the intersections histogram (that the sweep above has collected)
+		level.buildMatchingMatrix(hist.overlaps);
 
-		//helper values: the label itself
-		int gtLbl, resLbl;
-
-		//sweep both images simultaneously and calculate intersection sizes
-		c.reset();
-		while (c.hasNext())
-		{
-			c.next();
-			c2.setPosition(c);
-
-			gtLbl  = c.get().getInteger();
-			resLbl = c2.get().getInteger();
-
-			//intersection?
-			if (gtLbl > 0 && resLbl > 0)
-				++level.m_match[ level.gt_findLabel(gtLbl) + m_match_lineSize*level.res_findLabel(resLbl) ];
-		}
+		//we don't need this one anymore
+		hist = null;
 
 		//now that gt_, res_ and "gt_vs_res_" histograms are calculated,
-		//determine the label correspondence attributes (m_gt_match and m_res_match)
+		//determine the label correspondence attributes (m_gt_match and m_res_match_*)
 		//(FindMatch())
 
 		//for every gt label, find some res label that overlaps with it "significantly"
@@ -705,17 +1135,17 @@ public class TrackDataCache
 		//sweep over all gt labels
 		for (int i=0; i < level.m_gt_lab.length; ++i)
 		{
-			//sweep over all res labels
-			for (int j=0; j < level.m_res_lab.length; ++j)
+			//sweep over all res labels that intersect with it (in the order of their indices)
+			for (int k=level.m_match_rowStart[i]; k < level.m_match_rowStart[i+1]; ++k)
 			{
 				//check the overlap size
-				overlap = (double)level.m_match[i + m_match_lineSize*j];
+				overlap = (double)level.m_match_count[k];
 				overlap /= (double)level.m_gt_size[i];
 				if (overlap > overlapRatio)
 				{
 					//we have significant overlap between i-th gt label and j-th res label
+					final int j = level.m_match_resIdx[k];
 					level.m_gt_match[i] = j;
-					level.m_res_match[j].add(i);
 
 					//no need to scan further within res overlaps (due to >0.5 test)
 					break;
@@ -723,8 +1153,149 @@ public class TrackDataCache
 			}
 		}
 
-		//finally, "save" the level data
-		levels.add(level);
+		//the "RES side" view on the matching
+		level.buildResMatch();
+
+		return level;
+	}
+
+
+	/**
+	 * Creates the TemporalLevel of the given image pair like CreateLevel() does, except
+	 * that its matching matrix holds only the matching pairs (at most one RES label per
+	 * GT label), and that the full matrix of all intersections is never built: Since a
+	 * matching RES label must cover more than half of the GT label (for overlapRatio &ge; 0.5),
+	 * it is the majority label under the GT label. The first sweep over the images thus
+	 * only votes (Boyer-Moore) for one candidate per GT label, and the second sweep counts
+	 * the intersection of every GT label with its candidate. The working memory is a few
+	 * fixed-size tables, regardless of how many labels intersect. It suffices for measures
+	 * that need only the m_gt_match (and the RES side of it) and the sizes of the matching
+	 * pairs, e.g., for SEG.
+	 *
+	 * For overlapRatio &lt; 0.5, it falls back to the (single-threaded) CreateLevel().
+	 * This method does not change this cache and can be thus called from multiple
+	 * threads simultaneously.
+	 */
+	public TemporalLevel CreateLevelOfMatches(IterableInterval<UnsignedShortType> gt_img,
+	                                          RandomAccessibleInterval<UnsignedShortType> res_img,
+	                                          final boolean _shouldComplainOnEmptyImages,
+	                                          final int time,
+	                                          final double overlapRatio)
+	{
+		if (overlapRatio < 0.5)
+			return CreateLevel(gt_img,res_img, _shouldComplainOnEmptyImages, time, overlapRatio, 1);
+
+		//check the sizes of the images
+		if (gt_img.numDimensions() != res_img.numDimensions())
+			throw new IllegalArgumentException("Image pair does not consist"
+				+" of images of the same dimensionality.");
+
+		for (int n=0; n < gt_img.numDimensions(); ++n)
+			if (gt_img.dimension(n) != res_img.dimension(n))
+				throw new IllegalArgumentException("Image pair does not consist"
+					+" of images of the same size.");
+
+		final TemporalLevel level = new TemporalLevel(time);
+
+		//the first sweep: histograms of both images, and the majority vote under every GT label
+		final int[] gt_size = new int[65536];
+		final int[] res_size = new int[65536];
+		final int[] candidate = new int[65536];
+		final int[] votes = new int[65536];
+		sweepVoxels(gt_img, res_img, (gtLbl,resLbl) -> {
+			++gt_size[gtLbl];
+			++res_size[resLbl];
+			if (votes[gtLbl] == 0)
+			{
+				candidate[gtLbl] = resLbl;
+				votes[gtLbl] = 1;
+			}
+			else if (candidate[gtLbl] == resLbl) ++votes[gtLbl];
+			else --votes[gtLbl];
+		});
+
+		level.m_gt_lab  = OverlapHistograms.listLabels(gt_size);
+		level.m_gt_size = OverlapHistograms.listSizes(gt_size, level.m_gt_lab);
+		level.m_gt_match = new int[level.m_gt_lab.length];
+		Arrays.fill(level.m_gt_match, -1);
+
+		level.m_res_lab  = OverlapHistograms.listLabels(res_size);
+		level.m_res_size = OverlapHistograms.listSizes(res_size, level.m_res_lab);
+
+		//check the images are not completely blank
+		if (_shouldComplainOnEmptyImages && level.m_res_lab.length == 0)
+			throw new IllegalArgumentException("RES image has no markers!");
+		if (_shouldComplainOnEmptyImages && level.m_gt_lab.length == 0)
+			throw new IllegalArgumentException("GT image has no markers!");
+
+		level.buildLabelIndices();
+
+		//the second sweep: the intersections with the candidates (the votes table is re-used)
+		final int[] overlaps = votes;
+		Arrays.fill(overlaps, 0);
+		sweepVoxels(gt_img, res_img, (gtLbl,resLbl) -> {
+			if (gtLbl > 0 && resLbl > 0 && candidate[gtLbl] == resLbl) ++overlaps[gtLbl];
+		});
+
+		//the matching pairs, and the matrix of them only
+		level.m_match_rowStart = new int[level.m_gt_lab.length+1];
+		final int[] resIdx = new int[level.m_gt_lab.length];
+		final int[] counts = new int[level.m_gt_lab.length];
+		int noOfMatches = 0;
+		for (int i=0; i < level.m_gt_lab.length; ++i)
+		{
+			final int gtLbl = level.m_gt_lab[i];
+			if (overlaps[gtLbl] > 0
+			    && (double)overlaps[gtLbl] / (double)level.m_gt_size[i] > overlapRatio)
+			{
+				level.m_gt_match[i] = level.res_findLabel(candidate[gtLbl]);
+				resIdx[noOfMatches] = level.m_gt_match[i];
+				counts[noOfMatches] = overlaps[gtLbl];
+				++noOfMatches;
+			}
+			level.m_match_rowStart[i+1] = noOfMatches;
+		}
+		level.m_match_resIdx = Arrays.copyOf(resIdx, noOfMatches);
+		level.m_match_count = Arrays.copyOf(counts, noOfMatches);
+
+		//the "RES side" view on the matching
+		level.buildResMatch();
+
+		return level;
+	}
+
+	///receiver of the labels of the same voxel in both images, see sweepVoxels()
+	private interface VoxelsConsumer
+	{
+		void accept(final int gtLbl, final int resLbl);
+	}
+
+	///presents the labels of every voxel of the gt_img, together with the label of the same voxel
+	///in the res_img, to the 'consumer' (in the same way as OverlapHistograms.sweep() does)
+	@SuppressWarnings("unchecked")
+	private static void sweepVoxels(final IterableInterval<UnsignedShortType> gt_img,
+	                                final RandomAccessibleInterval<UnsignedShortType> res_img,
+	                                final VoxelsConsumer consumer)
+	{
+		if (res_img instanceof IterableInterval
+		    && gt_img.iterationOrder().equals( ((IterableInterval<?>)res_img).iterationOrder() ))
+		{
+			final Cursor<UnsignedShortType> c = gt_img.cursor();
+			final Cursor<UnsignedShortType> c2 = ((IterableInterval<UnsignedShortType>)res_img).cursor();
+			while (c.hasNext())
+				consumer.accept(c.next().getInteger(), c2.next().getInteger());
+		}
+		else
+		{
+			final Cursor<UnsignedShortType> c = gt_img.localizingCursor();
+			final RandomAccess<UnsignedShortType> c2 = res_img.randomAccess();
+			while (c.hasNext())
+			{
+				final int gtLbl = c.next().getInteger();
+				c2.setPosition(c);
+				consumer.accept(gtLbl, c2.get().getInteger());
+			}
+		}
 	}
 
 
@@ -806,34 +1377,81 @@ public class TrackDataCache
 	 */
 	public void calculate(final String gtPath, final String resPath)
 	throws IOException
+	{
+		calculate(gtPath,resPath,null);
+	}
+
+	/**
+	 * Computes the common upper stage of measures, see calculate(String,String),
+	 * while re-using the results of a previous calculation over (possibly older
+	 * version of) the same inputs: Only the time points whose GT or RES image
+	 * has changed since (its size or modification time) are processed, and only
+	 * the track file that has changed is loaded and its forks detected again.
+	 * The rest is taken over from the 'previousCache' (and thus shared with it),
+	 * or from a snapshot in the snapshotFolder if that one is fully up-to-date.
+	 *
+	 * @param previousCache Cache calculated for the same folders and with the same
+	 *                      parameters as this one has, otherwise (or if null) it is ignored.
+	 */
+	public void calculate(final String gtPath, final String resPath,
+	                      final TrackDataCache previousCache)
+	throws IOException
 	{
 		log.info(" GT path: "+gtPath+"/TRA");
 		log.info("RES path: "+resPath);
 		//DEBUG//log.info("Computing the common upper part...");
 
-		//fill the tracks data
-		LoadTrackFile( gtPath+"/TRA/man_track.txt", gt_tracks);
-		LoadTrackFile(resPath+"/res_track.txt", res_tracks);
+		final TrackDataCacheSnapshot.Fingerprint currentFingerprint
+			= TrackDataCacheSnapshot.fingerprintOf(gtPath,resPath,this);
 
-		//iterate through the GT folder and read files, one by one,
-		//find the appropriate file in the RES folder,
-		//and call ClassifyLabels() for every such pair
-		int time = 0;
-		while (doesTheFileExists(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",gtPath,time)))
-		{
-			//read the image pair
-			Img<UnsignedShortType> gt_img
-				= ReadImageG16(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",gtPath,time));
+		//is there a previous computation over the same inputs (or some of them)?
+		TrackDataCache previous = null;
+		if (previousCache != null && previousCache.fingerprint != null
+		    && previousCache.validFor(gtPath,resPath)
+		    && previousCache.fingerprint.hasSameParamsAs(currentFingerprint))
+			previous = previousCache;
 
-			Img<UnsignedShortType> res_img
-				= ReadImageG16(String.format("%s/mask%0"+noOfDigits+"d.tif",resPath,time));
+		//is there a snapshot of this very computation (or of its previous version) already?
+		Path snapshotFile = null;
+		boolean loadedFromSnapshot = false;
+		if (snapshotFolder != null)
+		{
+			snapshotFile = TrackDataCacheSnapshot.snapshotFileFor(snapshotFolder,gtPath,resPath);
+			if (previous == null || !previous.fingerprint.isSameAs(currentFingerprint))
+			{
+				try
+				{
+					final TrackDataCache snapshot = TrackDataCacheSnapshot.load(snapshotFile,currentFingerprint,this,log);
+					if (snapshot != null && (previous == null || snapshot.fingerprint.isSameAs(currentFingerprint)))
+					{
+						previous = snapshot;
+						loadedFromSnapshot = true;
+					}
+				}
+				catch (IOException e)
+				{
+					log.warn("Ignoring unreadable snapshot "+snapshotFile+": "+e.getMessage());
+				}
+			}
+		}
 
-			ClassifyLabels(gt_img, res_img);
-			++time;
+		final boolean isUpToDate = previous != null && previous.fingerprint.isSameAs(currentFingerprint);
+		if (previous != null)
+		{
+			int noOfReusableLevels = 0;
+			for (int time=0; time < currentFingerprint.frames.length; ++time)
+				if (isReusable(previous,currentFingerprint,time)) ++noOfReusableLevels;
+			log.info("Reusing "+noOfReusableLevels+" of "+currentFingerprint.frames.length+" time points from "
+				+(loadedFromSnapshot ? "the snapshot: "+snapshotFile : "the previous calculation"));
+		}
 
-			//to be on safe side (with memory)
-			gt_img = null;
-			res_img = null;
+		if (noOfThreads > 1)
+		{
+			calculateFramesInParallel(gtPath,resPath, previous,currentFingerprint);
+		}
+		else
+		{
+			calculateFramesOneByOne(gtPath,resPath, previous,currentFingerprint);
 		}
 
 		if (levels.size() == 0)
@@ -842,42 +1460,232 @@ public class TrackDataCache
 		if (gt_tracks.size() == 0)
 			throw new IllegalArgumentException("No reference (GT) track was found!");
 
-		//calculate all forks -- branching events
-		DetectForks(gt_tracks,  gt_forks);
-		DetectForks(res_tracks, res_forks);
+		fingerprint = currentFingerprint;
+
+		if (snapshotFile != null && !(loadedFromSnapshot && isUpToDate))
+		{
+			try
+			{
+				TrackDataCacheSnapshot.save(this,snapshotFile);
+			}
+			catch (IOException e)
+			{
+				//not fatal, the results are computed already
+				log.warn("Couldn't write the snapshot "+snapshotFile+": "+e.getMessage());
+			}
+		}
 
 		//now that we got here, note for what data
 		//this cache is valid, see validFor() above
-		this.gtPath  = gtPath;
-		this.resPath = resPath;
+		this.gtPath  = TrackDataCacheSnapshot.normalizedPath(gtPath);
+		this.resPath = TrackDataCacheSnapshot.normalizedPath(resPath);
 	}
 
+	///fingerprint of the inputs of the recent calculate(), null if not calculated
+	TrackDataCacheSnapshot.Fingerprint fingerprint = null;
 
-	///checks whether given two nodes matches 1:1 in the given time point
-	public boolean UniqueMatch(final int gt, final int res, final TemporalLevel level)
+	///can the level of the given time point be taken over from the 'previous' cache?
+	private static boolean isReusable(final TrackDataCache previous,
+	                                  final TrackDataCacheSnapshot.Fingerprint currentFingerprint,
+	                                  final int time)
 	{
-		//check both nodes exist at the given time
-		int gt_idx, res_idx;
-		try {
-			gt_idx  = level.gt_findLabel(gt);
-			res_idx = level.res_findLabel(res);
+		return previous != null && time < previous.levels.size()
+		    && previous.fingerprint.hasSameFrameAs(currentFingerprint,time);
+	}
+
+	///loads the tracks data and detects forks in it, or takes them over
+	///from the 'previous' cache if the respective track file has not changed since
+	private void loadTracksAndForks(final String gtPath, final String resPath,
+	                                final TrackDataCache previous,
+	                                final TrackDataCacheSnapshot.Fingerprint currentFingerprint)
+	throws IOException
+	{
+		if (previous != null && Arrays.equals(previous.fingerprint.gtTracks, currentFingerprint.gtTracks))
+		{
+			gt_tracks.putAll(previous.gt_tracks);
+			gt_forks.addAll(previous.gt_forks);
+		}
+		else
+		{
+			LoadTrackFile( gtPath+"/TRA/man_track.txt", gt_tracks);
+			DetectForks(gt_tracks, gt_forks);
 		}
-		catch (IllegalArgumentException e) {
-			//if we got here, means some of the nodes is not available at the time point
-			return false;
+
+		if (previous != null && Arrays.equals(previous.fingerprint.resTracks, currentFingerprint.resTracks))
+		{
+			res_tracks.putAll(previous.res_tracks);
+			res_forks.addAll(previous.res_forks);
+		}
+		else
+		{
+			LoadTrackFile(resPath+"/res_track.txt", res_tracks);
+			DetectForks(res_tracks, res_forks);
+		}
+	}
+
+	///appends the levels taken over from the 'previous' cache while the 'levels' are shorter than 'untilTime'
+	private void appendReusedLevels(final TrackDataCache previous,
+	                                final TrackDataCacheSnapshot.Fingerprint currentFingerprint,
+	                                final int untilTime)
+	{
+		while (levels.size() < untilTime && isReusable(previous,currentFingerprint,levels.size()))
+			levels.add( previous.levels.get(levels.size()) );
+	}
+
+	///the upper stage with the image pairs processed sequentially in the calling thread,
+	///the levels that can be taken over from the 'previous' cache (if not null) are not processed
+	private void calculateFramesOneByOne(final String gtPath, final String resPath,
+	                                     final TrackDataCache previous,
+	                                     final TrackDataCacheSnapshot.Fingerprint currentFingerprint)
+	throws IOException
+	{
+		loadTracksAndForks(gtPath,resPath, previous,currentFingerprint);
+
+		//iterate through the GT folder and read files, one by one,
+		//find the appropriate file in the RES folder,
+		//and call ClassifyLabels() for every such pair
+		//(while the next pairs are being read in the background)
+		final Iterator<FramesPrefetcher.Frame<Integer>> filePairs = new Iterator<FramesPrefetcher.Frame<Integer>>() {
+			int time = 0;
+			Boolean exists = null; //of the current 'time'
+
+			@Override
+			public boolean hasNext()
+			{
+				if (exists == null)
+				{
+					while (isReusable(previous,currentFingerprint,time)) ++time;
+					exists = doesTheFileExists(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",gtPath,time));
+				}
+				return exists;
+			}
+
+			@Override
+			public FramesPrefetcher.Frame<Integer> next()
+			{
+				exists = null;
+				final FramesPrefetcher.Frame<Integer> frame = new FramesPrefetcher.Frame<>(time,
+					String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",gtPath,time),
+					String.format("%s/mask%0"+noOfDigits+"d.tif",resPath,time) );
+				++time;
+				return frame;
+			}
+		};
+
+		try (FramesPrefetcher<Integer> frames
+		       = new FramesPrefetcher<>(filePairs, this::ReadImage, noOfPrefetchedFrames))
+		{
+			while (frames.hasNext())
+			{
+				FramesPrefetcher.Frame<Integer> frame = frames.next();
+
+				//the image pair
+				Img<UnsignedShortType> gt_img = CheckImageG16(frame.images[0], frame.fileNames[0]);
+				Img<UnsignedShortType> res_img = CheckImageG16(frame.images[1], frame.fileNames[1]);
+
+				appendReusedLevels(previous,currentFingerprint, frame.key);
+				ClassifyLabels(gt_img, res_img, frame.key);
+
+				//to be on safe side (with memory)
+				frame = null;
+				gt_img = null;
+				res_img = null;
+			}
 		}
+		appendReusedLevels(previous,currentFingerprint, Integer.MAX_VALUE);
+	}
 
-		//both nodes are available, check they have 1:1 matching
-		//see what matches the RES node has
-		HashSet<Integer> match = level.m_res_match[res_idx];
+	/**
+	 * The upper stage with the image pairs loaded and classified concurrently
+	 * by 'noOfThreads' workers, while the tracks data are loaded (and forks
+	 * detected) also in parallel to that. At most 'maxFramesInFlight' image pairs
+	 * are loaded and waiting for (or undergoing) their classification at any
+	 * moment. The created levels are stored in the order of their time points.
+	 * The levels that can be taken over from the 'previous' cache (if not null)
+	 * are not processed.
+	 */
+	private void calculateFramesInParallel(final String gtPath, final String resPath,
+	                                       final TrackDataCache previous,
+	                                       final TrackDataCacheSnapshot.Fingerprint currentFingerprint)
+	throws IOException
+	{
+		final ExecutorService workers = Executors.newFixedThreadPool(noOfThreads);
+		final Semaphore framesInFlight = new Semaphore( Math.max(maxFramesInFlight,1) );
+		final AtomicBoolean someFrameFailed = new AtomicBoolean(false);
+		final Vector<Future<TemporalLevel>> frames = new Vector<>(1000,100);
+
+		try {
+			final Future<?> tracks = workers.submit( () -> {
+				loadTracksAndForks(gtPath,resPath, previous,currentFingerprint);
+				return null;
+			} );
+
+			//iterate through the GT folder and schedule loading and classification
+			//of every GT and RES pair of files, one by one
+			int time = 0;
+			while (!someFrameFailed.get()
+			  && doesTheFileExists(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",gtPath,time)))
+			{
+				final int frameTime = time++;
+				if (isReusable(previous,currentFingerprint,frameTime))
+				{
+					frames.add( CompletableFuture.completedFuture(previous.levels.get(frameTime)) );
+					continue;
+				}
+
+				framesInFlight.acquire();
+				frames.add( workers.submit( () -> {
+					try {
+						Img<UnsignedShortType> gt_img
+							= ReadImageG16(String.format("%s/TRA/man_track%0"+noOfDigits+"d.tif",gtPath,frameTime));
+
+						Img<UnsignedShortType> res_img
+							= ReadImageG16(String.format("%s/mask%0"+noOfDigits+"d.tif",resPath,frameTime));
+
+						//NB: the frames are processed in parallel, one image pair is processed single-threaded
+						return CreateLevel(gt_img,res_img, shouldComplainOnEmptyImages, frameTime, overlapRatio, 1);
+					}
+					catch (IOException | RuntimeException e) {
+						someFrameFailed.set(true);
+						throw e;
+					}
+					finally {
+						framesInFlight.release();
+					}
+				} ) );
+			}
 
-		//check the RES node has exactly 1 match with some GT
-		if (match.size() != 1) return false;
+			//collect the levels in the order of their time points
+			for (Future<TemporalLevel> frame : frames)
+				levels.add( frame.get() );
 
-		//check that the one match is the requested GT node
-		if (match.iterator().next() != gt_idx) return false;
+			tracks.get();
+		}
+		catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new RuntimeException(cause);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while processing the image pairs.", e);
+		}
+		finally {
+			workers.shutdownNow();
+		}
+	}
+
+
+	///checks whether given two nodes matches 1:1 in the given time point
+	public boolean UniqueMatch(final int gt, final int res, final TemporalLevel level)
+	{
+		//check both nodes exist at the given time, and have 1:1 matching
+		final int gt_idx = level.gt_lookupLabel(gt);
+		if (gt_idx == -1) return false;
 
-		//all test passed, must be unique match then :)
-		return true;
+		final int res_idx = level.res_lookupLabel(res);
+		return ( res_idx != -1 && level.gt_uniqueMatch(gt_idx) == res_idx );
 	}
 }
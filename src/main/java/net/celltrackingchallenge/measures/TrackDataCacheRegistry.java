@@ -0,0 +1,355 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import org.scijava.log.Logger;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Process-wide registry of the calculated {@link TrackDataCache}s, so that
+ * any measure that needs the upper stage for the same GT and RES folders (and
+ * with the same parameters) gets the already calculated cache, no matter if
+ * the caller has passed the cache around or not.
+ *
+ * The caches are keyed by the normalized paths and by the parameters that
+ * influence the upper stage (noOfDigits, overlapRatio, shouldComplainOnEmptyImages).
+ * A registered cache is handed out only if its inputs have not changed since,
+ * which is judged only from the sizes and modification times of the track files
+ * and of the image files (see TrackDataCacheSnapshot.fingerprintOf()), no file is
+ * read for it. An outdated cache is replaced with a new one that is calculated from
+ * it incrementally, that is, only the changed time points and track files are
+ * processed again (see TrackDataCache.calculate()). The least recently used caches
+ * are forgotten whenever their estimated size exceeds the memory cap.
+ *
+ * Every caller gets its own copy of the registered cache, that is, its own maps
+ * and vectors, but the tracks, forks and levels in them are shared and must be
+ * treated as read-only. The registry is thread-safe, and concurrent requests for
+ * the same (not yet registered) cache wait for one common calculation.
+ *
+ * The registry is disabled by default: it then keeps nothing, find() finds nothing
+ * and getOrCalculate() calculates a brand new cache on every call, so the measures
+ * always calculate their upper stage completely afresh. Enable it with setEnabled(true)
+ * only when the input files are not replaced with files of the same size and
+ * modification time (as e.g. 'cp -p' or unzipping can do) while the registry is in use.
+ * (The snapshots, if a snapshotFolder is set, are not affected by this.)
+ */
+public class TrackDataCacheRegistry
+{
+	private static final TrackDataCacheRegistry INSTANCE = new TrackDataCacheRegistry();
+
+	///use getInstance(), own instances serve only the tests
+	TrackDataCacheRegistry()
+	{}
+
+	/** Returns the process-wide registry. */
+	public static TrackDataCacheRegistry getInstance()
+	{
+		return INSTANCE;
+	}
+
+	///when disabled, the registry keeps nothing and always calculates afresh
+	private boolean enabled = false;
+
+	///a quarter of the heap by default (occupied only while enabled)
+	private long memoryCap = Runtime.getRuntime().maxMemory() / 4;
+
+	///registered caches, in the order from the least recently used
+	private final LinkedHashMap<Key,Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	///sum of the estimated sizes of the registered caches
+	private long usedMemory = 0;
+
+	///calculations in progress
+	private final HashMap<Key,FutureTask<Entry>> inProgress = new HashMap<>();
+
+	/** Enables or disables the registry, it is disabled by default. A disabled registry forgets
+	    all registered caches, finds nothing and calculates a brand new cache whenever asked. */
+	public synchronized void setEnabled(final boolean enabled)
+	{
+		this.enabled = enabled;
+		if (!enabled) clear();
+	}
+
+	public synchronized boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/** Sets the (estimated) number of bytes the registered caches may occupy,
+	    use 0 to keep no cache registered at all. */
+	public synchronized void setMemoryCap(final long bytes)
+	{
+		if (bytes < 0)
+			throw new IllegalArgumentException("The memory cap must not be negative.");
+		memoryCap = bytes;
+		evictOverTheCap();
+	}
+
+	public synchronized long getMemoryCap()
+	{
+		return memoryCap;
+	}
+
+	/** Returns the (estimated) number of bytes occupied by the registered caches. */
+	public synchronized long getUsedMemory()
+	{
+		return usedMemory;
+	}
+
+	/** Returns the number of registered caches. */
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/** Forgets all registered caches. */
+	public synchronized void clear()
+	{
+		entries.clear();
+		usedMemory = 0;
+	}
+
+	/**
+	 * Returns (a copy of) the registered cache for the given folders that was calculated with
+	 * the same parameters as the 'template' has, or null if there's no such (up-to-date) cache.
+	 */
+	public TrackDataCache find(final String gtPath, final String resPath,
+	                           final TrackDataCache template)
+	throws IOException
+	{
+		final Key key = new Key(gtPath,resPath,template);
+		final TrackDataCacheSnapshot.Fingerprint fingerprint = TrackDataCacheSnapshot.fingerprintOf(gtPath,resPath,template);
+
+		synchronized (this)
+		{
+			if (!enabled) return null;
+			final Entry e = findValid(key,fingerprint);
+			return e != null ? e.cache.shallowCopy() : null;
+		}
+	}
+
+	/**
+	 * Returns (a copy of) the registered cache for the given folders that was calculated with
+	 * the same parameters as the 'template' has. If there's no such (up-to-date) cache, a new
+	 * one is created (with {@link TrackDataCache#setupSimilarAs(TrackDataCache)} the
+	 * 'template'), {@link TrackDataCache#calculate(String, String, TrackDataCache)}'ed
+	 * while re-using the outdated registered cache (if there is one), and registered.
+	 * If the registry is disabled, the new cache is calculated from scratch and not registered.
+	 *
+	 * @param log When new cache is created, connect it with this Logger.
+	 */
+	public TrackDataCache getOrCalculate(final String gtPath, final String resPath,
+	                                     final TrackDataCache template, final Logger log)
+	throws IOException
+	{
+		if (!isEnabled())
+		{
+			final TrackDataCache cache = newCache(template,log);
+			cache.calculate(gtPath,resPath);
+			return cache;
+		}
+
+		final Key key = new Key(gtPath,resPath,template);
+		final TrackDataCacheSnapshot.Fingerprint fingerprint = TrackDataCacheSnapshot.fingerprintOf(gtPath,resPath,template);
+
+		FutureTask<Entry> task;
+		boolean isOurTask = false;
+		synchronized (this)
+		{
+			final Entry e = findValid(key,fingerprint);
+			if (e != null) return e.cache.shallowCopy();
+			final Entry outdated = entries.get(key);
+
+			task = inProgress.get(key);
+			if (task == null)
+			{
+				task = new FutureTask<>( () -> {
+					final TrackDataCache cache = newCache(template,log);
+					cache.calculate(gtPath,resPath, outdated != null ? outdated.cache : null);
+					return new Entry(cache,fingerprint);
+				} );
+				inProgress.put(key,task);
+				isOurTask = true;
+			}
+		}
+
+		//calculate outside the lock (or wait for the one who calculates)
+		if (isOurTask) task.run();
+
+		final Entry e;
+		try
+		{
+			e = task.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the cache of "+gtPath+" and "+resPath, ex);
+		}
+		catch (ExecutionException ex)
+		{
+			final Throwable cause = ex.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new IOException(cause);
+		}
+		finally
+		{
+			if (isOurTask)
+			{
+				synchronized (this)
+				{
+					inProgress.remove(key);
+				}
+			}
+		}
+
+		if (isOurTask)
+		{
+			synchronized (this)
+			{
+				//the registry might have been disabled meanwhile
+				if (!enabled) return e.cache;
+				final Entry old = entries.put(key,e);
+				if (old != null) usedMemory -= old.size;
+				usedMemory += e.size;
+				evictOverTheCap();
+			}
+		}
+		return e.cache.shallowCopy();
+	}
+
+	///creates a not-yet-calculated cache set up similar as the 'template'
+	TrackDataCache newCache(final TrackDataCache template, final Logger log)
+	{
+		final TrackDataCache cache = new TrackDataCache(log);
+		cache.setupSimilarAs(template);
+		return cache;
+	}
+
+	///returns the entry if it exists and is up-to-date; an outdated one is kept
+	///as the base of its incremental re-calculation, until replaced or evicted
+	private Entry findValid(final Key key, final TrackDataCacheSnapshot.Fingerprint fingerprint)
+	{
+		final Entry e = entries.get(key);
+		return e != null && e.fingerprint.isSameAs(fingerprint) ? e : null;
+	}
+
+	private void evictOverTheCap()
+	{
+		final Iterator<Entry> it = entries.values().iterator();
+		while (usedMemory > memoryCap && it.hasNext())
+		{
+			usedMemory -= it.next().size;
+			it.remove();
+		}
+	}
+
+	// ----------------------------------------------------------------------
+	///value-based identification of a cache
+	private static class Key
+	{
+		Key(final String gtPath, final String resPath, final TrackDataCache params)
+		{
+			this.gtPath = TrackDataCacheSnapshot.normalizedPath(gtPath);
+			this.resPath = TrackDataCacheSnapshot.normalizedPath(resPath);
+			this.noOfDigits = params.noOfDigits;
+			this.overlapRatio = params.overlapRatio;
+			this.shouldComplainOnEmptyImages = params.shouldComplainOnEmptyImages;
+		}
+
+		final String gtPath, resPath;
+		final int noOfDigits;
+		final double overlapRatio;
+		final boolean shouldComplainOnEmptyImages;
+
+		@Override
+		public boolean equals(final Object o)
+		{
+			if (this == o) return true;
+			if (!(o instanceof Key)) return false;
+			final Key k = (Key)o;
+			return gtPath.equals(k.gtPath) && resPath.equals(k.resPath)
+			    && noOfDigits == k.noOfDigits
+			    && Double.compare(overlapRatio,k.overlapRatio) == 0
+			    && shouldComplainOnEmptyImages == k.shouldComplainOnEmptyImages;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(gtPath,resPath,noOfDigits,overlapRatio,shouldComplainOnEmptyImages);
+		}
+	}
+
+	///a registered cache
+	private static class Entry
+	{
+		Entry(final TrackDataCache cache, final TrackDataCacheSnapshot.Fingerprint fingerprint)
+		{
+			this.cache = cache;
+			this.fingerprint = fingerprint;
+			this.size = estimateSize(cache);
+		}
+
+		final TrackDataCache cache;
+		final TrackDataCacheSnapshot.Fingerprint fingerprint;
+		final long size;
+	}
+
+	/** Returns a rough estimate of the number of bytes occupied by the 'cache'. */
+	static long estimateSize(final TrackDataCache cache)
+	{
+		//a track is an object in a HashMap, with its (boxed) key
+		long size = 96L * (cache.gt_tracks.size() + cache.res_tracks.size());
+
+		for (TrackDataCache.Fork f : cache.gt_forks) size += 32 + 4*f.m_child_ids.length;
+		for (TrackDataCache.Fork f : cache.res_forks) size += 32 + 4*f.m_child_ids.length;
+
+		for (TrackDataCache.TemporalLevel level : cache.levels)
+		{
+			long ints = level.m_gt_lab.length + level.m_gt_size.length + level.m_gt_match.length
+			          + level.m_res_lab.length + level.m_res_size.length
+			          + level.m_gt_idx.length + level.m_res_idx.length
+			          + level.m_match_rowStart.length + level.m_match_resIdx.length + level.m_match_count.length
+			          + level.m_res_match_start.length + level.m_res_match_gtIdx.length
+			          + level.m_gt_unique.length + level.m_res_unique.length;
+			size += 4*ints + 16*14 + 64;
+		}
+		return size;
+	}
+}
@@ -0,0 +1,559 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.celltrackingchallenge.measures.TrackDataCache.Track;
+import net.celltrackingchallenge.measures.TrackDataCache.Fork;
+import net.celltrackingchallenge.measures.TrackDataCache.TemporalLevel;
+
+import org.scijava.log.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Binary snapshot of the fully computed upper stage of a {@link TrackDataCache},
+ * that is, of its tracks, forks and temporal levels (labels, their sizes, the matching
+ * matrix and the vertex matching). The derived data (the label lookup tables and
+ * the RES-to-GT matching) are not stored, they are rebuilt when a snapshot is loaded.
+ *
+ * A snapshot is tied to its inputs via a fingerprint that covers the sizes and
+ * modification times of the track files and of all image files that calculate()
+ * would read, and the parameters that influence the upper stage (noOfDigits,
+ * overlapRatio and shouldComplainOnEmptyImages). The fingerprint is kept also
+ * per track file and per time point, so that a snapshot of slightly different
+ * inputs can still provide the levels (and tracks) that have not changed since,
+ * see TrackDataCache.calculate(). A snapshot made with other parameters is never used.
+ */
+class TrackDataCacheSnapshot
+{
+	///the first bytes of every snapshot file, "CTCs"
+	private static final int MAGIC = 0x43544373;
+	///version of the file layout, increase whenever the layout changes
+	private static final int VERSION = 2;
+
+	/**
+	 * Fingerprint of the inputs of the upper stage, composed of the digests
+	 * of the parameters, of either track file and of every time point (its pair
+	 * of image files), and of the digest of all of them together.
+	 */
+	static class Fingerprint
+	{
+		Fingerprint(final byte[] params, final byte[] gtTracks, final byte[] resTracks,
+		            final byte[][] frames)
+		{
+			this.params = params;
+			this.gtTracks = gtTracks;
+			this.resTracks = resTracks;
+			this.frames = frames;
+
+			final MessageDigest digest = createDigest();
+			digest.update(params);
+			digest.update(gtTracks);
+			digest.update(resTracks);
+			for (byte[] frame : frames) digest.update(frame);
+			this.whole = digest.digest();
+		}
+
+		final byte[] params, gtTracks, resTracks;
+		///digests of the time points 0,1,2,...
+		final byte[][] frames;
+		///digest of all the above
+		final byte[] whole;
+
+		///the same inputs and parameters?
+		boolean isSameAs(final Fingerprint f)
+		{
+			return Arrays.equals(whole, f.whole);
+		}
+
+		///the same parameters?
+		boolean hasSameParamsAs(final Fingerprint f)
+		{
+			return Arrays.equals(params, f.params);
+		}
+
+		///the same image files at the given time point?
+		boolean hasSameFrameAs(final Fingerprint f, final int time)
+		{
+			return time < frames.length && time < f.frames.length
+			    && Arrays.equals(frames[time], f.frames[time]);
+		}
+	}
+
+	/**
+	 * Computes the fingerprint of the inputs that TrackDataCache.calculate()
+	 * would process for the given folders and with the given cache parameters.
+	 * Only the file system metadata are consulted, no file is read.
+	 */
+	static Fingerprint fingerprintOf(final String gtPath, final String resPath,
+	                                 final TrackDataCache params)
+	throws IOException
+	{
+		final MessageDigest digest = createDigest();
+		final StringBuilder sb = new StringBuilder();
+
+		sb.append("noOfDigits=").append(params.noOfDigits)
+		  .append(";overlapRatio=").append(Double.doubleToLongBits(params.overlapRatio))
+		  .append(";complain=").append(params.shouldComplainOnEmptyImages).append('\n');
+		final byte[] paramsDigest = digestOf(digest, sb);
+
+		addFile(sb, Paths.get(gtPath+"/TRA/man_track.txt"));
+		final byte[] gtTracksDigest = digestOf(digest, sb);
+		addFile(sb, Paths.get(resPath+"/res_track.txt"));
+		final byte[] resTracksDigest = digestOf(digest, sb);
+
+		//the same image pairs as calculate() iterates over
+		final Vector<byte[]> frames = new Vector<>(1000,100);
+		for (int time = 0; true; ++time)
+		{
+			final Path gtFile = Paths.get(String.format("%s/TRA/man_track%0"+params.noOfDigits+"d.tif",gtPath,time));
+			if (!Files.isReadable(gtFile)) break;
+
+			addFile(sb, gtFile);
+			addFile(sb, Paths.get(String.format("%s/mask%0"+params.noOfDigits+"d.tif",resPath,time)));
+			frames.add( digestOf(digest, sb) );
+		}
+
+		return new Fingerprint(paramsDigest, gtTracksDigest, resTracksDigest,
+		                       frames.toArray(new byte[frames.size()][]));
+	}
+
+	///returns the digest of the content of the 'sb', and empties the 'sb'
+	private static byte[] digestOf(final MessageDigest digest, final StringBuilder sb)
+	{
+		final byte[] d = digest.digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+		sb.setLength(0);
+		return d;
+	}
+
+	///adds the name, size and modification time (or a "missing" note) of the file
+	private static void addFile(final StringBuilder sb, final Path file)
+	throws IOException
+	{
+		sb.append(file.getFileName()).append(':');
+		if (Files.isReadable(file))
+			sb.append(Files.size(file)).append(':')
+			  .append(Files.getLastModifiedTime(file).toMillis());
+		else
+			sb.append("missing");
+		sb.append('\n');
+	}
+
+	/**
+	 * Returns the snapshot file (inside the 'snapshotFolder') for the given
+	 * combination of GT and RES folders. The same folders always map on the same
+	 * file, so a snapshot of outdated inputs gets overwritten by the current one.
+	 */
+	static Path snapshotFileFor(final String snapshotFolder,
+	                            final String gtPath, final String resPath)
+	{
+		final MessageDigest digest = createDigest();
+		digest.update(normalizedPath(gtPath).getBytes(StandardCharsets.UTF_8));
+		digest.update((byte)0);
+		digest.update(normalizedPath(resPath).getBytes(StandardCharsets.UTF_8));
+		return Paths.get(snapshotFolder, toHex(digest.digest())+".tdcache");
+	}
+
+	///returns absolute, normalized variant of the 'path'
+	static String normalizedPath(final String path)
+	{
+		return Paths.get(path).toAbsolutePath().normalize().toString();
+	}
+
+	// ----------------------------------------------------------------------
+	/**
+	 * Stores the tracks, forks and levels of the 'cache' together with
+	 * its fingerprint into the 'file'. The file is first written aside and
+	 * only then moved in place, so that readers never see a partial snapshot.
+	 */
+	static void save(final TrackDataCache cache, final Path file)
+	throws IOException
+	{
+		if (file.getParent() != null) Files.createDirectories(file.getParent());
+		final Path tmpFile = Files.createTempFile(file.getParent(), "tdcache", ".part");
+
+		try
+		{
+			try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(tmpFile), 1 << 16)))
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				writeFingerprint(out, cache.fingerprint);
+
+				writeTracks(out, cache.gt_tracks);
+				writeTracks(out, cache.res_tracks);
+				writeForks(out, cache.gt_forks);
+				writeForks(out, cache.res_forks);
+
+				out.writeInt(cache.levels.size());
+				for (TemporalLevel level : cache.levels)
+				{
+					out.writeInt(level.m_level);
+					writeArray(out, level.m_gt_lab);
+					writeArray(out, level.m_gt_size);
+					writeArray(out, level.m_res_lab);
+					writeArray(out, level.m_res_size);
+					writeArray(out, level.m_match_rowStart);
+					writeArray(out, level.m_match_resIdx);
+					writeArray(out, level.m_match_count);
+					writeArray(out, level.m_gt_match);
+				}
+			}
+
+			Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			Files.deleteIfExists(tmpFile);
+		}
+	}
+
+	/**
+	 * Returns a new cache, set up similar as the 'template', with the content of
+	 * the snapshot 'file' (and its fingerprint), provided the snapshot was created
+	 * with the same parameters as the 'fingerprint' tells. The snapshot can be,
+	 * however, of different version of the inputs, compare the fingerprints.
+	 * Returns null if there's no such file or if it is of other parameters.
+	 */
+	static TrackDataCache load(final Path file, final Fingerprint fingerprint,
+	                           final TrackDataCache template, final Logger log)
+	throws IOException
+	{
+		if (!Files.isReadable(file)) return null;
+
+		try (SnapshotInput in = SnapshotInput.open(file))
+		{
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+			final Fingerprint snapshotFingerprint = readFingerprint(in);
+			if (!fingerprint.hasSameParamsAs(snapshotFingerprint)) return null;
+
+			final TrackDataCache cache = new TrackDataCache(log);
+			cache.setupSimilarAs(template);
+			cache.fingerprint = snapshotFingerprint;
+
+			final Vector<Track> gtTracks = readTracks(in);
+			final Vector<Track> resTracks = readTracks(in);
+			final Vector<Fork> gtForks = readForks(in, cache);
+			final Vector<Fork> resForks = readForks(in, cache);
+
+			final int noOfLevels = readLength(in, 4);
+			final Vector<TemporalLevel> levels = new Vector<>(noOfLevels);
+			for (int l=0; l < noOfLevels; ++l)
+			{
+				final TemporalLevel level = cache.new TemporalLevel(in.readInt());
+				level.m_gt_lab  = readIntArray(in);
+				level.m_gt_size = readIntArray(in);
+				level.m_res_lab  = readIntArray(in);
+				level.m_res_size = readIntArray(in);
+				level.m_match_rowStart = readIntArray(in);
+				level.m_match_resIdx = readIntArray(in);
+				level.m_match_count = readIntArray(in);
+				level.m_gt_match = readIntArray(in);
+
+				checkLevel(level);
+
+				//rebuild the derived data
+				level.buildLabelIndices();
+				level.buildResMatch();
+				levels.add(level);
+			}
+
+			for (Track t : gtTracks) cache.gt_tracks.put(t.m_id, t);
+			for (Track t : resTracks) cache.res_tracks.put(t.m_id, t);
+			checkForks(gtForks, cache.gt_tracks);
+			checkForks(resForks, cache.res_tracks);
+			cache.gt_forks.addAll(gtForks);
+			cache.res_forks.addAll(resForks);
+			cache.levels.addAll(levels);
+			return cache;
+		}
+		catch (RuntimeException e)
+		{
+			//whatever else is wrong with the content, the snapshot is just unusable
+			throw new IOException("Corrupted snapshot file: "+e, e);
+		}
+	}
+
+	///checks that the indices of the 'level' (as read from a snapshot) are all within their ranges
+	private static void checkLevel(final TemporalLevel level)
+	throws IOException
+	{
+		final int noOfGT = level.m_gt_lab.length;
+		final int noOfRES = level.m_res_lab.length;
+		boolean ok = level.m_gt_size.length == noOfGT && level.m_gt_match.length == noOfGT
+		          && level.m_res_size.length == noOfRES
+		          && areIncreasingLabels(level.m_gt_lab) && areIncreasingLabels(level.m_res_lab)
+		          && level.m_match_rowStart.length == noOfGT+1 && level.m_match_rowStart[0] == 0
+		          && level.m_match_rowStart[noOfGT] == level.m_match_resIdx.length
+		          && level.m_match_count.length == level.m_match_resIdx.length;
+
+		for (int i=0; ok && i < noOfGT; ++i)
+			ok = level.m_match_rowStart[i] <= level.m_match_rowStart[i+1]
+			  && level.m_gt_match[i] >= -1 && level.m_gt_match[i] < noOfRES;
+		for (int k=0; ok && k < level.m_match_resIdx.length; ++k)
+			ok = level.m_match_resIdx[k] >= 0 && level.m_match_resIdx[k] < noOfRES;
+
+		if (!ok) throw new IOException("Corrupted snapshot file (inconsistent time point "+level.m_level+").");
+	}
+
+	private static boolean areIncreasingLabels(final int[] labels)
+	{
+		for (int i=0; i < labels.length; ++i)
+			if (labels[i] < 1 || labels[i] > 0xFFFF || (i > 0 && labels[i] <= labels[i-1])) return false;
+		return true;
+	}
+
+	///checks that the forks (as read from a snapshot) refer to existing tracks
+	private static void checkForks(final Vector<Fork> forks, final Map<Integer,Track> tracks)
+	throws IOException
+	{
+		for (Fork f : forks)
+		{
+			boolean ok = tracks.containsKey(f.m_parent_id);
+			for (int child : f.m_child_ids) ok &= tracks.containsKey(child);
+			if (!ok) throw new IOException("Corrupted snapshot file (fork of unknown track "+f.m_parent_id+").");
+		}
+	}
+
+	// ----------------------------------------------------------------------
+	private static void writeFingerprint(final DataOutputStream out, final Fingerprint f)
+	throws IOException
+	{
+		writeArray(out, f.params);
+		writeArray(out, f.gtTracks);
+		writeArray(out, f.resTracks);
+		out.writeInt(f.frames.length);
+		for (byte[] frame : f.frames) writeArray(out, frame);
+	}
+
+	private static Fingerprint readFingerprint(final SnapshotInput in)
+	throws IOException
+	{
+		final byte[] params = readByteArray(in);
+		final byte[] gtTracks = readByteArray(in);
+		final byte[] resTracks = readByteArray(in);
+		final byte[][] frames = new byte[readLength(in, 4)][];
+		for (int i=0; i < frames.length; ++i) frames[i] = readByteArray(in);
+		return new Fingerprint(params, gtTracks, resTracks, frames);
+	}
+
+	// ----------------------------------------------------------------------
+	private static void writeTracks(final DataOutputStream out, final Map<Integer,Track> tracks)
+	throws IOException
+	{
+		out.writeInt(tracks.size());
+		for (Track t : tracks.values())
+		{
+			out.writeInt(t.m_id);
+			out.writeInt(t.m_begin);
+			out.writeInt(t.m_end);
+			out.writeInt(t.m_parent);
+		}
+	}
+
+	private static Vector<Track> readTracks(final SnapshotInput in)
+	throws IOException
+	{
+		final int size = readLength(in, 16);
+		final Vector<Track> tracks = new Vector<>(size);
+		for (int i=0; i < size; ++i)
+		{
+			final int id = in.readInt();
+			final int begin = in.readInt();
+			final int end = in.readInt();
+			tracks.add(new Track(id, begin, end, in.readInt()));
+		}
+		return tracks;
+	}
+
+	private static void writeForks(final DataOutputStream out, final Vector<Fork> forks)
+	throws IOException
+	{
+		out.writeInt(forks.size());
+		for (Fork f : forks)
+		{
+			out.writeInt(f.m_parent_id);
+			writeArray(out, f.m_child_ids);
+		}
+	}
+
+	private static Vector<Fork> readForks(final SnapshotInput in, final TrackDataCache cache)
+	throws IOException
+	{
+		final int size = readLength(in, 8);
+		final Vector<Fork> forks = new Vector<>(size);
+		for (int i=0; i < size; ++i)
+		{
+			final int parent = in.readInt();
+			forks.add(cache.new Fork(parent, readIntArray(in)));
+		}
+		return forks;
+	}
+
+	private static void writeArray(final DataOutputStream out, final int[] array)
+	throws IOException
+	{
+		out.writeInt(array.length);
+		for (int v : array) out.writeInt(v);
+	}
+
+	private static void writeArray(final DataOutputStream out, final byte[] array)
+	throws IOException
+	{
+		out.writeInt(array.length);
+		out.write(array);
+	}
+
+	private static int[] readIntArray(final SnapshotInput in)
+	throws IOException
+	{
+		final int[] array = new int[readLength(in, 4)];
+		for (int i=0; i < array.length; ++i) array[i] = in.readInt();
+		return array;
+	}
+
+	private static byte[] readByteArray(final SnapshotInput in)
+	throws IOException
+	{
+		final byte[] array = new byte[readLength(in, 1)];
+		in.readFully(array);
+		return array;
+	}
+
+	///reads the length of the upcoming container and checks it's sane, that is,
+	///that its elements (each of at least 'elementBytes') fit into the rest of the file
+	private static int readLength(final SnapshotInput in, final int elementBytes)
+	throws IOException
+	{
+		final int length = in.readInt();
+		if (length < 0) throw new IOException("Corrupted snapshot file (negative length).");
+		if ((long)length * elementBytes > in.remaining())
+			throw new IOException("Corrupted snapshot file (length "+length+" beyond the end of file).");
+		return length;
+	}
+
+	///input stream of a snapshot file that knows how many bytes of the file are left
+	private static class SnapshotInput extends DataInputStream
+	{
+		static SnapshotInput open(final Path file)
+		throws IOException
+		{
+			return new SnapshotInput(new CountingInput(
+				new BufferedInputStream(Files.newInputStream(file), 1 << 16), Files.size(file)));
+		}
+
+		private SnapshotInput(final CountingInput in)
+		{
+			super(in);
+			counter = in;
+		}
+
+		private final CountingInput counter;
+
+		long remaining()
+		{
+			return counter.remaining;
+		}
+	}
+
+	private static class CountingInput extends FilterInputStream
+	{
+		CountingInput(final InputStream in, final long size)
+		{
+			super(in);
+			remaining = size;
+		}
+
+		long remaining;
+
+		@Override
+		public int read()
+		throws IOException
+		{
+			final int b = super.read();
+			if (b != -1) --remaining;
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len)
+		throws IOException
+		{
+			final int n = super.read(b, off, len);
+			if (n > 0) remaining -= n;
+			return n;
+		}
+
+		@Override
+		public long skip(final long n)
+		throws IOException
+		{
+			final long skipped = super.skip(n);
+			remaining -= skipped;
+			return skipped;
+		}
+	}
+
+	private static MessageDigest createDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			//every Java platform is required to provide SHA-256
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toHex(final byte[] bytes)
+	{
+		final StringBuilder sb = new StringBuilder(2*bytes.length);
+		for (byte b : bytes) sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+}
@@ -0,0 +1,195 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.celltrackingchallenge.measures.TrackDataCache.Track;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Reader and writer of the track files (e.g., man_track.txt or res_track.txt),
+ * that is, of text files with one track per line given as four integers:
+ * ID begin_time end_time parent_ID
+ * (the reader does not insist on the one-track-per-line layout, see read()).
+ *
+ * Both work directly on bytes, no regular expressions and no per-number
+ * objects are involved, which matters for files with many tracks.
+ */
+class TrackFileIO
+{
+	/**
+	 * Reads all tracks from the file 'fname' into the 'track_list'. The file is read as
+	 * a sequence of whitespace separated integers (with an optional sign), every four
+	 * consecutive of them make one track. So, like with the original Scanner-based reader,
+	 * the line layout does not matter (a track can span several lines, several tracks can
+	 * share a line, blank lines are fine) and any ASCII whitespace (in the sense of the
+	 * Character.isWhitespace()) separates the numbers; non-ASCII whitespace is, however,
+	 * not recognized. Throws IOException (that mentions the offending line) if some token is
+	 * not an int number, if the file ends in the middle of a track, if some track is declared
+	 * again (or is already present in the 'track_list'), or if its begin is after its end.
+	 */
+	static void read(final String fname, final Map<Integer,Track> track_list)
+	throws IOException
+	{
+		final byte[] buf = Files.readAllBytes(Paths.get(fname));
+		final int[] values = new int[4];
+
+		int pos = 0;
+		int lineNo = 1;
+		int cnt = 0;          //how many numbers of the current track have been read
+		int trackLineNo = 0;  //where the current track starts
+		while (true)
+		{
+			//skip over whitespace, and count lines
+			while (pos < buf.length && isWhitespace(buf[pos]))
+				if (buf[pos++] == '\n') ++lineNo;
+			if (pos == buf.length) break;
+
+			//a number should start here
+			if (cnt == 0) trackLineNo = lineNo;
+
+			boolean negative = false;
+			if (buf[pos] == '-' || buf[pos] == '+')
+			{
+				negative = buf[pos] == '-';
+				++pos;
+			}
+
+			final int start = pos;
+			long value = 0;
+			while (pos < buf.length && buf[pos] >= '0' && buf[pos] <= '9')
+			{
+				value = 10*value + (buf[pos++] - '0');
+				if (value > 1L+Integer.MAX_VALUE)
+					throw lineError(fname,lineNo,"Number out of range.");
+			}
+			if (pos == start || (pos < buf.length && !isWhitespace(buf[pos])))
+				throw lineError(fname,lineNo,"Not a number.");
+			if (negative) value = -value;
+			if (value > Integer.MAX_VALUE)
+				throw lineError(fname,lineNo,"Number out of range.");
+
+			values[cnt++] = (int)value;
+			if (cnt < 4) continue;
+			cnt = 0;
+
+			final int id = values[0];
+			final int begin = values[1];
+			final int end = values[2];
+			final int parent = values[3];
+
+			//check for duplicities
+			if (track_list.containsKey(id))
+				throw lineError(fname,trackLineNo,"Detected multiple occurrence of the same track (ID="+id+").");
+
+			//check the track has reasonable time stamps
+			if (begin > end)
+				throw lineError(fname,trackLineNo,"Detected track with wrong time stamps (ID="+id+").");
+
+			//store the track
+			track_list.put(id,new Track(id,begin,end,parent));
+		}
+
+		if (cnt > 0)
+			throw lineError(fname,trackLineNo,"Expected four numbers, the file ends after only "+cnt+".");
+	}
+
+	///the same as Character.isWhitespace() for ASCII characters
+	private static boolean isWhitespace(final byte c)
+	{
+		return c == ' ' || (c >= 0x09 && c <= 0x0D) || (c >= 0x1C && c <= 0x1F);
+	}
+
+	private static IOException lineError(final String fname, final int lineNo, final String msg)
+	{
+		return new IOException(fname+", line "+lineNo+": "+msg);
+	}
+
+	// ----------------------------------------------------------------------
+	/**
+	 * Writes the 'tracks' into the file 'fname', possibly overwriting it, one track
+	 * per line as "ID begin end parent" (the same as Track.exportToString() does),
+	 * with the begin and end times adjusted (incremented) with the 'timeShift'.
+	 */
+	static void write(final String fname, final Collection<Track> tracks, final int timeShift)
+	throws IOException
+	{
+		final byte[] eol = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+		//a line is at most 4 x 11 chars, 3 spaces and the EOL
+		final byte[] line = new byte[4*11 + 3 + eol.length];
+
+		try (OutputStream f = new BufferedOutputStream(Files.newOutputStream(Paths.get(fname)), 1 << 16))
+		{
+			for (final Track t : tracks)
+			{
+				int len = 0;
+				len = putInt(line, len, t.m_id);
+				line[len++] = ' ';
+				len = putInt(line, len, t.m_begin+timeShift);
+				line[len++] = ' ';
+				len = putInt(line, len, t.m_end+timeShift);
+				line[len++] = ' ';
+				len = putInt(line, len, t.m_parent);
+				for (byte b : eol) line[len++] = b;
+
+				f.write(line, 0, len);
+			}
+		}
+	}
+
+	///writes decimal representation of the 'value' at the 'pos', returns the position after it
+	private static int putInt(final byte[] buf, int pos, final int value)
+	{
+		long v = value;
+		if (v < 0)
+		{
+			buf[pos++] = '-';
+			v = -v;
+		}
+
+		//find the number of digits
+		int digits = 1;
+		for (long p = 10; p <= v; p *= 10) ++digits;
+
+		for (int i = pos+digits-1; i >= pos; --i)
+		{
+			buf[i] = (byte)('0' + v % 10);
+			v /= 10;
+		}
+		return pos+digits;
+	}
+}
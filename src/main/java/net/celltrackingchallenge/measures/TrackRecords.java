@@ -28,8 +28,6 @@
  */
 package net.celltrackingchallenge.measures;
 
-import java.io.FileWriter;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.util.HashMap;
 
@@ -121,13 +119,7 @@ public class TrackRecords
 	{
 		try
 		{
-			final BufferedWriter f = new BufferedWriter( new FileWriter(outFileName) );
-			for (final Track t : tracks.values())
-			{
-				f.write(t.exportToString(timeShift));
-				f.newLine();
-			}
-			f.close();
+			TrackFileIO.write(outFileName, tracks.values(), timeShift);
 		}
 		catch (IOException e) {
 			//just forward the exception to whom it may concern
@@ -0,0 +1,191 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures.util;
+
+import java.util.Arrays;
+
+/**
+ * Counts occurrences of pairs of (strictly positive, 16-bit) labels, e.g.,
+ * the number of voxels in the intersection of a GT segment with a RES segment.
+ *
+ * It is a primitive open-addressing hash map (linear probing) from a pair
+ * of labels to its counter, so no boxing happens when counting voxel by voxel.
+ * Since labels are never zero, the packed key 0 denotes an empty slot.
+ */
+public class LabelPairsCounter
+{
+	/** Consumer of the content of this counter, see forEach(). */
+	public interface PairConsumer
+	{
+		void accept(final int labelA, final int labelB, final int count);
+	}
+
+	public LabelPairsCounter()
+	{
+		this(1024);
+	}
+
+	public LabelPairsCounter(final int expectedNoOfPairs)
+	{
+		int capacity = 16;
+		while (capacity < 2*expectedNoOfPairs) capacity <<= 1;
+		allocate(capacity);
+	}
+
+	///packed pairs of labels, 0 denotes an unused slot
+	private int[] keys;
+	///counters of the pairs
+	private int[] counts;
+	///the keys.length - 1
+	private int mask;
+	///32 - log2(keys.length), the slot is given by the top bits of the hashed key
+	private int shift;
+	///number of used slots
+	private int size = 0;
+
+	private void allocate(final int capacity)
+	{
+		keys = new int[capacity];
+		counts = new int[capacity];
+		mask = capacity-1;
+		shift = Integer.numberOfLeadingZeros(capacity)+1;
+	}
+
+	private static int packPair(final int labelA, final int labelB)
+	{
+		if (labelA <= 0 || labelA > 0xFFFF || labelB <= 0 || labelB > 0xFFFF)
+			throw new IllegalArgumentException("Labels must be within [1,65535], got "
+				+labelA+" and "+labelB+".");
+		return (labelA << 16) | labelB;
+	}
+
+	///the preferred slot of the 'key': the top bits of the multiplicative (Fibonacci)
+	///hash depend on all bits of the key, that is, on both labels
+	private int homeSlotOf(final int key)
+	{
+		return (key * 0x9E3779B9) >>> shift;
+	}
+
+	private int slotOf(final int key)
+	{
+		int slot = homeSlotOf(key);
+		while (keys[slot] != 0 && keys[slot] != key) slot = (slot+1) & mask;
+		return slot;
+	}
+
+	private void increase(final int key, final int count)
+	{
+		int slot = slotOf(key);
+		if (keys[slot] == 0)
+		{
+			//new pair, make sure we stay at most half full
+			if (2*(size+1) > keys.length)
+			{
+				rehash();
+				slot = slotOf(key);
+			}
+			keys[slot] = key;
+			++size;
+		}
+		counts[slot] += count;
+	}
+
+	private void rehash()
+	{
+		final int[] oldKeys = keys;
+		final int[] oldCounts = counts;
+		allocate(2*oldKeys.length);
+
+		for (int i=0; i < oldKeys.length; ++i)
+			if (oldKeys[i] != 0)
+			{
+				final int slot = slotOf(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				counts[slot] = oldCounts[i];
+			}
+	}
+
+	/** Increases by one the counter of the given pair of labels. */
+	public void add(final int labelA, final int labelB)
+	{
+		increase(packPair(labelA,labelB), 1);
+	}
+
+	/** Increases by 'count' the counter of the given pair of labels. */
+	public void add(final int labelA, final int labelB, final int count)
+	{
+		increase(packPair(labelA,labelB), count);
+	}
+
+	/** Adds all counters from the 'other' to this one. */
+	public void addAll(final LabelPairsCounter other)
+	{
+		for (int i=0; i < other.keys.length; ++i)
+			if (other.keys[i] != 0) increase(other.keys[i], other.counts[i]);
+	}
+
+	/** Returns the counter of the given pair of labels, 0 if not seen at all. */
+	public int get(final int labelA, final int labelB)
+	{
+		final int key = packPair(labelA,labelB);
+		final int slot = slotOf(key);
+		return keys[slot] == key ? counts[slot] : 0;
+	}
+
+	/** Returns the number of different pairs seen so far. */
+	public int size()
+	{
+		return size;
+	}
+
+	/** Presents every seen pair with its counter to the 'consumer',
+	    the pairs are visited in no particular order. */
+	public void forEach(final PairConsumer consumer)
+	{
+		for (int i=0; i < keys.length; ++i)
+			if (keys[i] != 0) consumer.accept(keys[i] >>> 16, keys[i] & 0xFFFF, counts[i]);
+	}
+
+	///the longest distance of a pair from its preferred slot, for tests
+	int maxProbeLength()
+	{
+		int max = 0;
+		for (int i=0; i < keys.length; ++i)
+			if (keys[i] != 0) max = Math.max(max, (i - homeSlotOf(keys[i])) & mask);
+		return max;
+	}
+
+	/** Forgets all pairs. */
+	public void clear()
+	{
+		Arrays.fill(keys, 0);
+		Arrays.fill(counts, 0);
+		size = 0;
+	}
+}
@@ -0,0 +1,174 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helper to process independent chunks of some work with a bounded
+ * number of threads, and to collect their results in the order of
+ * the chunks (not in the order in which the chunks got finished).
+ * This way, a caller that merges the per-chunk results one after
+ * another obtains the same result regardless of the number of threads.
+ *
+ * An instance keeps its pool of threads (started with its first parallel
+ * run) for all its runs, so that a caller with many small runs, e.g. one
+ * per image pair, does not start new threads for every one of them.
+ * The threads are daemons and end after a while of idleness, so an instance
+ * need not be closed; close() stops them immediately. The static run()
+ * uses a pool just for the one run.
+ */
+public class ParallelChunks implements AutoCloseable
+{
+	/** Processor of one chunk of the work. */
+	public interface ChunkWorker<T, E extends Exception>
+	{
+		T process(final int chunkIdx) throws E;
+	}
+
+	/** Creates the helper that uses at most 'noOfThreads' threads,
+	    one thread (or less) means to process in the calling thread. */
+	public ParallelChunks(final int noOfThreads)
+	{
+		this.noOfThreads = Math.max(noOfThreads,1);
+	}
+
+	private final int noOfThreads;
+	///created on demand, null if not (yet) needed
+	private ExecutorService workers = null;
+	private boolean isClosed = false;
+	///how long an idle thread waits for more work
+	private static final long IDLE_SECONDS = 5;
+
+	public int getNoOfThreads()
+	{
+		return noOfThreads;
+	}
+
+	private synchronized ExecutorService getWorkers()
+	{
+		if (isClosed)
+			throw new IllegalStateException("The workers were closed already.");
+		if (workers == null)
+		{
+			final ThreadPoolExecutor pool = new ThreadPoolExecutor(noOfThreads, noOfThreads,
+				IDLE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+					final Thread t = new Thread(r, "ParallelChunks worker");
+					t.setDaemon(true);
+					return t;
+				} );
+			pool.allowCoreThreadTimeOut(true);
+			workers = pool;
+		}
+		return workers;
+	}
+
+	/** Stops the threads of this helper, it cannot be used afterwards. */
+	@Override
+	public synchronized void close()
+	{
+		isClosed = true;
+		if (workers != null) workers.shutdownNow();
+		workers = null;
+	}
+
+	/**
+	 * Processes chunks 0,1,...,noOfChunks-1 with the 'worker' using at most
+	 * 'noOfThreads' threads. If only one thread is requested (or there's only
+	 * one chunk), everything happens in the calling thread. If some chunks
+	 * fail, the exception of the first (in the order of chunks) failed chunk
+	 * is re-thrown.
+	 *
+	 * @return List of results of the chunks, ordered by chunk index.
+	 */
+	public static <T, E extends Exception>
+	List<T> run(final int noOfThreads, final int noOfChunks, final ChunkWorker<T,E> worker)
+	throws E
+	{
+		try (ParallelChunks chunks = new ParallelChunks( Math.min(noOfThreads,noOfChunks) ))
+		{
+			return chunks.process(noOfChunks, worker);
+		}
+	}
+
+	/**
+	 * The same as run() but with the threads of this helper. It can be called
+	 * from several threads at the same time, they then share the threads.
+	 *
+	 * @return List of results of the chunks, ordered by chunk index.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T, E extends Exception>
+	List<T> process(final int noOfChunks, final ChunkWorker<T,E> worker)
+	throws E
+	{
+		final List<T> results = new ArrayList<>(noOfChunks);
+
+		if (noOfThreads < 2 || noOfChunks < 2)
+		{
+			for (int i=0; i < noOfChunks; ++i) results.add( worker.process(i) );
+			return results;
+		}
+
+		final List<Future<T>> futures = new ArrayList<>(noOfChunks);
+		try {
+			final ExecutorService workers = getWorkers();
+			for (int i=0; i < noOfChunks; ++i)
+			{
+				final int chunkIdx = i;
+				futures.add( workers.submit( () -> worker.process(chunkIdx) ) );
+			}
+
+			for (Future<T> f : futures) results.add( f.get() );
+			return results;
+		}
+		catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			//NB: the worker can throw only E or unchecked exceptions
+			throw (E)cause;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for the workers.", e);
+		}
+		finally {
+			//the chunks that are not finished yet are of no use now (only if failed)
+			for (Future<T> f : futures) f.cancel(true);
+		}
+	}
+}
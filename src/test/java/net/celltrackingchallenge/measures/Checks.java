@@ -0,0 +1,86 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import java.util.List;
+
+/**
+ * Helpers shared by the main()-driven tests: assertions that throw
+ * RuntimeException on failure, and the runner that reports the passed tests.
+ */
+public final class Checks
+{
+	private Checks() {}
+
+	/** Throws RuntimeException with the 'message' unless the 'condition' holds. */
+	public static void check(final boolean condition, final String message)
+	{
+		if (!condition) throw new RuntimeException("Test failed: "+message);
+	}
+
+	/** Compares the 'lines' with the 'expected' ones, line by line. */
+	public static void checkLines(final List<String> lines, final List<String> expected, final String testName)
+	{
+		check(lines.size() == expected.size(), testName+": "+lines.size()+" lines instead of "+expected.size());
+		for (int i = 0; i < lines.size(); ++i)
+			check(lines.get(i).equals(expected.get(i)), testName+", line "+(i+1)+": \""
+				+lines.get(i)+"\" instead of \""+expected.get(i)+"\"");
+	}
+
+	/** Checks that the 'code' throws IllegalArgumentException. */
+	public static void checkIllegalArgument(final TestCase code, final String message)
+	{
+		try
+		{
+			code.run();
+		}
+		catch (IllegalArgumentException e)
+		{
+			return;
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException("Test failed: "+message+" threw "+e, e);
+		}
+		throw new RuntimeException("Test failed: "+message+" was accepted");
+	}
+
+	/** A piece of test code. */
+	public interface TestCase
+	{
+		void run() throws Exception;
+	}
+
+	/** Runs the 'test', which fails by throwing, and reports it passed as "name: OK". */
+	public static void run(final String name, final TestCase test) throws Exception
+	{
+		test.run();
+		System.out.println(name+": OK");
+	}
+}
@@ -0,0 +1,211 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.celltrackingchallenge.measures.TrackDataCache.Track;
+import net.celltrackingchallenge.measures.TrackDataCache.Fork;
+import net.celltrackingchallenge.measures.TrackDataCache.TemporalLevel;
+import net.celltrackingchallenge.measures.util.LabelPairsCounter;
+
+import org.scijava.Context;
+import org.scijava.log.LogService;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+import static net.celltrackingchallenge.measures.Checks.check;
+import static net.celltrackingchallenge.measures.Checks.run;
+
+public class TestBCi
+{
+	final LogService logService;
+	//
+	public TestBCi()
+	{
+		final Context ctx = new Context(LogService.class);
+		logService = ctx.getService(LogService.class);
+	}
+
+	/**
+	 * Builds a cache with the given tracks, given as {id,begin,end,parent} rows, and
+	 * with the given matching, given as {time,GTlabel,RESlabel} rows. Every label
+	 * is present in all time points of its track, and is matched only as listed.
+	 */
+	TrackDataCache createCache(final int[][] gtTracks, final int[][] resTracks, final int[][] matches)
+	{
+		final TrackDataCache cache = new TrackDataCache(logService);
+		int noOfTimePoints = 0;
+		for (int[] t : gtTracks)
+		{
+			cache.gt_tracks.put(t[0], new Track(t[0],t[1],t[2],t[3]));
+			noOfTimePoints = Math.max(noOfTimePoints, t[2]+1);
+		}
+		for (int[] t : resTracks)
+		{
+			cache.res_tracks.put(t[0], new Track(t[0],t[1],t[2],t[3]));
+			noOfTimePoints = Math.max(noOfTimePoints, t[2]+1);
+		}
+		cache.DetectForks(cache.gt_tracks, cache.gt_forks);
+		cache.DetectForks(cache.res_tracks, cache.res_forks);
+
+		for (int time = 0; time < noOfTimePoints; ++time)
+		{
+			final TemporalLevel level = cache.new TemporalLevel(time);
+			level.m_gt_lab  = labelsAt(gtTracks, time);
+			level.m_res_lab = labelsAt(resTracks, time);
+			level.m_gt_size  = new int[level.m_gt_lab.length];
+			level.m_res_size = new int[level.m_res_lab.length];
+			Arrays.fill(level.m_gt_size, 100);
+			Arrays.fill(level.m_res_size, 100);
+			level.buildLabelIndices();
+
+			final LabelPairsCounter overlaps = new LabelPairsCounter();
+			level.m_gt_match = new int[level.m_gt_lab.length];
+			Arrays.fill(level.m_gt_match, -1);
+			for (int[] m : matches)
+				if (m[0] == time)
+				{
+					level.m_gt_match[level.gt_findLabel(m[1])] = level.res_findLabel(m[2]);
+					overlaps.add(m[1], m[2], 60);
+				}
+			level.buildMatchingMatrix(overlaps);
+			level.buildResMatch();
+			cache.levels.add(level);
+		}
+		return cache;
+	}
+
+	static int[] labelsAt(final int[][] tracks, final int time)
+	{
+		return Arrays.stream(tracks).filter(t -> t[1] <= time && time <= t[2]).mapToInt(t -> t[0]).sorted().toArray();
+	}
+
+	/// the original greedy evaluation, one pass per every temporal window
+	static int[] referenceCounts(final TrackDataCache cache)
+	{
+		final int[] counts = new int[6];
+		for (int maxI = 0; maxI <= 5; ++maxI)
+		{
+			final boolean[] gt_correct = new boolean[cache.gt_forks.size()];
+			for (Fork res_fork : cache.res_forks)
+				for (int i = 0; i < gt_correct.length; ++i)
+				{
+					final Fork gt_fork = cache.gt_forks.get(i);
+					if (gt_correct[i] || gt_fork.m_child_ids.length != res_fork.m_child_ids.length) continue;
+
+					int GTtime = cache.gt_tracks.get(gt_fork.m_parent_id).m_end;
+					int Rtime = cache.res_tracks.get(res_fork.m_parent_id).m_end;
+					boolean match = Math.abs(GTtime - Rtime) <= maxI && cache.UniqueMatch(
+						gt_fork.m_parent_id, res_fork.m_parent_id, cache.levels.get(Math.min(GTtime,Rtime)));
+
+					for (int k = 0; k < gt_fork.m_child_ids.length && match; ++k)
+					{
+						GTtime = cache.gt_tracks.get(gt_fork.m_child_ids[k]).m_begin;
+						match = false;
+						for (int l = 0; l < res_fork.m_child_ids.length && !match; ++l)
+						{
+							Rtime = cache.res_tracks.get(res_fork.m_child_ids[l]).m_begin;
+							match = Math.abs(GTtime - Rtime) <= maxI && cache.UniqueMatch(
+								gt_fork.m_child_ids[k], res_fork.m_child_ids[l], cache.levels.get(Math.max(GTtime,Rtime)));
+						}
+					}
+
+					if (match)
+					{
+						gt_correct[i] = true;
+						++counts[maxI];
+						break;
+					}
+				}
+		}
+		return counts;
+	}
+
+	void checkCounts(final TrackDataCache cache, final int[] expected, final String testName)
+	{
+		final int[] counts = BCi.CountCorrectForks(cache, cache.res_forks, cache.gt_forks,
+			cache.gt_tracks, cache.res_tracks, cache.levels);
+		check(Arrays.equals(counts, expected), testName+": counts "
+			+Arrays.toString(counts)+" but expected "+Arrays.toString(expected));
+		check(Arrays.equals(referenceCounts(cache), expected), testName+": the reference disagrees");
+	}
+
+	/** RES daughters appear two frames after the GT daughters. */
+	public void testJitteredChildren()
+	{
+		final TrackDataCache cache = createCache(
+			new int[][] { {1,0,4,0}, {2,5,9,1}, {3,5,9,1} },
+			new int[][] { {1,0,4,0}, {2,7,9,1}, {3,6,9,1} },
+			new int[][] { {0,1,1}, {1,1,1}, {2,1,1}, {3,1,1}, {4,1,1},
+			              {7,2,2}, {8,2,2}, {9,2,2}, {6,3,3}, {7,3,3}, {8,3,3}, {9,3,3} });
+		checkCounts(cache, new int[] {0,0,1,1,1,1}, "jittered children");
+	}
+
+	/**
+	 * RES fork 7 matches GT fork 4 in window 0 and GT fork 1 (which comes first)
+	 * in window 3, RES fork 10 matches only GT fork 4 and that in window 2. So,
+	 * GT fork 4 is taken by RES fork 7 for i &lt; 3, but it is free for i &ge; 3.
+	 */
+	public void testForkRecoveredOnlyForSmallWindows()
+	{
+		final TrackDataCache cache = createCache(
+			new int[][] { {1,0,1,0}, {2,8,12,1}, {3,8,12,1},
+			              {4,0,4,0}, {5,5,12,4}, {6,5,12,4} },
+			new int[][] { {7,0,4,0},  {8,5,12,7},   {9,5,12,7},
+			              {10,0,2,0}, {11,7,12,10}, {12,7,12,10} },
+			new int[][] { {1,1,7}, {4,4,7}, {5,5,8}, {5,6,9},
+			              {8,2,8}, {8,3,9}, {2,4,10}, {7,5,11}, {7,6,12} });
+		check(cache.gt_forks.get(0).m_parent_id == 1, "GT fork 1 is expected to be listed first");
+		check(cache.res_forks.get(0).m_parent_id == 7, "RES fork 7 is expected to be listed first");
+		checkCounts(cache, new int[] {1,1,1,2,2,2}, "fork recovered only for small windows");
+	}
+
+	/** RES parents end exactly 5 frames before, 5 frames after, and 6 frames after the GT parents. */
+	public void testParentsAtTheWindowBorder()
+	{
+		final TrackDataCache cache = createCache(
+			new int[][] { {1,0,10,0}, {2,11,14,1}, {3,11,14,1},
+			              {4,0,10,0}, {5,11,14,4}, {6,11,14,4},
+			              {7,0,10,0}, {8,11,14,7}, {9,11,14,7} },
+			new int[][] { {1,0,5,0},  {2,11,14,1}, {3,11,14,1},
+			              {4,0,15,0}, {5,11,14,4}, {6,11,14,4},
+			              {7,0,16,0}, {8,11,14,7}, {9,11,14,7} },
+			new int[][] { {5,1,1}, {10,4,4}, {10,7,7},
+			              {11,2,2}, {11,3,3}, {11,5,5}, {11,6,6}, {11,8,8}, {11,9,9} });
+		checkCounts(cache, new int[] {0,0,0,0,0,2}, "parents at the window border");
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		final TestBCi tst = new TestBCi();
+		run("jittered children", tst::testJitteredChildren);
+		run("fork recovered only for small windows", tst::testForkRecoveredOnlyForSmallWindows);
+		run("parents at the window border", tst::testParentsAtTheWindowBorder);
+	}
+}
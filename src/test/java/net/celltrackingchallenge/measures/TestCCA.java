@@ -0,0 +1,153 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.celltrackingchallenge.measures.TrackDataCache.Track;
+import net.celltrackingchallenge.measures.TrackDataCache.Fork;
+
+import org.scijava.Context;
+import org.scijava.log.LogService;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Vector;
+
+import static net.celltrackingchallenge.measures.Checks.check;
+import static net.celltrackingchallenge.measures.Checks.run;
+
+public class TestCCA
+{
+	final LogService logService;
+	//
+	public TestCCA()
+	{
+		final Context ctx = new Context(LogService.class);
+		logService = ctx.getService(LogService.class);
+	}
+
+	static void addTrack(final Map<Integer,Track> tracks,
+	                     final int id, final int begin, final int end, final int parent)
+	{
+		tracks.put(id, new Track(id,begin,end,parent));
+	}
+
+	/// the original (quadratic) detection of complete cell cycles, returns sorted lengths
+	static int[] referenceCycleLengths(final Map<Integer,Track> tracks, final Vector<Fork> forks)
+	{
+		final Vector<Integer> lengths = new Vector<>();
+		for (Fork parent : forks)
+		for (Fork child  : forks)
+		for (int i=0; i < child.m_child_ids.length; ++i)
+			if (child.m_child_ids[i] == parent.m_parent_id)
+			{
+				final Track t = tracks.get(parent.m_parent_id);
+				lengths.add(t.m_end - t.m_begin +1);
+			}
+
+		final int[] l = new int[lengths.size()];
+		for (int i=0; i < l.length; ++i) l[i] = lengths.get(i);
+		Arrays.sort(l);
+		return l;
+	}
+
+	static int[] sorted(final int[] array)
+	{
+		final int[] a = array.clone();
+		Arrays.sort(a);
+		return a;
+	}
+
+	public void testExtremeTrackIDs()
+	{
+		final TrackDataCache cache = new TrackDataCache(logService);
+		final HashMap<Integer,Track> tracks = new HashMap<>();
+
+		//lineage: 1 -> { 2, -7 }, 2 -> { MAX, 0x10000 }, MAX -> { 5, -2147483648 }
+		addTrack(tracks, 1, 0, 4, 0);
+		addTrack(tracks, 2, 5, 9, 1);
+		addTrack(tracks, -7, 5, 20, 1);
+		addTrack(tracks, Integer.MAX_VALUE, 10, 16, 2);
+		addTrack(tracks, 0x10000, 10, 20, 2);
+		addTrack(tracks, 5, 17, 20, Integer.MAX_VALUE);
+		addTrack(tracks, Integer.MIN_VALUE, 17, 20, Integer.MAX_VALUE);
+
+		final Vector<Fork> forks = new Vector<>();
+		cache.DetectForks(tracks, forks);
+		check(forks.size() == 3, "expected 3 forks, got "+forks.size());
+
+		//complete cycles are the tracks 2 (5 frames long) and MAX (7 frames long)
+		final int[] lengths = sorted(CCA.CompleteCycleLengths(tracks, forks));
+		check(Arrays.equals(lengths, new int[] {5,7}), "lengths "+Arrays.toString(lengths));
+		check(Arrays.equals(lengths, referenceCycleLengths(tracks, forks)), "differs from the reference");
+	}
+
+	public void testRandomLineages()
+	{
+		final TrackDataCache cache = new TrackDataCache(logService);
+		final Random rnd = new Random(7);
+		final int[] idPool = { 1, 2, 3, 0xFFFF, 0x10000, 123456789, Integer.MAX_VALUE, -1, -65536, Integer.MIN_VALUE };
+
+		for (int round = 0; round < 200; ++round)
+		{
+			final HashMap<Integer,Track> tracks = new HashMap<>();
+			int nextId = 100;
+			final Vector<Integer> mothers = new Vector<>();
+
+			final int noOfTracks = 5 + rnd.nextInt(60);
+			for (int i = 0; i < noOfTracks; ++i)
+			{
+				//use the extreme IDs now and then, otherwise fresh small ones
+				int id = rnd.nextInt(4) == 0 ? idPool[rnd.nextInt(idPool.length)] : ++nextId;
+				if (tracks.containsKey(id)) id = ++nextId;
+
+				//only positive IDs can be referred to as parents
+				final int parent = mothers.isEmpty() || rnd.nextInt(4) == 0 ? 0 : mothers.get(rnd.nextInt(mothers.size()));
+				final int begin = rnd.nextInt(50);
+				addTrack(tracks, id, begin, begin + rnd.nextInt(30), parent);
+				if (id > 0) mothers.add(id);
+			}
+
+			final Vector<Fork> forks = new Vector<>();
+			cache.DetectForks(tracks, forks);
+			final int[] lengths = sorted(CCA.CompleteCycleLengths(tracks, forks));
+			final int[] reference = referenceCycleLengths(tracks, forks);
+			check(Arrays.equals(lengths, reference), "round "+round+": "
+				+Arrays.toString(lengths)+" vs. reference "+Arrays.toString(reference));
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		final TestCCA tst = new TestCCA();
+		run("extreme track IDs", tst::testExtremeTrackIDs);
+		run("random lineages", tst::testRandomLineages);
+	}
+}
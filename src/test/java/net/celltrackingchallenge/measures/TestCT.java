@@ -0,0 +1,132 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.celltrackingchallenge.measures.TestTRA.LineageCache;
+import net.celltrackingchallenge.measures.TrackDataCache.Track;
+
+import org.scijava.Context;
+import org.scijava.log.LogService;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static net.celltrackingchallenge.measures.Checks.check;
+import static net.celltrackingchallenge.measures.Checks.run;
+
+public class TestCT
+{
+	final LogService logService;
+	//
+	public TestCT()
+	{
+		final Context ctx = new Context(LogService.class);
+		logService = ctx.getService(LogService.class);
+	}
+
+	// ----------------------------------------------------------------------
+	//the expected values were obtained with the CT before NumCorrectPaths()
+	//examined only the uniquely matched GT track of every RES track
+
+	public void testHandmadeLineages() throws Exception
+	{
+		final LineageCache cache = TestTRA.calculateCache(logService,
+			TestTRA.GT_TRACKS, TestTRA.RES_TRACKS, TestTRA.MATCHES, 8);
+
+		final CT ct = new CT(logService);
+		final double value = ct.calculate(cache.gtFolder, cache.resFolder, cache);
+		check(value == 0.21052631578947367, "CT "+value);
+
+		final int correct = ct.NumCorrectPaths(cache.levels, cache.gt_tracks, cache.res_tracks);
+		check(correct == 2, correct+" correct paths instead of 2");
+	}
+
+	///per random lineages: the number of correct paths and the CT
+	static final double[][] RANDOM_VALUES = {
+		{ 14, 0.6511627906976745 }, { 37, 0.6851851851851852 }, { 61, 0.6455026455026455 },
+		{ 30, 0.821917808219178  }, { 14, 0.5185185185185185 }, { 20, 0.6153846153846154 } };
+
+	public void testRandomLineages() throws Exception
+	{
+		final Random rnd = new Random(11);
+		for (int i = 0; i < RANDOM_VALUES.length; ++i)
+		{
+			final int[][][] lineages = TestTRA.randomLineages(rnd, 15, 6);
+			final LineageCache cache = TestTRA.calculateCache(logService, lineages[0], lineages[1], lineages[2], 15);
+
+			final CT ct = new CT(logService);
+			final double value = ct.calculate(cache.gtFolder, cache.resFolder, cache);
+			check(value == RANDOM_VALUES[i][1], "lineages "+i+": CT "+value);
+
+			final int correct = ct.NumCorrectPaths(cache.levels, cache.gt_tracks, cache.res_tracks);
+			check(correct == (int)RANDOM_VALUES[i][0], "lineages "+i+": "+correct+" correct paths");
+		}
+	}
+
+	public void testTracksOutsideTheSequence() throws Exception
+	{
+		final LineageCache cache = TestTRA.calculateCache(logService,
+			TestTRA.GT_TRACKS, TestTRA.RES_TRACKS, TestTRA.MATCHES, 8);
+
+		final List<String> messages = new ArrayList<>();
+		final CT ct = new CT(TestSEG.recordingLog(messages));
+		ct.calculate(cache.gtFolder, cache.resFolder, cache);
+
+		//RES tracks that reach beyond the 8 time points, or that are malformed,
+		//some of them even with a GT track of the same span
+		final Map<Integer,Track> gt_tracks = new HashMap<>(cache.gt_tracks);
+		final Map<Integer,Track> res_tracks = new HashMap<>(cache.res_tracks);
+		gt_tracks.put(90, new Track(90, 6, 12, 0));
+		res_tracks.put(91, new Track(91, 6, 12, 0));
+		res_tracks.put(92, new Track(92, -1, 3, 0));
+		gt_tracks.put(93, new Track(93, 5, 4, 0));
+		res_tracks.put(93, new Track(93, 5, 4, 0));
+
+		messages.clear();
+		final int correct = ct.NumCorrectPaths(cache.levels, gt_tracks, res_tracks);
+		check(correct == 2, correct+" correct paths instead of 2");
+
+		//every skipped track is reported, and only these
+		check(messages.size() == 3, messages.size()+" messages instead of 3: "+messages);
+		for (String id : new String[] { "91 [6,12]", "92 [-1,3]", "93 [5,4]" })
+			check(messages.contains("Warning: RES track "+id+" is not within the 8 time points, skipping it."),
+				"no warning about the RES track "+id);
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		final TestCT tst = new TestCT();
+		run("handmade lineages", tst::testHandmadeLineages);
+		run("random lineages", tst::testRandomLineages);
+		run("tracks outside the sequence", tst::testTracksOutsideTheSequence);
+	}
+}
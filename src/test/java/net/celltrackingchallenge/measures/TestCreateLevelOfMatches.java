@@ -0,0 +1,164 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.celltrackingchallenge.measures.TrackDataCache.TemporalLevel;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.scijava.Context;
+import org.scijava.log.LogService;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static net.celltrackingchallenge.measures.Checks.check;
+import static net.celltrackingchallenge.measures.Checks.run;
+
+public class TestCreateLevelOfMatches
+{
+	final LogService logService;
+	//
+	public TestCreateLevelOfMatches()
+	{
+		final Context ctx = new Context(LogService.class);
+		logService = ctx.getService(LogService.class);
+	}
+
+	static Img<UnsignedShortType> createImage(final int[] labels, final long... dims)
+	{
+		final short[] data = new short[labels.length];
+		for (int i = 0; i < labels.length; ++i) data[i] = (short)labels[i];
+		return ArrayImgs.unsignedShorts(data, dims);
+	}
+
+	/// checks that the 'kernel' level agrees with the 'full' one on everything but the non-matching overlaps
+	static void compareLevels(final TemporalLevel full, final TemporalLevel kernel, final String testName)
+	{
+		check(Arrays.equals(full.m_gt_lab,   kernel.m_gt_lab),   testName+": GT labels");
+		check(Arrays.equals(full.m_gt_size,  kernel.m_gt_size),  testName+": GT sizes");
+		check(Arrays.equals(full.m_res_lab,  kernel.m_res_lab),  testName+": RES labels");
+		check(Arrays.equals(full.m_res_size, kernel.m_res_size), testName+": RES sizes");
+		check(Arrays.equals(full.m_gt_match, kernel.m_gt_match), testName+": GT matching");
+		check(Arrays.equals(full.m_gt_unique,  kernel.m_gt_unique),  testName+": GT 1:1 matching");
+		check(Arrays.equals(full.m_res_unique, kernel.m_res_unique), testName+": RES 1:1 matching");
+
+		for (int i = 0; i < full.m_gt_lab.length; ++i)
+			if (full.m_gt_match[i] > -1)
+				check(full.getOverlap(i,full.m_gt_match[i]) == kernel.getOverlap(i,kernel.m_gt_match[i]),
+					testName+": overlap of the matching pair of GT label "+full.m_gt_lab[i]);
+
+		for (int j = 0; j < full.m_res_lab.length; ++j)
+		{
+			check(full.res_matchCount(j) == kernel.res_matchCount(j), testName+": RES match count");
+			for (int k = 0; k < full.res_matchCount(j); ++k)
+				check(full.res_match(j,k) == kernel.res_match(j,k), testName+": RES matches");
+		}
+	}
+
+	/**
+	 * GT label 1 is covered by RES labels 2,2,3,3,4,4 (in this order), so the vote ends
+	 * with the candidate 4 that covers only a third of it; GT label 5 is covered exactly
+	 * by a half by RES label 6 and is mostly background in RES; GT label 7 is covered by
+	 * 8,9,8,8 so the candidate 8 wins; GT label 10 is covered by 11 by 60% which is enough
+	 * for overlapRatio 0.5, but not for 0.7.
+	 */
+	public void testFailedCandidates()
+	{
+		final TrackDataCache cache = new TrackDataCache(logService);
+		final int[] gt  = { 1,1,1,1,1,1,  5,5,5,5,5,5,  7,7,7,7,  10,10,10,10,10, 0,0 };
+		final int[] res = { 2,2,3,3,4,4,  6,0,6,0,6,0,  8,9,8,8,  11,12,11,11,0,  4,12 };
+		final Img<UnsignedShortType> gtImg  = createImage(gt,  gt.length);
+		final Img<UnsignedShortType> resImg = createImage(res, res.length);
+
+		for (double ratio : new double[] {0.5, 0.7})
+		{
+			final TemporalLevel full = cache.CreateLevel(gtImg, resImg, true, 0, ratio, 1);
+			final TemporalLevel kernel = cache.CreateLevelOfMatches(gtImg, resImg, true, 0, ratio);
+			compareLevels(full, kernel, "failed candidates, ratio "+ratio);
+
+			check(kernel.m_gt_match[kernel.gt_findLabel(1)] == -1, "GT label 1 must not be matched");
+			check(kernel.m_gt_match[kernel.gt_findLabel(5)] == -1, "GT label 5 must not be matched");
+			check(kernel.m_gt_match[kernel.gt_findLabel(7)] == kernel.res_findLabel(8), "GT label 7 must match 8");
+			check(kernel.m_gt_match[kernel.gt_findLabel(10)] == (ratio < 0.6 ? kernel.res_findLabel(11) : -1),
+				"GT label 10 must match 11 only for ratio 0.5");
+		}
+	}
+
+	public void testRandomImages()
+	{
+		final TrackDataCache cache = new TrackDataCache(logService);
+		final Random rnd = new Random(11);
+		int noOfMatches = 0;
+
+		for (int round = 0; round < 300; ++round)
+		{
+			final int width = 10 + rnd.nextInt(60);
+			final int height = 10 + rnd.nextInt(60);
+			final int[] gt = new int[width*height];
+			final int[] res = new int[width*height];
+
+			//runs of GT labels, covered mostly by one RES label with some noise
+			final int noOfGTlabels = 1 + rnd.nextInt(30);
+			final int noOfRESlabels = 1 + rnd.nextInt(40);
+			final int labelStep = round % 3 == 0 ? 997 : 1; //sometimes use labels up to 0xFFFF
+			for (int i = 0; i < gt.length; )
+			{
+				final int gtLabel = rnd.nextInt(4) == 0 ? 0 : 1 + (rnd.nextInt(noOfGTlabels) * labelStep) % 0xFFFF;
+				final int resLabel = rnd.nextInt(noOfRESlabels+1);
+				final int noise = 1 + rnd.nextInt(5);
+				for (int len = 1 + rnd.nextInt(60); len > 0 && i < gt.length; --len, ++i)
+				{
+					gt[i] = gtLabel;
+					res[i] = rnd.nextInt(noise+1) == 0 ? rnd.nextInt(noOfRESlabels+1) : resLabel;
+				}
+			}
+
+			final Img<UnsignedShortType> gtImg  = createImage(gt,  width, height);
+			final Img<UnsignedShortType> resImg = createImage(res, width, height);
+			for (double ratio : new double[] {0.5, 0.7, 0.3})
+			{
+				final TemporalLevel full = cache.CreateLevel(gtImg, resImg, false, round, ratio, 1);
+				final TemporalLevel kernel = cache.CreateLevelOfMatches(gtImg, resImg, false, round, ratio);
+				compareLevels(full, kernel, "random images, round "+round+", ratio "+ratio);
+				for (int m : full.m_gt_match) if (m > -1) ++noOfMatches;
+			}
+		}
+		check(noOfMatches > 1000, "too few matches ("+noOfMatches+") to be a meaningful test");
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		final TestCreateLevelOfMatches tst = new TestCreateLevelOfMatches();
+		run("failed candidates", tst::testFailedCandidates);
+		run("random images", tst::testRandomImages);
+	}
+}
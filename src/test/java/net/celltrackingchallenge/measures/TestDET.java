@@ -0,0 +1,178 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.celltrackingchallenge.measures.ReportSink.Kind;
+import net.celltrackingchallenge.measures.TestFramesPipeline.RawImagesCache;
+import net.celltrackingchallenge.measures.TestTRA.Records;
+import net.celltrackingchallenge.measures.TrackDataCache.TemporalLevel;
+
+import org.scijava.Context;
+import org.scijava.log.LogService;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static net.celltrackingchallenge.measures.Checks.check;
+import static net.celltrackingchallenge.measures.Checks.checkLines;
+import static net.celltrackingchallenge.measures.Checks.run;
+
+public class TestDET
+{
+	final LogService logService;
+	//
+	public TestDET()
+	{
+		final Context ctx = new Context(LogService.class);
+		logService = ctx.getService(LogService.class);
+	}
+
+	///DET that streams the image pairs through the RawImagesCache
+	static class RawImagesDET extends DET
+	{
+		RawImagesDET(final LogService log)
+		{ super(log); }
+
+		final List<RawImagesCache> streamingCaches = new ArrayList<>();
+
+		@Override
+		TrackDataCache newStreamingCache(final TrackDataCache params)
+		{
+			final RawImagesCache cache = new RawImagesCache(log);
+			cache.setupSimilarAs(params);
+			streamingCaches.add(cache);
+			return cache;
+		}
+	}
+
+	///outcome of one DET calculation
+	static class Outcome
+	{
+		double value;
+		TRA.ErrorCounts counts;
+		long gtLabelsFound;
+		final Records records = new Records();
+	}
+
+	static Outcome calculate(final DET det, final String gtPath, final String resPath, final TrackDataCache cache,
+	                         final boolean doAOGM, final Set<Integer> timepoints)
+	throws Exception
+	{
+		final Outcome o = new Outcome();
+		det.doAOGM = doAOGM;
+		det.doOnlyTheseTimepoints = timepoints;
+		det.doLogReports = true;
+		det.doMatchingReports = true;
+		det.reportSink = o.records;
+		o.value = det.calculate(gtPath, resPath, cache);
+		o.counts = det.getErrorCounts();
+		o.gtLabelsFound = det.gtLabelsFound;
+		return o;
+	}
+
+	static void checkSameOutcomes(final Outcome expected, final Outcome o, final String what)
+	{
+		check(o.value == expected.value, what+": value "+o.value+" instead of "+expected.value);
+		final TRA.ErrorCounts e = expected.counts, c = o.counts;
+		check(c.m_ns == e.m_ns && c.m_fn == e.m_fn && c.m_fp == e.m_fp && c.m_maxSplit == e.m_maxSplit
+		      && c.m_gtNodes == e.m_gtNodes, what+": different error counts");
+		check(c.m_ed == 0 && c.m_ea == 0 && c.m_ec == 0 && c.m_gtEdges == 0, what+": edges counted");
+		check(o.gtLabelsFound == expected.gtLabelsFound && o.gtLabelsFound == c.m_gtNodes,
+			what+": "+o.gtLabelsFound+" GT labels found instead of "+expected.gtLabelsFound);
+		for (Kind section : new Kind[] { Kind.NS, Kind.FN, Kind.FP, Kind.ED, Kind.EA, Kind.EC, Kind.GT_MATCH })
+			checkLines(o.records.get(section), expected.records.get(section), what+", "+section+" records");
+	}
+
+	///the number of GT labels of the given time points (all if null) of the cache
+	static long noOfGtLabels(final TrackDataCache cache, final Set<Integer> timepoints)
+	{
+		long cnt = 0;
+		for (TemporalLevel level : cache.levels)
+			if (timepoints == null || timepoints.contains(level.m_level)) cnt += level.m_gt_lab.length;
+		return cnt;
+	}
+
+	public void testStreamingEqualsCached() throws Exception
+	{
+		check(!TrackDataCacheRegistry.getInstance().isEnabled(), "the registry would feed the streaming path");
+
+		final Path root = TestFramesPipeline.createFolders(new Random(17));
+		try
+		{
+			final String gtPath = root.resolve("gt").toString();
+			final String resPath = root.resolve("res").toString();
+			final RawImagesCache cache = new RawImagesCache(logService);
+			cache.calculate(gtPath, resPath);
+
+			final List<Set<Integer>> timepoints = new ArrayList<>();
+			timepoints.add(null);
+			timepoints.add(new HashSet<>(Arrays.asList(2, 5, 7, 11)));
+			timepoints.add(new HashSet<>(Arrays.asList(0)));
+
+			for (Set<Integer> tps : timepoints)
+			for (boolean doAOGM : new boolean[] { false, true })
+			{
+				final Outcome cached = calculate(new DET(logService), gtPath, resPath, cache, doAOGM, tps);
+				check(cached.gtLabelsFound == noOfGtLabels(cache, tps), tps+": GT labels of the cached path");
+				check(cached.counts.m_fn + cached.counts.m_fp + cached.counts.m_ns > 0, tps+": no errors to compare");
+
+				for (int noOfPrefetchedFrames : new int[] { 1, 3 })
+				{
+					final String what = "time points "+tps+(doAOGM ? ", AOGM" : ", DET")
+					                  +", "+noOfPrefetchedFrames+" prefetched";
+					final RawImagesDET det = new RawImagesDET(logService);
+					det.noOfPrefetchedFrames = noOfPrefetchedFrames;
+					final Outcome streamed = calculate(det, gtPath, resPath, null, doAOGM, tps);
+					check(det.streamingCaches.size() == 1 && det.getCache() == det.streamingCaches.get(0),
+						what+": the image pairs were not streamed");
+					final int noOfPairs = tps == null ? TestFramesPipeline.NO_OF_TIMEPOINTS : tps.size();
+					check(det.streamingCaches.get(0).noOfReadImages.get() == 2*noOfPairs,
+						what+": every image should be read once");
+					check(det.getCache().levels.isEmpty(), what+": the streamed levels should be dropped");
+					checkSameOutcomes(cached, streamed, what);
+				}
+			}
+		}
+		finally
+		{
+			TestTrackDataCacheSnapshot.deleteFolders(root);
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		final TestDET tst = new TestDET();
+		run("streaming equals cached", tst::testStreamingEqualsCached);
+	}
+}
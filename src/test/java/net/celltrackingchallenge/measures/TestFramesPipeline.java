@@ -0,0 +1,222 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.celltrackingchallenge.measures.TrackDataCache.TemporalLevel;
+
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.scijava.Context;
+import org.scijava.log.LogService;
+import org.scijava.log.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.celltrackingchallenge.measures.Checks.check;
+import static net.celltrackingchallenge.measures.Checks.run;
+
+public class TestFramesPipeline
+{
+	final LogService logService;
+	//
+	public TestFramesPipeline()
+	{
+		final Context ctx = new Context(LogService.class);
+		logService = ctx.getService(LogService.class);
+	}
+
+	/**
+	 * Cache whose "tif" files are just the width, height and the labels
+	 * of the image, all as 16-bit numbers, so that the real classification
+	 * of the image pairs can be tested without any image format library.
+	 */
+	static class RawImagesCache extends TrackDataCache
+	{
+		RawImagesCache(final Logger log)
+		{ super(log); }
+
+		final AtomicInteger noOfReadImages = new AtomicInteger(0);
+
+		@Override
+		public Img<?> ReadImage(final String fname)
+		throws IOException
+		{
+			noOfReadImages.incrementAndGet();
+			final ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(Paths.get(fname)));
+			final int width = data.getShort(), height = data.getShort();
+			final int[] labels = new int[width*height];
+			for (int i = 0; i < labels.length; ++i) labels[i] = data.getShort() & 0xFFFF;
+			return TestCreateLevelOfMatches.createImage(labels, width, height);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Img<UnsignedShortType> CheckImageG16(final Img<?> img, final String fname)
+		{
+			return (Img<UnsignedShortType>)img;
+		}
+	}
+
+	static void writeImage(final Path file, final Random rnd, final int width, final int height)
+	throws IOException
+	{
+		final ByteBuffer data = ByteBuffer.allocate(4 + 2*width*height);
+		data.putShort((short)width).putShort((short)height);
+		for (int i = 0; i < width*height; )
+		{
+			final int label = rnd.nextInt(3) == 0 ? 0 : 1+rnd.nextInt(6);
+			for (int run = 1+rnd.nextInt(9); run > 0 && i < width*height; --run, ++i)
+				data.putShort((short)label);
+		}
+		Files.write(file, data.array());
+	}
+
+	static final int NO_OF_TIMEPOINTS = 12;
+
+	///creates GT and RES folders with random image pairs and with track files (with forks)
+	static Path createFolders(final Random rnd) throws IOException
+	{
+		final Path root = Files.createTempDirectory("ctc-frames");
+		Files.createDirectories(root.resolve("gt/TRA"));
+		Files.createDirectories(root.resolve("res"));
+		Files.write(root.resolve("gt/TRA/man_track.txt"),
+			"1 0 5 0\n2 6 11 1\n3 6 11 1\n4 0 11 0\n5 2 8 0\n6 9 11 5\n7 9 11 5\n".getBytes(StandardCharsets.UTF_8));
+		Files.write(root.resolve("res/res_track.txt"),
+			"1 0 6 0\n2 7 11 1\n3 7 11 1\n4 0 11 0\n5 0 11 0\n6 3 11 0\n".getBytes(StandardCharsets.UTF_8));
+		for (int t = 0; t < NO_OF_TIMEPOINTS; ++t)
+		{
+			writeImage(root.resolve(String.format("gt/TRA/man_track%03d.tif",t)), rnd, 23, 17);
+			writeImage(root.resolve(String.format("res/mask%03d.tif",t)), rnd, 23, 17);
+		}
+		return root;
+	}
+
+	RawImagesCache calculate(final Path root, final int noOfThreads, final TrackDataCache previous)
+	throws IOException
+	{
+		final RawImagesCache cache = new RawImagesCache(logService);
+		cache.noOfThreads = noOfThreads;
+		cache.maxFramesInFlight = 2;
+		cache.calculate(root.resolve("gt").toString(), root.resolve("res").toString(), previous);
+		return cache;
+	}
+
+	static void checkSameCaches(final TrackDataCache expected, final TrackDataCache cache, final String what)
+	{
+		TestTrackDataCacheSnapshot.checkSameTracks(expected.gt_tracks, cache.gt_tracks, what+", GT");
+		TestTrackDataCacheSnapshot.checkSameTracks(expected.res_tracks, cache.res_tracks, what+", RES");
+		TestTrackDataCacheSnapshot.checkSameForks(expected.gt_forks, cache.gt_forks, what+", GT");
+		TestTrackDataCacheSnapshot.checkSameForks(expected.res_forks, cache.res_forks, what+", RES");
+		TestTrackDataCacheSnapshot.checkSameLevels(expected.levels, cache.levels);
+	}
+
+	public void testParallelEqualsSequential() throws IOException
+	{
+		final Path root = createFolders(new Random(11));
+		try
+		{
+			final RawImagesCache sequential = calculate(root, 1, null);
+			check(sequential.levels.size() == NO_OF_TIMEPOINTS, "all time points should be processed");
+			check(sequential.gt_forks.size() == 2 && sequential.res_forks.size() == 1, "forks were not detected");
+			for (int i = 0; i < NO_OF_TIMEPOINTS; ++i)
+				check(sequential.levels.get(i).m_level == i, "level "+i+" is out of order");
+
+			for (int threads : new int[] { 2, 3, 8 })
+			{
+				final RawImagesCache parallel = calculate(root, threads, null);
+				checkSameCaches(sequential, parallel, threads+" threads");
+				check(parallel.noOfReadImages.get() == 2*NO_OF_TIMEPOINTS, "every image should be read once");
+			}
+		}
+		finally
+		{
+			TestTrackDataCacheSnapshot.deleteFolders(root);
+		}
+	}
+
+	public void testReusedAndRecomputedLevels() throws IOException
+	{
+		final Random rnd = new Random(13);
+		final Path root = createFolders(rnd);
+		try
+		{
+			final RawImagesCache original = calculate(root, 1, null);
+
+			//pair 3 changes (also its size), pair 8 only in RES and with the same file size
+			//(only its modification time tells), and pair 12 is appended
+			writeImage(root.resolve("gt/TRA/man_track003.tif"), rnd, 19, 11);
+			writeImage(root.resolve("res/mask003.tif"), rnd, 19, 11);
+			final Path res8 = root.resolve("res/mask008.tif");
+			final FileTime res8time = Files.getLastModifiedTime(res8);
+			writeImage(res8, rnd, 23, 17);
+			Files.setLastModifiedTime(res8, FileTime.fromMillis(res8time.toMillis() + 60000));
+			writeImage(root.resolve("gt/TRA/man_track012.tif"), rnd, 23, 17);
+			writeImage(root.resolve("res/mask012.tif"), rnd, 23, 17);
+
+			final RawImagesCache fresh = calculate(root, 1, null);
+			check(fresh.levels.size() == NO_OF_TIMEPOINTS+1, "the appended time point should be processed");
+
+			for (int threads : new int[] { 1, 3 })
+			{
+				final RawImagesCache updated = calculate(root, threads, original);
+				final String what = "incremental with "+threads+" threads";
+				checkSameCaches(fresh, updated, what);
+
+				//only the time points 3, 8 and 12 are read again
+				check(updated.noOfReadImages.get() == 2*3, what+": "+updated.noOfReadImages.get()+" images were read");
+				for (int t = 0; t < NO_OF_TIMEPOINTS; ++t)
+					if (t != 3 && t != 8)
+						check(updated.levels.get(t) == original.levels.get(t), what+": level "+t+" should be reused");
+				check(updated.levels.get(3) != original.levels.get(3), what+": level 3 should be recomputed");
+				check(updated.levels.get(8) != original.levels.get(8), what+": level 8 should be recomputed");
+				check(updated.gt_tracks.get(1) == original.gt_tracks.get(1), what+": tracks should be reused");
+			}
+		}
+		finally
+		{
+			TestTrackDataCacheSnapshot.deleteFolders(root);
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		final TestFramesPipeline tst = new TestFramesPipeline();
+		run("parallel equals sequential", tst::testParallelEqualsSequential);
+		run("reused and recomputed levels", tst::testReusedAndRecomputedLevels);
+	}
+}
@@ -0,0 +1,178 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.celltrackingchallenge.measures.TrackDataCache.OverlapHistograms;
+import net.celltrackingchallenge.measures.TrackDataCache.TemporalLevel;
+import net.celltrackingchallenge.measures.util.ParallelChunks;
+
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.scijava.Context;
+import org.scijava.log.LogService;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static net.celltrackingchallenge.measures.Checks.check;
+import static net.celltrackingchallenge.measures.Checks.run;
+
+public class TestParallelSweep
+{
+	final LogService logService;
+	//
+	public TestParallelSweep()
+	{
+		final Context ctx = new Context(LogService.class);
+		logService = ctx.getService(LogService.class);
+	}
+
+	/// image of random blocks of labels (so that the runs of the same pair occur),
+	/// the labels are drawn from [1,noOfLabels] with some background in between
+	static Img<UnsignedShortType> randomImage(final Random rnd, final int noOfLabels, final long... dims)
+	{
+		int length = 1;
+		for (long d : dims) length *= (int)d;
+		final int[] labels = new int[length];
+		for (int i = 0; i < length; )
+		{
+			final int label = rnd.nextInt(4) == 0 ? 0 : 1+rnd.nextInt(noOfLabels);
+			for (int run = 1+rnd.nextInt(6); run > 0 && i < length; --run) labels[i++] = label;
+		}
+		return TestCreateLevelOfMatches.createImage(labels, dims);
+	}
+
+	static Map<Long,Integer> contentOf(final OverlapHistograms hist)
+	{
+		final Map<Long,Integer> overlaps = new HashMap<>();
+		hist.overlaps.forEach( (gt,res,count) -> overlaps.put((long)gt << 32 | res, count) );
+		return overlaps;
+	}
+
+	static final long[][] SHAPES = { {37,23}, {11,7,5}, {64,1}, {9,9,2}, {5,4,3,7}, {300} };
+
+	public void testSweepInParallel()
+	{
+		final Random rnd = new Random(3);
+		try (ParallelChunks workers = new ParallelChunks(3);
+		     ParallelChunks manyWorkers = new ParallelChunks(8))
+		{
+			for (int round = 0; round < 50; ++round)
+				for (long[] shape : SHAPES)
+				{
+					final Img<UnsignedShortType> gt  = randomImage(rnd, 5+round, shape);
+					final Img<UnsignedShortType> res = randomImage(rnd, 7, shape);
+
+					final OverlapHistograms sequential = new OverlapHistograms();
+					sequential.sweep(gt, res);
+
+					for (ParallelChunks w : new ParallelChunks[] { workers, manyWorkers })
+					{
+						final OverlapHistograms parallel = OverlapHistograms.sweepInParallel(gt, res, w);
+						final String what = "shape "+Arrays.toString(shape)+", "+w.getNoOfThreads()+" threads: ";
+						check(Arrays.equals(sequential.gt_size, parallel.gt_size), what+"GT histograms differ");
+						check(Arrays.equals(sequential.res_size, parallel.res_size), what+"RES histograms differ");
+						check(sequential.overlaps.size() == parallel.overlaps.size(), what+"number of overlaps differs");
+						check(contentOf(sequential).equals(contentOf(parallel)), what+"overlaps differ");
+					}
+				}
+		}
+	}
+
+	public void testCreateLevelWithThreads()
+	{
+		final Random rnd = new Random(5);
+		final TrackDataCache cache = new TrackDataCache(logService);
+		for (int round = 0; round < 100; ++round)
+		{
+			final long[] shape = SHAPES[round % SHAPES.length];
+			final Img<UnsignedShortType> gt  = randomImage(rnd, 6, shape);
+			final Img<UnsignedShortType> res = randomImage(rnd, 9, shape);
+
+			final TemporalLevel sequential = cache.CreateLevel(gt, res, false, round, 0.5, 1);
+			final Vector<TemporalLevel> expected = new Vector<>();
+			expected.add(sequential);
+			for (int threads : new int[] { 2, 4, 4, 7 })
+			{
+				final Vector<TemporalLevel> levels = new Vector<>();
+				levels.add( cache.CreateLevel(gt, res, false, round, 0.5, threads) );
+				TestTrackDataCacheSnapshot.checkSameLevels(expected, levels);
+			}
+		}
+	}
+
+	public void testThreadsAreReused() throws InterruptedException
+	{
+		final Set<Thread> threadsSeen = ConcurrentHashMap.newKeySet();
+		try (ParallelChunks workers = new ParallelChunks(3))
+		{
+			for (int round = 0; round < 500; ++round)
+			{
+				final int offset = round;
+				final List<Integer> results = workers.process(7, chunk -> {
+					threadsSeen.add(Thread.currentThread());
+					return offset + chunk;
+				});
+				for (int chunk = 0; chunk < 7; ++chunk)
+					check(results.get(chunk) == offset + chunk, "results must come in the order of the chunks");
+			}
+			check(threadsSeen.size() <= 3, threadsSeen.size()+" threads were used instead of at most 3");
+			check(!threadsSeen.contains(Thread.currentThread()), "the chunks should run in the workers");
+		}
+
+		//the exception of the first failed chunk is re-thrown
+		try (ParallelChunks workers = new ParallelChunks(4))
+		{
+			workers.process(8, chunk -> {
+				if (chunk == 2 || chunk == 5) throw new IllegalStateException("chunk "+chunk);
+				return chunk;
+			});
+			check(false, "the failure was not re-thrown");
+		}
+		catch (IllegalStateException e)
+		{
+			check(e.getMessage().equals("chunk 2"), "expected the failure of chunk 2, got: "+e.getMessage());
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		final TestParallelSweep tst = new TestParallelSweep();
+		run("parallel sweep", tst::testSweepInParallel);
+		run("CreateLevel with threads", tst::testCreateLevelWithThreads);
+		run("threads are reused", tst::testThreadsAreReused);
+	}
+}
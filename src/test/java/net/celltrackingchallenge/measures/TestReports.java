@@ -0,0 +1,228 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.celltrackingchallenge.measures.ReportSink.Kind;
+
+import org.scijava.Context;
+import org.scijava.log.LogService;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.celltrackingchallenge.measures.Checks.check;
+import static net.celltrackingchallenge.measures.Checks.checkLines;
+import static net.celltrackingchallenge.measures.Checks.run;
+
+public class TestReports
+{
+	final LogService logService;
+	//
+	public TestReports()
+	{
+		final Context ctx = new Context(LogService.class);
+		logService = ctx.getService(LogService.class);
+	}
+
+	///the records used in the tests: kind, time, label, otherTime, otherLabel
+	static final int[][] RECORDS = {
+		{ Kind.NS.ordinal(), 3, 17, 3, 0 },
+		{ Kind.FN.ordinal(), 0, 1, 0, 0 },
+		{ Kind.FP.ordinal(), 12, 65535, 12, 0 },
+		{ Kind.ED.ordinal(), 4, 7, 5, 8 },
+		{ Kind.EA.ordinal(), 9, 2, 10, 3 },
+		{ Kind.EC.ordinal(), 1, 5, 2, 6 },
+		{ Kind.GT_MATCH.ordinal(), 6, 4, 6, 0 },
+		{ Kind.GT_MATCH.ordinal(), 6, 4, 6, 9 },
+		{ Kind.RES_MATCH.ordinal(), 7, 11, 7, 0 },
+		{ Kind.RES_MATCH.ordinal(), 7, 12, 7, ReportSink.MULTIPLE },
+		{ Kind.RES_MATCH.ordinal(), 7, 13, 7, 21 },
+		{ Kind.NS.ordinal(), 100, 2, 100, 0 },
+		{ Kind.ED.ordinal(), 999, 1000, 1001, 65535 }
+	};
+
+	/// the texts of the RECORDS exactly as the original TRA and DET were creating them
+	static String originalText(final int[] r)
+	{
+		switch (Kind.values()[r[0]])
+		{
+		case NS:
+		case FP:
+			return String.format("T=%d Label=%d",r[1],r[2]);
+		case FN:
+			return String.format("T=%d GT_label=%d",r[1],r[2]);
+		case ED:
+		case EC:
+			return String.format("[T=%d Label=%d] -> [T=%d Label=%d]",r[1],r[2],r[3],r[4]);
+		case EA:
+			return String.format("[T=%d GT_label=%d] -> [T=%d GT_label=%d]",r[1],r[2],r[3],r[4]);
+		case GT_MATCH:
+			return r[4] == 0 ? String.format("T=%d GT_label=%d matches none",r[1],r[2])
+			                 : String.format("T=%d GT_label=%d matches %d",r[1],r[2],r[4]);
+		default:
+			if (r[4] == 0) return String.format("T=%d Label=%d matches nothing",r[1],r[2]);
+			if (r[4] == ReportSink.MULTIPLE) return String.format("T=%d Label=%d matches multiple",r[1],r[2]);
+			return String.format("T=%d Label=%d matches exactly %d",r[1],r[2],r[4]);
+		}
+	}
+
+	static void recordAll(final ReportSink sink)
+	{
+		for (int[] r : RECORDS) sink.record(Kind.values()[r[0]], r[1], r[2], r[3], r[4]);
+	}
+
+	/// the expected texts of the given section, in the order of recording
+	static List<String> expectedSection(final int section)
+	{
+		final List<String> texts = new ArrayList<>();
+		for (int[] r : RECORDS)
+			if (ReportBuffer.sectionOf(Kind.values()[r[0]]) == section) texts.add(originalText(r));
+		return texts;
+	}
+
+	public void testReportBuffer()
+	{
+		final ReportBuffer buffer = new ReportBuffer();
+		recordAll(buffer);
+
+		for (int s = 0; s < ReportBuffer.NO_OF_SECTIONS; ++s)
+		{
+			final List<String> replayed = new ArrayList<>();
+			buffer.replaySection(s, (kind,time,label,otherTime,otherLabel)
+				-> replayed.add(kind.format(time,label,otherTime,otherLabel)));
+			checkLines(replayed, expectedSection(s), "ReportBuffer, section "+s);
+
+			final List<String> formatted = new ArrayList<>();
+			for (int i = 0; i < buffer.size(s); ++i) formatted.add(buffer.format(s,i));
+			checkLines(formatted, expectedSection(s), "ReportBuffer.format(), section "+s);
+		}
+	}
+
+	public void testReportFileWriter() throws IOException
+	{
+		final Path file = Files.createTempFile("ctc-reports", ".txt");
+		try
+		{
+			try (ReportFileWriter writer = new ReportFileWriter(file.toString()))
+			{
+				recordAll(writer);
+			}
+
+			final List<String> expected = new ArrayList<>();
+			for (int[] r : RECORDS) expected.add(Kind.values()[r[0]].name()+"\t"+originalText(r));
+			checkLines(Files.readAllLines(file, StandardCharsets.UTF_8), expected, "ReportFileWriter");
+		}
+		finally
+		{
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/// gives the test access to the reporting of TRA
+	static class ReportingTRA extends TRA
+	{
+		ReportingTRA(final LogService log)
+		{ super(log); }
+
+		void report(final boolean withMatching)
+		{
+			doLogReports = true;
+			doMatchingReports = withMatching;
+			openReports();
+			recordAll(reports);
+			logReports(Kind.NS, Kind.FN, Kind.FP, Kind.ED, Kind.EA, Kind.EC);
+			if (withMatching) logReports(Kind.GT_MATCH);
+			closeReports();
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	public void testDeprecatedLogs()
+	{
+		final ReportingTRA tra = new ReportingTRA(logService);
+		check(tra.logNS.isEmpty() && tra.logMatch.isEmpty(), "no logs before any calculation");
+
+		tra.report(true);
+		final TRA.PenaltyConfig p = tra.penalty;
+		final String[] headers = {
+			String.format("----------Splitting Operations (Penalty=%g)----------", p.m_ns),
+			String.format("----------False Negative Vertices (Penalty=%g)----------", p.m_fn),
+			String.format("----------False Positive Vertices (Penalty=%g)----------", p.m_fp),
+			String.format("----------Redundant Edges To Be Deleted (Penalty=%g)----------", p.m_ed),
+			String.format("----------Edges To Be Added (Penalty=%g)----------", p.m_ea),
+			String.format("----------Edges with Wrong Semantics (Penalty=%g)----------", p.m_ec),
+			"----------Vertices Matching Status (No Penalty)----------" };
+		final List<List<String>> logs = new ArrayList<>();
+		logs.add(tra.logNS);
+		logs.add(tra.logFN);
+		logs.add(tra.logFP);
+		logs.add(tra.logED);
+		logs.add(tra.logEA);
+		logs.add(tra.logEC);
+		logs.add(tra.logMatch);
+
+		for (int s = 0; s < ReportBuffer.NO_OF_SECTIONS; ++s)
+		{
+			final List<String> expected = new ArrayList<>();
+			expected.add(headers[s]);
+			expected.addAll(expectedSection(s));
+			checkLines(new ArrayList<>(logs.get(s)), expected, "deprecated log of section "+s);
+		}
+
+		//clearing one log keeps the others
+		tra.logNS.clear();
+		check(tra.logNS.isEmpty() && tra.logNS.size() == 0, "logNS must be empty after clear()");
+		check(tra.logFN.size() == 1 + expectedSection(1).size() && tra.logMatch.size() == 1 + expectedSection(6).size(),
+			"other logs must stay after clearing logNS");
+		for (List<String> log : logs) log.clear();
+		for (List<String> log : logs) check(log.isEmpty(), "all logs must be empty after clear()");
+
+		//the logs follow the most recent calculation only
+		tra.report(false);
+		check(tra.logNS.size() == 1 + expectedSection(0).size(), "logNS after the second calculation");
+		check(tra.logMatch.isEmpty(), "logMatch must be empty when the matching was not reported");
+
+		//clearing before a calculation, as with the former lists, is harmless
+		tra.logMatch.clear();
+		tra.report(true);
+		check(tra.logMatch.size() == 1 + expectedSection(6).size(), "logMatch after clear() and the third calculation");
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		final TestReports tst = new TestReports();
+		run("ReportBuffer", tst::testReportBuffer);
+		run("ReportFileWriter", tst::testReportFileWriter);
+		run("deprecated logs", tst::testDeprecatedLogs);
+	}
+}
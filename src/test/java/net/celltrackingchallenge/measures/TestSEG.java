@@ -0,0 +1,175 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.celltrackingchallenge.measures.TestFramesPipeline.RawImagesCache;
+
+import org.scijava.Context;
+import org.scijava.log.LogService;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static net.celltrackingchallenge.measures.Checks.check;
+import static net.celltrackingchallenge.measures.Checks.checkLines;
+import static net.celltrackingchallenge.measures.Checks.run;
+
+public class TestSEG
+{
+	final LogService logService;
+	//
+	public TestSEG()
+	{
+		final Context ctx = new Context(LogService.class);
+		logService = ctx.getService(LogService.class);
+	}
+
+	///log service that keeps the info messages (and ignores anything else)
+	static LogService recordingLog(final List<String> messages)
+	{
+		return (LogService)Proxy.newProxyInstance(LogService.class.getClassLoader(),
+			new Class<?>[] { LogService.class }, (proxy, method, args) -> {
+				if (method.getName().equals("info") && args != null && args.length == 1)
+					synchronized (messages) { messages.add(String.valueOf(args[0])); }
+				return null;
+			} );
+	}
+
+	///SEG that reads the images as the RawImagesCache does
+	class RawImagesSEG extends SEG
+	{
+		RawImagesSEG(final LogService log)
+		{ super(log); }
+
+		@Override
+		TrackDataCache newCache()
+		{
+			return new RawImagesCache(logService);
+		}
+	}
+
+	static final int WIDTH = 31, HEIGHT = 19;
+
+	///creates the GT (of every other time point) and RES folders, RES images
+	///are the GT ones with relabeled segments and some pixels changed
+	static Path createFolders(final Random rnd) throws IOException
+	{
+		final Path root = Files.createTempDirectory("ctc-seg");
+		Files.createDirectories(root.resolve("gt/SEG"));
+		Files.createDirectories(root.resolve("res"));
+		for (int t = 0; t < 20; ++t)
+		{
+			//segments are blocks of 6x4 pixels, a label may cover more of them
+			final int[] gt = new int[WIDTH*HEIGHT];
+			final int[] blockLabels = new int[36];
+			for (int b = 0; b < blockLabels.length; ++b) blockLabels[b] = rnd.nextInt(4) == 0 ? 0 : 1+rnd.nextInt(20);
+			for (int i = 0; i < gt.length; ++i) gt[i] = blockLabels[(i/WIDTH/4)*6 + (i%WIDTH)/6];
+
+			final int[] res = new int[gt.length];
+			for (int i = 0; i < res.length; ++i)
+				res[i] = rnd.nextInt(5) == 0 ? rnd.nextInt(40) : (gt[i] == 0 ? 0 : 100+gt[i]);
+
+			if (t % 2 == 0) writeImage(root.resolve(String.format("gt/SEG/man_seg%03d.tif",t)), gt);
+			writeImage(root.resolve(String.format("res/mask%03d.tif",t)), res);
+		}
+		return root;
+	}
+
+	///writes the image as the RawImagesCache reads it
+	static void writeImage(final Path file, final int[] labels) throws IOException
+	{
+		final ByteBuffer data = ByteBuffer.allocate(4 + 2*labels.length);
+		data.putShort((short)WIDTH).putShort((short)HEIGHT);
+		for (int label : labels) data.putShort((short)label);
+		Files.write(file, data.array());
+	}
+
+	public void testParallelEqualsSequential() throws Exception
+	{
+		final Path root = createFolders(new Random(19));
+		try
+		{
+			final String gtPath = root.resolve("gt").toString();
+			final String resPath = root.resolve("res").toString();
+
+			final List<Set<Integer>> timepoints = new ArrayList<>();
+			timepoints.add(null);
+			timepoints.add(new HashSet<>(Arrays.asList(2, 3, 8, 14, 16)));
+
+			for (Set<Integer> tps : timepoints)
+			{
+				final List<String> expected = new ArrayList<>();
+				final SEG sequential = new RawImagesSEG(recordingLog(expected));
+				sequential.doLogReports = true;
+				sequential.doAllResReports = true;
+				sequential.doOnlyTheseTimepoints = tps;
+				final double expectedSeg = sequential.calculate(gtPath, resPath);
+				check(expectedSeg > 0.0 && expectedSeg < 1.0, tps+": SEG "+expectedSeg+" is too trivial to compare");
+				final int noOfFiles = tps == null ? 10 : 4;
+				check(expected.stream().filter(l -> l.startsWith("----------T=")).count() == noOfFiles,
+					tps+": not all files were reported");
+
+				for (int noOfThreads : new int[] { 2, 3, 8 })
+				for (int maxFramesInFlight : new int[] { 1, 4 })
+				{
+					final String what = tps+", "+noOfThreads+" threads, "+maxFramesInFlight+" in flight";
+					final List<String> messages = new ArrayList<>();
+					final SEG parallel = new RawImagesSEG(recordingLog(messages));
+					parallel.doLogReports = true;
+					parallel.doAllResReports = true;
+					parallel.doOnlyTheseTimepoints = tps;
+					parallel.noOfThreads = noOfThreads;
+					parallel.maxFramesInFlight = maxFramesInFlight;
+					final double seg = parallel.calculate(gtPath, resPath);
+					check(seg == expectedSeg, what+": SEG "+seg+" instead of "+expectedSeg);
+					checkLines(messages, expected, what+": reports");
+				}
+			}
+		}
+		finally
+		{
+			TestTrackDataCacheSnapshot.deleteFolders(root);
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		final TestSEG tst = new TestSEG();
+		run("parallel equals sequential", tst::testParallelEqualsSequential);
+	}
+}
@@ -0,0 +1,152 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.celltrackingchallenge.measures.TestTRA.LineageCache;
+
+import org.scijava.Context;
+import org.scijava.log.LogService;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static net.celltrackingchallenge.measures.Checks.check;
+import static net.celltrackingchallenge.measures.Checks.run;
+
+public class TestTF
+{
+	final LogService logService;
+	//
+	public TestTF()
+	{
+		final Context ctx = new Context(LogService.class);
+		logService = ctx.getService(LogService.class);
+	}
+
+	/**
+	 * Lineages over 10 time points where the RES tracks follow the GT tracks in pieces:
+	 * RES 10 follows GT 1 at 0..2, breaks and resumes at 5..9 (while RES 11 follows it
+	 * in the gap), RES 12 follows GT 2 at 0..5 and resumes at 8..9, RES 13 follows GT 3
+	 * completely, RES 14 and RES 15 follow GT 4 at 1..2 and 3..5, respectively, RES 16
+	 * follows GT 6 completely and then its daughter GT 7 (which it thus cannot reconstruct
+	 * anymore), and RES 17 follows GT 8 except for the time point 1 where it matches
+	 * also GT 9 (and thus none of them uniquely); GT 5 is not followed at all.
+	 */
+	static final int[][] GT_TRACKS = {
+		{ 1, 0, 9, 0 }, { 2, 0, 9, 0 }, { 3, 2, 7, 0 }, { 4, 0, 5, 0 }, { 5, 0, 9, 0 },
+		{ 6, 0, 4, 0 }, { 7, 5, 9, 6 }, { 8, 0, 3, 0 }, { 9, 0, 3, 0 } };
+	static final int[][] RES_TRACKS = {
+		{ 10, 0, 9, 0 }, { 11, 3, 4, 0 }, { 12, 0, 9, 0 }, { 13, 2, 7, 0 },
+		{ 14, 0, 5, 0 }, { 15, 0, 5, 0 }, { 16, 0, 9, 0 }, { 17, 0, 3, 0 } };
+	static final int[][] MATCHES = {
+		{ 1, 10, 0, 2 }, { 1, 10, 5, 9 }, { 1, 11, 3, 4 }, { 2, 12, 0, 5 }, { 2, 12, 8, 9 },
+		{ 3, 13, 2, 7 }, { 4, 14, 1, 2 }, { 4, 15, 3, 5 }, { 6, 16, 0, 4 }, { 7, 16, 5, 9 },
+		{ 8, 17, 0, 3 }, { 9, 17, 1, 1 } };
+
+	// ----------------------------------------------------------------------
+	//the expected values were obtained with the TF before CalcFRs() examined
+	//only the GT tracks uniquely matched by the nodes of every RES track
+
+	///per GT track 1..9: the starting ratio and the followed ratio
+	static final float[][] EXPECTED_RATIOS = {
+		{ 0.5f, 0.5f }, { 0.f, 0.6f }, { 0.f, 1.f }, { 0.5f, 0.5f }, { 0.f, 0.f },
+		{ 0.f, 1.f }, { 0.f, 0.f }, { 0.5f, 0.5f }, { 0.f, 0.f } };
+
+	public void testHandmadeLineages() throws Exception
+	{
+		final LineageCache cache = TestTRA.calculateCache(logService, GT_TRACKS, RES_TRACKS, MATCHES, 10);
+
+		final TF tf = new TF(logService);
+		final double value = tf.calculate(cache.gtFolder, cache.resFolder, cache);
+		check(value == 0.6833333373069763, "TF "+value);
+
+		final Map<Integer,Float> gt_startingRatio = new HashMap<>();
+		final Map<Integer,Float> gt_followedRatio = new HashMap<>();
+		tf.CalcFRs(cache.levels, cache.gt_tracks, cache.res_tracks, gt_startingRatio, gt_followedRatio);
+		check(gt_startingRatio.size() == GT_TRACKS.length && gt_followedRatio.size() == GT_TRACKS.length,
+			"not every GT track has its ratios");
+		for (int id = 1; id <= GT_TRACKS.length; ++id)
+		{
+			check(gt_startingRatio.get(id) == EXPECTED_RATIOS[id-1][0],
+				"GT track "+id+": starting ratio "+gt_startingRatio.get(id));
+			check(gt_followedRatio.get(id) == EXPECTED_RATIOS[id-1][1],
+				"GT track "+id+": followed ratio "+gt_followedRatio.get(id));
+		}
+
+		//the output maps are re-filled, not appended to
+		gt_startingRatio.put(99, 1.f);
+		tf.CalcFRs(cache.levels, cache.gt_tracks, cache.res_tracks, gt_startingRatio, gt_followedRatio);
+		check(!gt_startingRatio.containsKey(99), "the output maps were not cleared");
+	}
+
+	///per random lineages: the TF, and the sums of the starting and of the followed ratios
+	static final double[][] RANDOM_VALUES = {
+		{ 0.8944444474246767, 1.2000000327825546, 16.10000005364418 },
+		{ 0.9035461009182828, 2.2333333790302277, 42.466666743159294 },
+		{ 0.9036144596266459, 2.833333373069763,  75.00000014901161 },
+		{ 0.9607843143098495, 0.5,                32.66666668653488 },
+		{ 0.8777777808053153, 1.7333333641290665, 18.43333339691162 },
+		{ 0.9096153871371195, 1.033333346247673,  23.65000006556511 } };
+
+	public void testRandomLineages() throws Exception
+	{
+		final Random rnd = new Random(11);
+		for (int i = 0; i < RANDOM_VALUES.length; ++i)
+		{
+			final int[][][] lineages = TestTRA.randomLineages(rnd, 15, 6);
+			final LineageCache cache = TestTRA.calculateCache(logService, lineages[0], lineages[1], lineages[2], 15);
+
+			final TF tf = new TF(logService);
+			final double value = tf.calculate(cache.gtFolder, cache.resFolder, cache);
+			check(value == RANDOM_VALUES[i][0], "lineages "+i+": TF "+value);
+
+			final Map<Integer,Float> gt_startingRatio = new HashMap<>();
+			final Map<Integer,Float> gt_followedRatio = new HashMap<>();
+			tf.CalcFRs(cache.levels, cache.gt_tracks, cache.res_tracks, gt_startingRatio, gt_followedRatio);
+			check(sumInOrderOfIDs(gt_startingRatio) == RANDOM_VALUES[i][1], "lineages "+i+": starting ratios");
+			check(sumInOrderOfIDs(gt_followedRatio) == RANDOM_VALUES[i][2], "lineages "+i+": followed ratios");
+		}
+	}
+
+	static double sumInOrderOfIDs(final Map<Integer,Float> ratios)
+	{
+		double sum = 0;
+		for (float r : new TreeMap<>(ratios).values()) sum += r;
+		return sum;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		final TestTF tst = new TestTF();
+		run("handmade lineages", tst::testHandmadeLineages);
+		run("random lineages", tst::testRandomLineages);
+	}
+}
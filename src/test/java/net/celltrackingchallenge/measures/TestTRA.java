@@ -0,0 +1,585 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.celltrackingchallenge.measures.ReportSink.Kind;
+import net.celltrackingchallenge.measures.util.LabelPairsCounter;
+
+import net.imglib2.img.Img;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.scijava.Context;
+import org.scijava.log.LogService;
+import org.scijava.log.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static net.celltrackingchallenge.measures.Checks.check;
+import static net.celltrackingchallenge.measures.Checks.checkLines;
+import static net.celltrackingchallenge.measures.Checks.run;
+
+public class TestTRA
+{
+	final LogService logService;
+	//
+	public TestTRA()
+	{
+		final Context ctx = new Context(LogService.class);
+		logService = ctx.getService(LogService.class);
+	}
+
+	/**
+	 * Cache that reads no images and makes up its levels from the given tracks instead:
+	 * every track {id, begin, end, parent} is present (with 100 pixels) during its lifetime,
+	 * and the GT label of every 'matches' row {gt, res, from, to} is matched to the RES label
+	 * (by overlapping 60 of its pixels) during from..to as long as both labels are present.
+	 */
+	static class LineageCache extends TrackDataCache
+	{
+		LineageCache(final Logger log, final int[][] gtTracks, final int[][] resTracks, final int[][] matches)
+		{
+			super(log);
+			this.gtTracks = gtTracks;
+			this.resTracks = resTracks;
+			this.matches = matches;
+		}
+
+		final int[][] gtTracks, resTracks, matches;
+
+		///the folders the cache was calculated for
+		String gtFolder, resFolder;
+
+		@Override
+		public Img<?> ReadImage(final String fname)
+		{ return null; }
+
+		@Override
+		public Img<UnsignedShortType> CheckImageG16(final Img<?> img, final String fname)
+		{ return null; }
+
+		@Override
+		public TemporalLevel CreateLevel(IterableInterval<UnsignedShortType> gt_img,
+		                                 RandomAccessibleInterval<UnsignedShortType> res_img,
+		                                 final boolean _shouldComplainOnEmptyImages,
+		                                 final int time,
+		                                 final double overlapRatio,
+		                                 final int noOfThreads)
+		{
+			final TemporalLevel level = new TemporalLevel(time);
+			level.m_gt_lab  = labelsAt(gtTracks,time);
+			level.m_res_lab = labelsAt(resTracks,time);
+			level.m_gt_size  = new int[level.m_gt_lab.length];
+			level.m_res_size = new int[level.m_res_lab.length];
+			Arrays.fill(level.m_gt_size, 100);
+			Arrays.fill(level.m_res_size, 100);
+			level.buildLabelIndices();
+
+			//the later row wins if more rows match the same GT label
+			level.m_gt_match = new int[level.m_gt_lab.length];
+			Arrays.fill(level.m_gt_match, -1);
+			for (int[] m : matches)
+			{
+				final int g = level.gt_lookupLabel(m[0]);
+				final int r = level.res_lookupLabel(m[1]);
+				if (m[2] <= time && time <= m[3] && g >= 0 && r >= 0) level.m_gt_match[g] = r;
+			}
+
+			final LabelPairsCounter overlaps = new LabelPairsCounter();
+			for (int g = 0; g < level.m_gt_lab.length; ++g)
+				if (level.m_gt_match[g] >= 0) overlaps.add(level.m_gt_lab[g], level.m_res_lab[level.m_gt_match[g]], 60);
+			level.buildMatchingMatrix(overlaps);
+			level.buildResMatch();
+			return level;
+		}
+
+		///sorted labels of the tracks present at the given time point
+		static int[] labelsAt(final int[][] tracks, final int time)
+		{
+			return Arrays.stream(tracks).filter(t -> t[1] <= time && time <= t[2])
+				.mapToInt(t -> t[0]).sorted().toArray();
+		}
+	}
+
+	///creates the GT and RES folders with the track files and (dummy) images
+	static Path createFolders(final int[][] gtTracks, final int[][] resTracks, final int noOfTimepoints)
+	throws IOException
+	{
+		final Path root = Files.createTempDirectory("ctc-tra");
+		Files.createDirectories(root.resolve("gt/TRA"));
+		Files.createDirectories(root.resolve("res"));
+		Files.write(root.resolve("gt/TRA/man_track.txt"), trackFile(gtTracks).getBytes(StandardCharsets.UTF_8));
+		Files.write(root.resolve("res/res_track.txt"), trackFile(resTracks).getBytes(StandardCharsets.UTF_8));
+		for (int t = 0; t < noOfTimepoints; ++t)
+		{
+			Files.write(root.resolve(String.format("gt/TRA/man_track%03d.tif",t)), new byte[10]);
+			Files.write(root.resolve(String.format("res/mask%03d.tif",t)), new byte[10]);
+		}
+		return root;
+	}
+
+	static String trackFile(final int[][] tracks)
+	{
+		final StringBuilder sb = new StringBuilder();
+		for (int[] t : tracks) sb.append(t[0]).append(' ').append(t[1]).append(' ')
+		                         .append(t[2]).append(' ').append(t[3]).append('\n');
+		return sb.toString();
+	}
+
+	///the upper stage over the given lineages, with the folders deleted already
+	static LineageCache calculateCache(final Logger log,
+	                                   final int[][] gtTracks, final int[][] resTracks, final int[][] matches,
+	                                   final int noOfTimepoints)
+	throws IOException
+	{
+		final Path root = createFolders(gtTracks, resTracks, noOfTimepoints);
+		try
+		{
+			final LineageCache cache = new LineageCache(log, gtTracks, resTracks, matches);
+			cache.gtFolder = root.resolve("gt").toString();
+			cache.resFolder = root.resolve("res").toString();
+			cache.calculate(cache.gtFolder, cache.resFolder);
+			return cache;
+		}
+		finally
+		{
+			TestTrackDataCacheSnapshot.deleteFolders(root);
+		}
+	}
+
+	///collects the records, the matching status of GT and RES labels together (as in the logMatch)
+	static class Records implements ReportSink
+	{
+		final Map<Kind,List<String>> sections = new EnumMap<>(Kind.class);
+
+		@Override
+		public void record(final Kind kind, final int time, final int label, final int otherTime, final int otherLabel)
+		{
+			sections.computeIfAbsent(kind == Kind.RES_MATCH ? Kind.GT_MATCH : kind, k -> new ArrayList<>())
+				.add(kind.format(time,label,otherTime,otherLabel));
+		}
+
+		List<String> get(final Kind section)
+		{
+			return sections.getOrDefault(section, new ArrayList<>());
+		}
+	}
+
+	///runs the measure over the (valid) cache, with all reports collected into 'records'
+	static double calculate(final TRA measure, final LineageCache cache, final Records records)
+	throws Exception
+	{
+		measure.doLogReports = true;
+		measure.doMatchingReports = true;
+		measure.reportSink = records;
+		return measure.calculate(cache.gtFolder, cache.resFolder, cache);
+	}
+
+	static void checkCounts(final TRA.ErrorCounts c, final long[] expected, final String what)
+	{
+		final long[] counts = { c.m_ns, c.m_fn, c.m_fp, c.m_ed, c.m_ea, c.m_ec, c.m_maxSplit, c.m_gtNodes, c.m_gtEdges };
+		check(Arrays.equals(counts, expected), what+": error counts "+Arrays.toString(counts)
+			+" instead of "+Arrays.toString(expected));
+	}
+
+	// ----------------------------------------------------------------------
+	///GT lineage: 1 divides into 2 and 3, 4 lives throughout, 5 and 6 are short, 7 is missed completely,
+	///9 appears right after 8 has disappeared
+	static final int[][] GT_TRACKS = {
+		{1,0,2,0}, {2,3,7,1}, {3,3,5,1}, {4,0,7,0}, {5,2,4,0}, {6,5,7,0}, {7,6,7,0},
+		{8,0,3,0}, {9,4,7,0} };
+
+	///RES lineage: 12 breaks (13 continues it), 14 continues as its daughter 15,
+	///16 is lost at T=4, 17 merges GT 4 and 6 at T=6, 18 is made up, 19 joins GT 8 and 9
+	static final int[][] RES_TRACKS = {
+		{10,0,2,0}, {11,3,7,10}, {12,3,4,10}, {13,5,5,0}, {14,0,3,0}, {15,4,7,14},
+		{16,2,4,0}, {17,5,7,0}, {18,1,2,0}, {19,0,7,0} };
+
+	static final int[][] MATCHES = {
+		{1,10,0,2}, {2,11,3,7}, {3,12,3,4}, {3,13,5,5}, {4,14,0,3}, {4,15,4,5}, {4,17,6,6}, {4,15,7,7},
+		{5,16,2,3}, {6,17,5,7}, {8,19,0,3}, {9,19,4,7} };
+
+	/**
+	 * Returns {GT tracks, RES tracks, matches} of randomly grown GT lineages and of
+	 * a RES that follows them with made-up errors: missed or extra nodes, broken
+	 * tracks, lost or wrong parental links, identity switches, wrong matches and
+	 * made-up tracks.
+	 */
+	static int[][][] randomLineages(final Random rnd, final int noOfTimepoints, final int noOfLineages)
+	{
+		final List<int[]> gt = new ArrayList<>();
+		int lastId = 0;
+		for (int i = 0; i < noOfLineages; ++i)
+			lastId = growLineage(rnd, gt, noOfTimepoints, lastId, rnd.nextInt(noOfTimepoints/2+1), 0);
+
+		final List<int[]> res = new ArrayList<>();
+		final List<int[]> matches = new ArrayList<>();
+		for (int[] g : gt)
+		{
+			if (rnd.nextInt(8) == 0) continue;
+			final int id = g[0]+1000;
+			final int begin = g[1] + (rnd.nextInt(6) == 0 && g[1] < g[2] ? 1 : 0);
+			final int end   = g[2] - (rnd.nextInt(6) == 0 && begin < g[2] ? 1 : 0);
+			final boolean isParentFollowed = g[3] > 0 && begin == g[1] && rnd.nextInt(10) != 0
+				&& res.stream().anyMatch(r -> r[0] == g[3]+1000 && r[2]+1 == begin);
+			final int parent = isParentFollowed ? g[3]+1000 : 0;
+
+			if (end - begin > 1 && rnd.nextInt(5) == 0)
+			{
+				//broken into two tracks, the second one maybe (wrongly) as a daughter
+				final int breakAt = begin+1 + rnd.nextInt(end-begin);
+				res.add(new int[] {id, begin, breakAt-1, parent});
+				res.add(new int[] {id+2000, breakAt, end, rnd.nextBoolean() ? id : 0});
+				matches.add(new int[] {g[0], id, begin, breakAt-1});
+				matches.add(new int[] {g[0], id+2000, breakAt, end});
+			}
+			else
+			{
+				res.add(new int[] {id, begin, end, parent});
+				matches.add(new int[] {g[0], id, begin, end});
+			}
+		}
+
+		//identity switches between two tracks that live side by side
+		for (int i = 0; i < gt.size()/4; ++i)
+		{
+			final int[] a = matches.get(rnd.nextInt(matches.size()));
+			final int[] b = matches.get(rnd.nextInt(matches.size()));
+			final int from = Math.max(a[2],b[2]) + 1, to = Math.min(a[3],b[3]);
+			if (a[0] == b[0] || from > to) continue;
+			final int time = from + rnd.nextInt(to-from+1);
+			matches.add(new int[] {a[0], b[1], time, to});
+			matches.add(new int[] {b[0], a[1], time, to});
+		}
+
+		//made-up tracks, and wrong matches (also to them)
+		for (int i = 0; i < noOfLineages/2; ++i)
+		{
+			final int begin = rnd.nextInt(noOfTimepoints);
+			res.add(new int[] {5000+i, begin, begin + rnd.nextInt(noOfTimepoints-begin), 0});
+		}
+		for (int i = 0; i < gt.size()/4; ++i)
+		{
+			final int time = rnd.nextInt(noOfTimepoints);
+			final int[] g = gt.get(rnd.nextInt(gt.size()));
+			final int[] r = res.get(rnd.nextInt(res.size()));
+			matches.add(new int[] {g[0], r[0], time, time + rnd.nextInt(2)});
+		}
+
+		return new int[][][] { gt.toArray(new int[0][]), res.toArray(new int[0][]), matches.toArray(new int[0][]) };
+	}
+
+	///adds the track with its (possibly dividing) progeny, returns the last used ID
+	static int growLineage(final Random rnd, final List<int[]> tracks, final int noOfTimepoints,
+	                       int lastId, final int begin, final int parent)
+	{
+		final int end = begin + rnd.nextInt(Math.min(noOfTimepoints-begin, 6));
+		final int id = ++lastId;
+		tracks.add(new int[] {id, begin, end, parent});
+		if (end < noOfTimepoints-1 && rnd.nextInt(3) != 0)
+			for (int c = 0; c < 2; ++c)
+				lastId = growLineage(rnd, tracks, noOfTimepoints, lastId, end+1, id);
+		return lastId;
+	}
+
+	// ----------------------------------------------------------------------
+	//the expected values were obtained with the TRA before its bottom stage was
+	//rewritten over the dense track tables (and before the ErrorCounts existed,
+	//the counts were read out as the AOGMs of the unit penalties)
+
+	public void testHandmadeLineages() throws Exception
+	{
+		final LineageCache cache = calculateCache(logService, GT_TRACKS, RES_TRACKS, MATCHES, 8);
+		final long[] expectedCounts = { 1, 3, 4, 1, 7, 1, 2, 35, 28 };
+
+		final TRA tra = new TRA(logService);
+		final Records records = new Records();
+		final double value = calculate(tra, cache, records);
+		check(value == 0.8686224489795918, "TRA "+value);
+		checkCounts(tra.getErrorCounts(), expectedCounts, "TRA");
+		checkRecords(records);
+
+		final TRA aogm = new TRA(logService);
+		aogm.doAOGM = true;
+		final Records aogmRecords = new Records();
+		final double aogmValue = calculate(aogm, cache, aogmRecords);
+		check(aogmValue == 51.5, "AOGM "+aogmValue);
+		checkCounts(aogm.getErrorCounts(), expectedCounts, "AOGM");
+		checkRecords(aogmRecords);
+	}
+
+	static void checkRecords(final Records records)
+	{
+		checkLines(records.get(Kind.NS), Arrays.asList("T=6 Label=17"), "NS records");
+		checkLines(records.get(Kind.FN), Arrays.asList(
+			"T=4 GT_label=5",
+			"T=6 GT_label=7",
+			"T=7 GT_label=7"), "FN records");
+		checkLines(records.get(Kind.FP), Arrays.asList(
+			"T=1 Label=18",
+			"T=2 Label=18",
+			"T=4 Label=16",
+			"T=6 Label=15"), "FP records");
+		checkLines(records.get(Kind.ED), Arrays.asList(
+			"[T=3 Label=19] -> [T=4 Label=19]"), "ED records");
+		checkLines(records.get(Kind.EA), Arrays.asList(
+			"[T=4 GT_label=3] -> [T=5 GT_label=3]",
+			"[T=5 GT_label=4] -> [T=6 GT_label=4]",
+			"[T=6 GT_label=4] -> [T=7 GT_label=4]",
+			"[T=3 GT_label=5] -> [T=4 GT_label=5]",
+			"[T=5 GT_label=6] -> [T=6 GT_label=6]",
+			"[T=6 GT_label=6] -> [T=7 GT_label=6]",
+			"[T=6 GT_label=7] -> [T=7 GT_label=7]"), "EA records");
+		checkLines(records.get(Kind.EC), Arrays.asList(
+			"[T=3 Label=14] -> [T=4 Label=15]"), "EC records");
+
+		final List<String> matching = records.get(Kind.GT_MATCH);
+		check(matching.size() == 70, matching.size()+" matching records instead of 70");
+		checkLines(matching.stream().filter(l -> l.startsWith("T=6 ")).collect(Collectors.toList()), Arrays.asList(
+			"T=6 GT_label=2 matches 11",
+			"T=6 GT_label=4 matches 17",
+			"T=6 GT_label=6 matches 17",
+			"T=6 GT_label=7 matches none",
+			"T=6 GT_label=9 matches 19",
+			"T=6 Label=11 matches exactly 2",
+			"T=6 Label=15 matches nothing",
+			"T=6 Label=17 matches multiple",
+			"T=6 Label=19 matches exactly 9"), "matching records at T=6");
+	}
+
+	///per random lineages: the TRA, the AOGM and the error counts
+	static final double[][] RANDOM_VALUES = {
+		{ 0.7508169934640523, 152.5 }, { 0.7392234790583919, 426.5 }, { 0.6874051593323217, 824.0 },
+		{ 0.9251141552511416,  82.0 }, { 0.7541163556531284, 224.0 }, { 0.7428571428571429, 252.0 } };
+	static final long[][] RANDOM_COUNTS = {
+		{ 0, 11, 16, 0,  17, 1, 1,  54,  48 },
+		{ 0, 33,  6, 4,  57, 1, 1, 143, 137 },
+		{ 1, 65, 15, 0, 102, 1, 2, 230, 224 },
+		{ 0,  6,  4, 0,  12, 0, 1,  96,  90 },
+		{ 1, 17,  9, 0,  26, 1, 2,  80,  74 },
+		{ 1, 18, 15, 3,  32, 1, 2,  86,  80 } };
+
+	public void testRandomLineages() throws Exception
+	{
+		final Random rnd = new Random(11);
+		for (int i = 0; i < RANDOM_VALUES.length; ++i)
+		{
+			final int[][][] lineages = randomLineages(rnd, 15, 6);
+			final LineageCache cache = calculateCache(logService, lineages[0], lineages[1], lineages[2], 15);
+
+			final TRA tra = new TRA(logService);
+			final Records records = new Records();
+			final double value = calculate(tra, cache, records);
+			check(value == RANDOM_VALUES[i][0], "lineages "+i+": TRA "+value);
+			checkCounts(tra.getErrorCounts(), RANDOM_COUNTS[i], "lineages "+i);
+			check(tra.getErrorCounts().aogm(tra.penalty) == RANDOM_VALUES[i][1], "lineages "+i+": AOGM");
+
+			//every error is reported exactly once
+			final TRA.ErrorCounts c = tra.getErrorCounts();
+			check(records.get(Kind.NS).size() == c.m_ns && records.get(Kind.FN).size() == c.m_fn
+			      && records.get(Kind.FP).size() == c.m_fp && records.get(Kind.ED).size() == c.m_ed
+			      && records.get(Kind.EA).size() == c.m_ea && records.get(Kind.EC).size() == c.m_ec,
+				"lineages "+i+": the records do not match the counts");
+		}
+	}
+
+	// ----------------------------------------------------------------------
+	public void testErrorCounts()
+	{
+		final TRA tra = new TRA(logService);
+		final TRA.PenaltyConfig det = tra.new PenaltyConfig(5.0, 10.0, 1.0, 0.0, 0.0, 0.0);
+		final TRA.ErrorCounts c = new TRA.ErrorCounts(2,3,4, 5,6,7, 3, 100,90);
+
+		//default weights (5, 10, 1, 1, 1.5, 1)
+		check(c.aogm(tra.penalty) == 5*2 + 10*3 + 1*4 + 1*5 + 1.5*6 + 1*7, "AOGM "+c.aogm(tra.penalty));
+		check(c.aogmEmpty(tra.penalty) == 10*100 + 1.5*90, "AOGM of empty result "+c.aogmEmpty(tra.penalty));
+		check(c.normalized(tra.penalty) == 1.0 - 65.0/1135.0, "TRA "+c.normalized(tra.penalty));
+
+		//DET's zero edge weights ignore the edges
+		check(c.aogm(det) == 44.0 && c.aogmEmpty(det) == 1000.0, "AOGM-D");
+		check(c.normalized(det) == 1.0 - 44.0/1000.0, "DET "+c.normalized(det));
+
+		//curating more expensive than creating
+		final TRA.ErrorCounts worse = new TRA.ErrorCounts(2,3,4, 5,6,7, 3, 5,4);
+		check(worse.aogm(tra.penalty) > worse.aogmEmpty(tra.penalty) && worse.normalized(tra.penalty) == 0.0,
+			"TRA of a result worse than empty "+worse.normalized(tra.penalty));
+
+		//no errors at all
+		final TRA.ErrorCounts none = new TRA.ErrorCounts(0,0,0, 0,0,0, 1, 100,90);
+		check(none.aogm(tra.penalty) == 0.0 && none.normalized(tra.penalty) == 1.0 && none.normalized(det) == 1.0,
+			"TRA of a perfect result");
+	}
+
+	public void testMinimality()
+	{
+		final TRA tra = new TRA(logService);
+		//broken iff (m-1)*ns > fp + m*fn, the edge weights never matter
+		final double[][] penalties = {
+			{ 5.0, 10.0, 1.0, 1.0, 1.5, 1.0 }, { 5.0, 10.0, 1.0, 0.0, 0.0, 0.0 },
+			{ 11.0, 5.0, 1.0, 1.0, 1.5, 1.0 }, { 11.5, 5.0, 1.0, 0.0, 0.0, 0.0 },
+			{ 20.0, 1.0, 1.0, 9.0, 9.0, 9.0 }, { 0.0, 0.0, 0.0, 0.0, 0.0, 0.0 } };
+		final boolean[][] expected = { //for m* = 1, 2, 3
+			{ false, false, false }, { false, false, false },
+			{ false, false, true  }, { false, true,  true  },
+			{ false, true,  true  }, { false, false, false } };
+
+		for (int i = 0; i < penalties.length; ++i)
+			for (int m = 1; m <= 3; ++m)
+			{
+				final double[] w = penalties[i];
+				final TRA.PenaltyConfig p = tra.new PenaltyConfig(w[0],w[1],w[2],w[3],w[4],w[5]);
+				final TRA.ErrorCounts c = new TRA.ErrorCounts(m-1,0,0, 0,0,0, m, 10,9);
+				check(c.isMinimalityBroken(p) == expected[i][m-1],
+					"minimality of m*="+m+" with "+Arrays.toString(w));
+			}
+	}
+
+	///penalties and the (old) TRA and AOGM of the handmade lineages with them
+	static final double[][] REWEIGHTED = {
+		{ 5.0, 10.0, 1.0, 1.0, 1.5, 1.0,   0.8686224489795918, 51.5 },
+		{ 2.0, 0.5,  4.0, 0.0, 8.0, 0.25,  0.6863354037267081, 75.75 },
+		{ 5.0, 10.0, 1.0, 0.0, 0.0, 0.0,   0.8885714285714286, 39.0 },
+		{ 5.3, 10.1, 1.7, 1.1, 1.5, 0.3,   0.8627054361567636, 54.29999999999999 },
+		{ 0.1, 0.2,  0.7, 0.9, 1.3, 2.2,   0.6382488479262673, 15.7 } };
+
+	public void testReweighting() throws Exception
+	{
+		final LineageCache cache = calculateCache(logService, GT_TRACKS, RES_TRACKS, MATCHES, 8);
+		final TRA once = new TRA(logService);
+		once.calculate(cache.gtFolder, cache.resFolder, cache);
+		final TRA.ErrorCounts counts = once.getErrorCounts();
+
+		for (double[] w : REWEIGHTED)
+		{
+			final TRA tra = new TRA(logService);
+			tra.penalty = tra.new PenaltyConfig(w[0],w[1],w[2],w[3],w[4],w[5]);
+			final double value = tra.calculate(cache.gtFolder, cache.resFolder, cache);
+			tra.doAOGM = true;
+			final double aogm = tra.calculate(cache.gtFolder, cache.resFolder, cache);
+
+			//the counts of one run give what a run with the other penalties gives
+			check(counts.normalized(tra.penalty) == value, Arrays.toString(w)+": re-weighted TRA");
+			check(counts.aogm(tra.penalty) == aogm, Arrays.toString(w)+": re-weighted AOGM");
+
+			//and what the old code gave, up to the last ulps if the weights are not binary fractions
+			final boolean isBinary = Arrays.stream(w, 0, 6).allMatch(x -> x*4 == Math.rint(x*4));
+			final double tolerance = isBinary ? 0.0 : 1e-12;
+			check(Math.abs(value - w[6]) <= tolerance*w[6], Arrays.toString(w)+": TRA "+value+" instead of "+w[6]);
+			check(Math.abs(aogm - w[7]) <= tolerance*w[7], Arrays.toString(w)+": AOGM "+aogm+" instead of "+w[7]);
+		}
+	}
+
+	public void testDETSharesTheRun() throws Exception
+	{
+		final LineageCache cache = calculateCache(logService, GT_TRACKS, RES_TRACKS, MATCHES, 8);
+		final TRA tra = new TRA(logService);
+		tra.calculate(cache.gtFolder, cache.resFolder, cache);
+		final TRA.ErrorCounts t = tra.getErrorCounts();
+
+		final DET det = new DET(logService);
+		final double value = det.calculate(cache.gtFolder, cache.resFolder, cache);
+		final TRA.ErrorCounts d = det.getErrorCounts();
+		checkCounts(d, new long[] { t.m_ns, t.m_fn, t.m_fp, 0, 0, 0, t.m_maxSplit, t.m_gtNodes, 0 }, "DET");
+
+		//the TRA counts re-weighted with zero edge weights give the DET (that the old code gave)
+		final TRA.PenaltyConfig zeroEdges = tra.new PenaltyConfig(5.0, 10.0, 1.0, 0.0, 0.0, 0.0);
+		check(value == 0.8885714285714286 && t.normalized(zeroEdges) == value, "DET "+value);
+		check(d.normalized(det.penalty) == value && d.normalized(zeroEdges) == value, "DET of its own counts");
+
+		det.doAOGM = true;
+		final double aogm = det.calculate(cache.gtFolder, cache.resFolder, cache);
+		check(aogm == 39.0 && t.aogm(zeroEdges) == aogm, "AOGM-D "+aogm);
+	}
+
+	// ----------------------------------------------------------------------
+	public void testParallelEdges() throws Exception
+	{
+		final Random rnd = new Random(23);
+		for (int i = 0; i < 4; ++i)
+		{
+			final int[][][] lineages = randomLineages(rnd, 20, 12);
+			final LineageCache cache = calculateCache(logService, lineages[0], lineages[1], lineages[2], 20);
+
+			final TRA sequential = new TRA(logService);
+			sequential.doAOGM = true;
+			final Records expected = new Records();
+			final double expectedAOGM = calculate(sequential, cache, expected);
+			final TRA.ErrorCounts c = sequential.getErrorCounts();
+			check(c.m_ed+c.m_ea+c.m_ec > 0, "lineages "+i+": no edge errors to compare");
+
+			for (int noOfThreads : new int[] { 2, 3, 8 })
+			{
+				final String what = "lineages "+i+", "+noOfThreads+" threads";
+				final TRA parallel = new TRA(logService);
+				parallel.doAOGM = true;
+				parallel.noOfThreads = noOfThreads;
+				final Records records = new Records();
+				check(calculate(parallel, cache, records) == expectedAOGM, what+": AOGM");
+				final TRA.ErrorCounts p = parallel.getErrorCounts();
+				checkCounts(p, new long[] { c.m_ns, c.m_fn, c.m_fp, c.m_ed, c.m_ea, c.m_ec,
+				                            c.m_maxSplit, c.m_gtNodes, c.m_gtEdges }, what);
+				for (Kind section : new Kind[] { Kind.NS, Kind.FN, Kind.FP, Kind.ED, Kind.EA, Kind.EC, Kind.GT_MATCH })
+					checkLines(records.get(section), expected.get(section), what+", "+section+" records");
+
+				//the same order also when reported into the log service
+				final TRA logged = new TRA(logService);
+				logged.doAOGM = true;
+				logged.doLogReports = true;
+				logged.noOfThreads = noOfThreads;
+				logged.calculate(cache.gtFolder, cache.resFolder, cache);
+				checkLines(new ArrayList<>(logged.logED).subList(1, logged.logED.size()), expected.get(Kind.ED), what+", logED");
+				checkLines(new ArrayList<>(logged.logEA).subList(1, logged.logEA.size()), expected.get(Kind.EA), what+", logEA");
+				checkLines(new ArrayList<>(logged.logEC).subList(1, logged.logEC.size()), expected.get(Kind.EC), what+", logEC");
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		final TestTRA tst = new TestTRA();
+		run("handmade lineages", tst::testHandmadeLineages);
+		run("random lineages", tst::testRandomLineages);
+		run("error counts", tst::testErrorCounts);
+		run("minimality condition", tst::testMinimality);
+		run("re-weighted error counts", tst::testReweighting);
+		run("DET shares the TRA run", tst::testDETSharesTheRun);
+		run("parallel edge classification", tst::testParallelEdges);
+	}
+}
@@ -0,0 +1,352 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.celltrackingchallenge.measures.TestTrackDataCacheSnapshot.SyntheticCache;
+
+import org.scijava.Context;
+import org.scijava.log.LogService;
+import org.scijava.log.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.celltrackingchallenge.measures.Checks.check;
+import static net.celltrackingchallenge.measures.Checks.checkIllegalArgument;
+import static net.celltrackingchallenge.measures.Checks.run;
+
+public class TestTrackDataCacheRegistry
+{
+	final LogService logService;
+	//
+	public TestTrackDataCacheRegistry()
+	{
+		final Context ctx = new Context(LogService.class);
+		logService = ctx.getService(LogService.class);
+	}
+
+	///own (enabled) registry, not the process-wide one, that creates the synthetic caches
+	static class SyntheticRegistry extends TrackDataCacheRegistry
+	{
+		SyntheticRegistry()
+		{
+			setEnabled(true);
+		}
+
+		///the caches created since the last call of takeNoOfCreatedLevels()
+		private final List<SyntheticCache> created = new ArrayList<>();
+
+		@Override
+		TrackDataCache newCache(final TrackDataCache template, final Logger log)
+		{
+			final SyntheticCache cache = new SyntheticCache(log);
+			cache.setupSimilarAs(template);
+			synchronized (created) { created.add(cache); }
+			return cache;
+		}
+
+		///returns how many levels the caches created since the last call have created
+		int takeNoOfCreatedLevels()
+		{
+			synchronized (created)
+			{
+				int cnt = 0;
+				for (SyntheticCache cache : created) cnt += cache.noOfCreatedLevels;
+				created.clear();
+				return cnt;
+			}
+		}
+	}
+
+	TrackDataCache get(final TrackDataCacheRegistry registry, final String gtPath, final String resPath)
+	throws IOException
+	{
+		return registry.getOrCalculate(gtPath, resPath, new TrackDataCache(logService), logService);
+	}
+
+	///checks that 'copy' is another copy of the same (registered) cache as 'cache'
+	static boolean isCopyOf(final TrackDataCache copy, final TrackDataCache cache)
+	{
+		if (copy == null || copy == cache || copy.levels == cache.levels
+		    || copy.levels.size() != cache.levels.size()) return false;
+		for (int t = 0; t < cache.levels.size(); ++t)
+			if (copy.levels.get(t) != cache.levels.get(t)) return false;
+		return copy.gt_tracks.equals(cache.gt_tracks) && copy.res_tracks.equals(cache.res_tracks)
+		    && copy.gt_forks.equals(cache.gt_forks) && copy.res_forks.equals(cache.res_forks);
+	}
+
+	static final int ALL_LEVELS = TestTrackDataCacheSnapshot.NO_OF_TIMEPOINTS;
+
+	public void testKeys() throws IOException
+	{
+		final Path root = TestTrackDataCacheSnapshot.createFolders();
+		try
+		{
+			final SyntheticRegistry registry = new SyntheticRegistry();
+			final String gtPath = root.resolve("gt").toString();
+			final String resPath = root.resolve("res").toString();
+
+			final TrackDataCache cache = get(registry, gtPath, resPath);
+			check(registry.takeNoOfCreatedLevels() == ALL_LEVELS, "the first request should calculate all levels");
+			check(registry.size() == 1 && registry.getUsedMemory() == TrackDataCacheRegistry.estimateSize(cache),
+				"one cache should be registered");
+
+			//other spellings of the same folders
+			final String[][] spellings = {
+				{ gtPath+"/", resPath+"/" },
+				{ root+"/./gt", root+"/res/." },
+				{ root+"/res/../gt", root+"/gt/../res" },
+				{ root+"//gt", root+"/./res//" } };
+			for (String[] paths : spellings)
+			{
+				check(isCopyOf(get(registry, paths[0], paths[1]), cache), "other cache for "+paths[0]+" and "+paths[1]);
+				check(isCopyOf(registry.find(paths[0], paths[1], cache), cache), "not found for "+paths[0]+" and "+paths[1]);
+			}
+			check(registry.takeNoOfCreatedLevels() == 0 && registry.size() == 1, "nothing should be calculated again");
+
+			//the relative spelling too, if the folders are reachable that way
+			final Path cwd = Paths.get("").toAbsolutePath();
+			if (root.getRoot().equals(cwd.getRoot()))
+			{
+				final Path relRoot = cwd.relativize(root);
+				check(isCopyOf(registry.find(relRoot.resolve("gt").toString(), relRoot.resolve("res").toString(), cache), cache),
+					"not found for the relative paths");
+			}
+
+			//other parameters, other key
+			final TrackDataCache otherParams = new TrackDataCache(logService);
+			otherParams.overlapRatio = 0.7;
+			check(registry.find(gtPath, resPath, otherParams) == null, "found for other overlapRatio");
+			final TrackDataCache other = registry.getOrCalculate(gtPath, resPath, otherParams, logService);
+			check(!isCopyOf(other, cache) && other.overlapRatio == 0.7 && registry.size() == 2,
+				"the cache of other parameters should be registered separately");
+
+			//swapped folders are not the same
+			check(registry.find(resPath, gtPath, cache) == null, "found for swapped folders");
+		}
+		finally
+		{
+			TestTrackDataCacheSnapshot.deleteFolders(root);
+		}
+	}
+
+	public void testOwnCopies() throws IOException
+	{
+		final Path root = TestTrackDataCacheSnapshot.createFolders();
+		try
+		{
+			final SyntheticRegistry registry = new SyntheticRegistry();
+			final String gtPath = root.resolve("gt").toString();
+			final String resPath = root.resolve("res").toString();
+
+			final TrackDataCache first = get(registry, gtPath, resPath);
+			final TrackDataCache second = get(registry, gtPath, resPath);
+			check(isCopyOf(second, first), "both callers should get the same content");
+			check(second.validFor(gtPath, resPath) && second.fingerprint == first.fingerprint,
+				"the copy should be valid for the same inputs");
+
+			//one caller spoils its copy, the others must not notice
+			first.levels.clear();
+			first.gt_tracks.clear();
+			first.res_tracks.clear();
+			first.gt_forks.clear();
+			first.res_forks.clear();
+			check(second.levels.size() == ALL_LEVELS && !second.gt_tracks.isEmpty() && !second.res_tracks.isEmpty(),
+				"other copy should not be affected");
+			final TrackDataCache third = get(registry, gtPath, resPath);
+			check(isCopyOf(third, second) && isCopyOf(registry.find(gtPath, resPath, third), second),
+				"the registered cache should not be affected");
+			check(registry.takeNoOfCreatedLevels() == ALL_LEVELS, "nothing should be calculated again");
+		}
+		finally
+		{
+			TestTrackDataCacheSnapshot.deleteFolders(root);
+		}
+	}
+
+	public void testEviction() throws IOException
+	{
+		final Path[] roots = new Path[3];
+		try
+		{
+			for (int i = 0; i < roots.length; ++i) roots[i] = TestTrackDataCacheSnapshot.createFolders();
+			final String[] gtPaths = new String[3], resPaths = new String[3];
+			for (int i = 0; i < roots.length; ++i)
+			{
+				gtPaths[i] = roots[i].resolve("gt").toString();
+				resPaths[i] = roots[i].resolve("res").toString();
+			}
+
+			final SyntheticRegistry registry = new SyntheticRegistry();
+			final TrackDataCache a = get(registry, gtPaths[0], resPaths[0]);
+			final long size = TrackDataCacheRegistry.estimateSize(a);
+			registry.setMemoryCap(2*size);
+
+			final TrackDataCache b = get(registry, gtPaths[1], resPaths[1]);
+			check(registry.size() == 2 && registry.getUsedMemory() == 2*size, "two caches should fit under the cap");
+
+			//'a' becomes the recently used one, so 'b' is to be evicted next
+			check(isCopyOf(get(registry, gtPaths[0], resPaths[0]), a), "'a' should be still registered");
+			final TrackDataCache c = get(registry, gtPaths[2], resPaths[2]);
+			check(registry.size() == 2 && registry.getUsedMemory() == 2*size, "the cap was exceeded");
+			check(isCopyOf(registry.find(gtPaths[0], resPaths[0], a), a), "the recently used 'a' was evicted");
+			check(registry.find(gtPaths[1], resPaths[1], b) == null, "the least recently used 'b' was not evicted");
+			check(isCopyOf(registry.find(gtPaths[2], resPaths[2], c), c), "the newest 'c' was evicted");
+
+			//the evicted one gets calculated again
+			registry.takeNoOfCreatedLevels();
+			final TrackDataCache b2 = get(registry, gtPaths[1], resPaths[1]);
+			check(!isCopyOf(b2, b) && registry.takeNoOfCreatedLevels() == ALL_LEVELS,
+				"the evicted 'b' should be calculated again");
+			check(registry.find(gtPaths[0], resPaths[0], a) == null, "'a' should have been evicted now");
+
+			//lowering the cap evicts immediately, 0 keeps nothing at all
+			registry.setMemoryCap(size);
+			check(registry.size() == 1 && isCopyOf(registry.find(gtPaths[1], resPaths[1], b2), b2),
+				"only the recent 'b' should stay");
+			registry.setMemoryCap(0);
+			check(registry.size() == 0 && registry.getUsedMemory() == 0, "nothing should stay under zero cap");
+			get(registry, gtPaths[1], resPaths[1]);
+			check(registry.takeNoOfCreatedLevels() == ALL_LEVELS && registry.size() == 0,
+				"nothing should be registered under zero cap");
+
+			checkIllegalArgument(() -> registry.setMemoryCap(-1), "negative cap");
+		}
+		finally
+		{
+			for (Path root : roots)
+				if (root != null) TestTrackDataCacheSnapshot.deleteFolders(root);
+		}
+	}
+
+	public void testIncrementalRecalculation() throws IOException
+	{
+		final Path root = TestTrackDataCacheSnapshot.createFolders();
+		try
+		{
+			final SyntheticRegistry registry = new SyntheticRegistry();
+			final String gtPath = root.resolve("gt").toString();
+			final String resPath = root.resolve("res").toString();
+			final TrackDataCache original = get(registry, gtPath, resPath);
+			registry.takeNoOfCreatedLevels();
+
+			//one image changes its size
+			Files.write(root.resolve("res/mask002.tif"), new byte[12]);
+			check(registry.find(gtPath, resPath, original) == null, "outdated cache must not be found");
+			check(registry.size() == 1, "outdated cache should be kept for the re-calculation");
+
+			final TrackDataCache updated = get(registry, gtPath, resPath);
+			check(registry.takeNoOfCreatedLevels() == 1, "only the changed level should be re-created");
+			for (int t = 0; t < ALL_LEVELS; ++t)
+				check((updated.levels.get(t) == original.levels.get(t)) == (t != 2),
+					"level "+t+" should be "+(t != 2 ? "taken over" : "re-created"));
+			check(updated.res_tracks.equals(original.res_tracks) && updated.gt_tracks.equals(original.gt_tracks),
+				"the tracks should be taken over");
+			check(registry.size() == 1 && registry.getUsedMemory() == TrackDataCacheRegistry.estimateSize(updated),
+				"the outdated cache should have been replaced");
+
+			//another image changes only its modification time
+			final Path gtImage = root.resolve("gt/TRA/man_track004.tif");
+			Files.setLastModifiedTime(gtImage,
+				FileTime.fromMillis(Files.getLastModifiedTime(gtImage).toMillis() + 60000));
+			final TrackDataCache touched = get(registry, gtPath, resPath);
+			check(registry.takeNoOfCreatedLevels() == 1, "the touched level should be re-created");
+			check(touched.levels.get(4) != updated.levels.get(4) && touched.levels.get(3) == updated.levels.get(3),
+				"only the touched level should be re-created");
+
+			//the RES track file changes, the levels stay
+			Files.write(root.resolve("res/res_track.txt"),
+				(TestTrackDataCacheSnapshot.RES_TRACKS+"14 4 4 0\n").getBytes(StandardCharsets.UTF_8));
+			final TrackDataCache retracked = get(registry, gtPath, resPath);
+			check(registry.takeNoOfCreatedLevels() == 0, "no level should be re-created");
+			check(retracked.res_tracks.containsKey(14), "the RES tracks should be read again");
+			check(retracked.gt_tracks.equals(touched.gt_tracks), "the GT tracks should be taken over");
+
+			//unchanged inputs, the very same cache
+			check(isCopyOf(get(registry, gtPath, resPath), retracked), "up-to-date cache should be handed out");
+			check(registry.takeNoOfCreatedLevels() == 0, "up-to-date cache should not be calculated again");
+		}
+		finally
+		{
+			TestTrackDataCacheSnapshot.deleteFolders(root);
+		}
+	}
+
+	public void testDisabled() throws IOException
+	{
+		check(!TrackDataCacheRegistry.getInstance().isEnabled(), "the process-wide registry should be disabled by default");
+		check(!new TrackDataCacheRegistry().isEnabled(), "a registry should be disabled by default");
+
+		final Path root = TestTrackDataCacheSnapshot.createFolders();
+		try
+		{
+			final SyntheticRegistry registry = new SyntheticRegistry();
+			final String gtPath = root.resolve("gt").toString();
+			final String resPath = root.resolve("res").toString();
+			final TrackDataCache registered = get(registry, gtPath, resPath);
+			registry.takeNoOfCreatedLevels();
+
+			registry.setEnabled(false);
+			check(!registry.isEnabled() && registry.size() == 0, "disabled registry should forget everything");
+			check(registry.find(gtPath, resPath, registered) == null, "disabled registry should find nothing");
+
+			final TrackDataCache first = get(registry, gtPath, resPath);
+			final TrackDataCache second = get(registry, gtPath, resPath);
+			check(first.levels.get(0) != second.levels.get(0) && first.levels.get(0) != registered.levels.get(0),
+				"disabled registry should always create new cache");
+			check(registry.takeNoOfCreatedLevels() == 2*ALL_LEVELS, "disabled registry should always calculate completely");
+			check(registry.size() == 0 && registry.getUsedMemory() == 0, "disabled registry should keep nothing");
+
+			registry.setEnabled(true);
+			final TrackDataCache third = get(registry, gtPath, resPath);
+			check(registry.takeNoOfCreatedLevels() == ALL_LEVELS && registry.size() == 1, "enabled registry should register again");
+			check(isCopyOf(get(registry, gtPath, resPath), third), "enabled registry should hand out the registered cache");
+		}
+		finally
+		{
+			TestTrackDataCacheSnapshot.deleteFolders(root);
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		final TestTrackDataCacheRegistry tst = new TestTrackDataCacheRegistry();
+		run("registry keys", tst::testKeys);
+		run("registry own copies", tst::testOwnCopies);
+		run("registry eviction", tst::testEviction);
+		run("registry incremental recalculation", tst::testIncrementalRecalculation);
+		run("disabled registry", tst::testDisabled);
+	}
+}
@@ -0,0 +1,405 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.celltrackingchallenge.measures.TrackDataCache.Track;
+import net.celltrackingchallenge.measures.TrackDataCache.Fork;
+import net.celltrackingchallenge.measures.TrackDataCache.TemporalLevel;
+import net.celltrackingchallenge.measures.util.LabelPairsCounter;
+
+import net.imglib2.img.Img;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.scijava.Context;
+import org.scijava.log.LogService;
+import org.scijava.log.Logger;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Vector;
+import java.util.stream.Stream;
+
+import static net.celltrackingchallenge.measures.Checks.check;
+import static net.celltrackingchallenge.measures.Checks.run;
+
+public class TestTrackDataCacheSnapshot
+{
+	final LogService logService;
+	//
+	public TestTrackDataCacheSnapshot()
+	{
+		final Context ctx = new Context(LogService.class);
+		logService = ctx.getService(LogService.class);
+	}
+
+	/**
+	 * Cache that reads no images and makes up its levels instead: GT labels 1,2,3
+	 * and RES labels 10,11,12 where GT 1 and 2 both match RES 10 (not unique),
+	 * GT 3 matches RES 11 uniquely and RES 12 overlaps GT 3 only slightly.
+	 */
+	static class SyntheticCache extends TrackDataCache
+	{
+		SyntheticCache(final Logger log)
+		{ super(log); }
+
+		///how many levels were made up (and not taken over from elsewhere)
+		int noOfCreatedLevels = 0;
+
+		@Override
+		public Img<?> ReadImage(final String fname)
+		{ return null; }
+
+		@Override
+		public Img<UnsignedShortType> CheckImageG16(final Img<?> img, final String fname)
+		{ return null; }
+
+		@Override
+		public TemporalLevel CreateLevel(IterableInterval<UnsignedShortType> gt_img,
+		                                 RandomAccessibleInterval<UnsignedShortType> res_img,
+		                                 final boolean _shouldComplainOnEmptyImages,
+		                                 final int time,
+		                                 final double overlapRatio,
+		                                 final int noOfThreads)
+		{
+			synchronized (this) { ++noOfCreatedLevels; }
+
+			final TemporalLevel level = new TemporalLevel(time);
+			level.m_gt_lab   = new int[] { 1, 2, 3 };
+			level.m_gt_size  = new int[] { 100+time, 80, 60 };
+			level.m_res_lab  = new int[] { 10, 11, 12 };
+			level.m_res_size = new int[] { 150, 40+time, 20 };
+			level.buildLabelIndices();
+
+			final LabelPairsCounter overlaps = new LabelPairsCounter();
+			overlaps.add(1,10, 90);
+			overlaps.add(2,10, 50+time);
+			overlaps.add(3,11, 35);
+			overlaps.add(3,12, 5);
+			level.buildMatchingMatrix(overlaps);
+
+			level.m_gt_match = new int[] { 0, 0, 1 };
+			level.buildResMatch();
+			return level;
+		}
+	}
+
+	static final int NO_OF_TIMEPOINTS = 5;
+	static final String GT_TRACKS  = "1 0 1 0\n2 2 4 1\n3 2 4 1\n";
+	static final String RES_TRACKS = "10 0 4 0\n11 0 2 0\n12 3 4 11\n13 3 4 11\n";
+
+	///creates the GT and RES folders with the track files and (dummy) images
+	static Path createFolders() throws IOException
+	{
+		final Path root = Files.createTempDirectory("ctc-snapshot");
+		Files.createDirectories(root.resolve("gt/TRA"));
+		Files.createDirectories(root.resolve("res"));
+		Files.write(root.resolve("gt/TRA/man_track.txt"), GT_TRACKS.getBytes(StandardCharsets.UTF_8));
+		Files.write(root.resolve("res/res_track.txt"), RES_TRACKS.getBytes(StandardCharsets.UTF_8));
+		for (int t = 0; t < NO_OF_TIMEPOINTS; ++t)
+		{
+			Files.write(root.resolve(String.format("gt/TRA/man_track%03d.tif",t)), new byte[10]);
+			Files.write(root.resolve(String.format("res/mask%03d.tif",t)), new byte[10]);
+		}
+		return root;
+	}
+
+	static void deleteFolders(final Path root) throws IOException
+	{
+		try (Stream<Path> files = Files.walk(root))
+		{
+			for (Path p : (Iterable<Path>)files.sorted(Comparator.reverseOrder())::iterator)
+				Files.delete(p);
+		}
+	}
+
+	SyntheticCache calculate(final Path root, final String snapshotFolder) throws IOException
+	{
+		final SyntheticCache cache = new SyntheticCache(logService);
+		cache.snapshotFolder = snapshotFolder;
+		cache.calculate(root.resolve("gt").toString(), root.resolve("res").toString());
+		return cache;
+	}
+
+	static void checkSameTracks(final Map<Integer,Track> a, final Map<Integer,Track> b, final String what)
+	{
+		check(a.keySet().equals(b.keySet()), what+": different track IDs");
+		for (Track t : a.values())
+		{
+			final Track u = b.get(t.m_id);
+			check(t.m_begin == u.m_begin && t.m_end == u.m_end && t.m_parent == u.m_parent,
+				what+": different track "+t.m_id);
+		}
+	}
+
+	static void checkSameForks(final Vector<Fork> a, final Vector<Fork> b, final String what)
+	{
+		check(a.size() == b.size(), what+": different number of forks");
+		for (int i = 0; i < a.size(); ++i)
+			check(a.get(i).m_parent_id == b.get(i).m_parent_id
+			      && Arrays.equals(a.get(i).m_child_ids, b.get(i).m_child_ids), what+": different fork "+i);
+	}
+
+	static void checkSameLevels(final Vector<TemporalLevel> a, final Vector<TemporalLevel> b)
+	{
+		check(a.size() == b.size(), "different number of levels");
+		for (int i = 0; i < a.size(); ++i)
+		{
+			final TemporalLevel x = a.get(i), y = b.get(i);
+			final String what = "level "+i+": different ";
+			check(x.m_level == y.m_level, what+"time point");
+			check(Arrays.equals(x.m_gt_lab, y.m_gt_lab) && Arrays.equals(x.m_gt_size, y.m_gt_size), what+"GT labels");
+			check(Arrays.equals(x.m_res_lab, y.m_res_lab) && Arrays.equals(x.m_res_size, y.m_res_size), what+"RES labels");
+			check(Arrays.equals(x.m_gt_idx, y.m_gt_idx) && Arrays.equals(x.m_res_idx, y.m_res_idx), what+"label lookups");
+			check(Arrays.equals(x.m_match_rowStart, y.m_match_rowStart), what+"CSR row starts");
+			check(Arrays.equals(x.m_match_resIdx, y.m_match_resIdx), what+"CSR columns");
+			check(Arrays.equals(x.m_match_count, y.m_match_count), what+"CSR overlaps");
+			check(Arrays.equals(x.m_gt_match, y.m_gt_match), what+"GT matching");
+			check(Arrays.equals(x.m_res_match_start, y.m_res_match_start)
+			      && Arrays.equals(x.m_res_match_gtIdx, y.m_res_match_gtIdx), what+"RES matching");
+			check(Arrays.equals(x.m_gt_unique, y.m_gt_unique), what+"GT unique matches");
+			check(Arrays.equals(x.m_res_unique, y.m_res_unique), what+"RES unique matches");
+
+			for (int g = 0; g < x.m_gt_lab.length; ++g)
+				for (int r = 0; r < x.m_res_lab.length; ++r)
+					check(x.getOverlap(g,r) == y.getOverlap(g,r), what+"overlap of "+g+","+r);
+		}
+	}
+
+	public void testRoundTrip() throws IOException
+	{
+		final Path root = createFolders();
+		try
+		{
+			final String gtPath = root.resolve("gt").toString();
+			final String resPath = root.resolve("res").toString();
+			final String snapshotFolder = root.resolve("snapshots").toString();
+			final Path snapshotFile = TrackDataCacheSnapshot.snapshotFileFor(snapshotFolder, gtPath, resPath);
+
+			final SyntheticCache original = calculate(root, snapshotFolder);
+			check(original.noOfCreatedLevels == NO_OF_TIMEPOINTS, "all levels should have been created");
+			check(original.res_forks.size() == 1 && original.gt_forks.size() == 1, "one fork on either side expected");
+			check(original.levels.get(0).gt_uniqueMatch(0) == -1 && original.levels.get(0).res_uniqueMatch(1) == 2,
+				"the synthetic levels must have both unique and non-unique matches");
+			check(Files.isReadable(snapshotFile), "the snapshot was not written");
+
+			//the file layout version
+			try (DataInputStream in = new DataInputStream(Files.newInputStream(snapshotFile)))
+			{
+				in.readInt();
+				check(in.readInt() == 2, "the snapshot should be of version 2");
+			}
+
+			//save & load gives the same content
+			final TrackDataCacheSnapshot.Fingerprint fingerprint
+				= TrackDataCacheSnapshot.fingerprintOf(gtPath, resPath, original);
+			check(fingerprint.isSameAs(original.fingerprint), "inputs have not changed, fingerprints should match");
+
+			final TrackDataCache loaded = TrackDataCacheSnapshot.load(snapshotFile, fingerprint, original, logService);
+			check(loaded != null, "the snapshot was not loaded");
+			check(loaded.fingerprint.isSameAs(fingerprint), "the snapshot is of different inputs");
+			checkSameTracks(original.gt_tracks, loaded.gt_tracks, "GT");
+			checkSameTracks(original.res_tracks, loaded.res_tracks, "RES");
+			checkSameForks(original.gt_forks, loaded.gt_forks, "GT");
+			checkSameForks(original.res_forks, loaded.res_forks, "RES");
+			checkSameLevels(original.levels, loaded.levels);
+
+			//calculate() takes the snapshot instead of creating the levels again
+			final SyntheticCache fromSnapshot = calculate(root, snapshotFolder);
+			check(fromSnapshot.noOfCreatedLevels == 0, "the levels should have been loaded from the snapshot");
+			checkSameLevels(original.levels, fromSnapshot.levels);
+
+			//explicit save of the loaded cache gives again the same content
+			final Path copyFile = root.resolve("snapshots/copy.tdcache");
+			TrackDataCacheSnapshot.save(loaded, copyFile);
+			checkSameLevels(original.levels,
+				TrackDataCacheSnapshot.load(copyFile, fingerprint, original, logService).levels);
+
+			//snapshot made with other parameters is never used
+			final SyntheticCache otherParams = new SyntheticCache(logService);
+			otherParams.overlapRatio = 0.7;
+			check(TrackDataCacheSnapshot.load(snapshotFile,
+					TrackDataCacheSnapshot.fingerprintOf(gtPath, resPath, otherParams), otherParams, logService) == null,
+				"the snapshot of other overlapRatio must not be loaded");
+		}
+		finally
+		{
+			deleteFolders(root);
+		}
+	}
+
+	public void testChangedTrackFile() throws IOException
+	{
+		final Path root = createFolders();
+		try
+		{
+			final String gtPath = root.resolve("gt").toString();
+			final String resPath = root.resolve("res").toString();
+			final String snapshotFolder = root.resolve("snapshots").toString();
+			final Path snapshotFile = TrackDataCacheSnapshot.snapshotFileFor(snapshotFolder, gtPath, resPath);
+
+			final SyntheticCache original = calculate(root, snapshotFolder);
+
+			//one more GT track, the file gets longer
+			Files.write(root.resolve("gt/TRA/man_track.txt"),
+				(GT_TRACKS+"4 3 4 0\n").getBytes(StandardCharsets.UTF_8));
+			final TrackDataCacheSnapshot.Fingerprint fingerprint
+				= TrackDataCacheSnapshot.fingerprintOf(gtPath, resPath, original);
+
+			final TrackDataCache stale = TrackDataCacheSnapshot.load(snapshotFile, fingerprint, original, logService);
+			check(stale != null, "the snapshot of the same parameters should load");
+			check(!stale.fingerprint.isSameAs(fingerprint), "the snapshot must not pass for the changed inputs");
+			check(!Arrays.equals(stale.fingerprint.gtTracks, fingerprint.gtTracks), "GT track file change not detected");
+			check(Arrays.equals(stale.fingerprint.resTracks, fingerprint.resTracks), "RES track file has not changed");
+			for (int t = 0; t < NO_OF_TIMEPOINTS; ++t)
+				check(stale.fingerprint.hasSameFrameAs(fingerprint,t), "images at time "+t+" have not changed");
+
+			//calculate() keeps the levels from the snapshot but reads the GT tracks again
+			final SyntheticCache updated = calculate(root, snapshotFolder);
+			check(updated.noOfCreatedLevels == 0, "no image has changed, the levels should have been reused");
+			check(updated.gt_tracks.containsKey(4) && updated.gt_tracks.size() == 4, "GT tracks were not re-read");
+			checkSameTracks(original.res_tracks, updated.res_tracks, "RES");
+			checkSameLevels(original.levels, updated.levels);
+
+			//and the snapshot is brought up-to-date
+			final TrackDataCache refreshed = TrackDataCacheSnapshot.load(snapshotFile, fingerprint, original, logService);
+			check(refreshed.fingerprint.isSameAs(fingerprint), "the snapshot was not updated");
+			checkSameTracks(updated.gt_tracks, refreshed.gt_tracks, "GT");
+		}
+		finally
+		{
+			deleteFolders(root);
+		}
+	}
+
+	/**
+	 * Every 4-byte word of a valid snapshot is overwritten with a huge, a negative
+	 * and a small value in turn. Loading such a file must either succeed with
+	 * consistent data or fail with IOException, never with other exceptions
+	 * (or by running out of memory), and calculate() must fall back to the
+	 * processing of the images.
+	 */
+	public void testCorruptedSnapshots() throws IOException
+	{
+		final Path root = createFolders();
+		try
+		{
+			final String gtPath = root.resolve("gt").toString();
+			final String resPath = root.resolve("res").toString();
+			final String snapshotFolder = root.resolve("snapshots").toString();
+			final Path snapshotFile = TrackDataCacheSnapshot.snapshotFileFor(snapshotFolder, gtPath, resPath);
+
+			final SyntheticCache original = calculate(root, snapshotFolder);
+			final TrackDataCacheSnapshot.Fingerprint fingerprint
+				= TrackDataCacheSnapshot.fingerprintOf(gtPath, resPath, original);
+			final byte[] valid = Files.readAllBytes(snapshotFile);
+			final Path corruptedFile = root.resolve("corrupted.tdcache");
+
+			int noOfRejected = 0;
+			for (int pos = 8; pos+4 <= valid.length; pos += 4)
+				for (int value : new int[] { Integer.MAX_VALUE, -7, 3 })
+				{
+					final byte[] corrupted = valid.clone();
+					ByteBuffer.wrap(corrupted).putInt(pos, value);
+					Files.write(corruptedFile, corrupted);
+					try
+					{
+						final TrackDataCache loaded = TrackDataCacheSnapshot.load(corruptedFile, fingerprint, original, logService);
+						if (loaded == null) continue;
+						for (TemporalLevel level : loaded.levels)
+							for (int i = 0; i < level.m_gt_lab.length; ++i)
+								check(level.m_gt_match[i] < level.m_res_lab.length, "unchecked match at offset "+pos);
+					}
+					catch (IOException e)
+					{
+						++noOfRejected;
+					}
+				}
+			check(noOfRejected > 0, "no corrupted snapshot was rejected");
+
+			//indices out of their ranges, in an otherwise well-formed snapshot
+			final TrackDataCache badMatch = TrackDataCacheSnapshot.load(snapshotFile, fingerprint, original, logService);
+			badMatch.levels.get(2).m_gt_match[0] = badMatch.levels.get(2).m_res_lab.length;
+			TrackDataCacheSnapshot.save(badMatch, corruptedFile);
+			checkLoadFails(corruptedFile, fingerprint, original, "GT match beyond the RES labels");
+
+			final TrackDataCache badColumn = TrackDataCacheSnapshot.load(snapshotFile, fingerprint, original, logService);
+			badColumn.levels.get(1).m_match_resIdx[0] = -3;
+			TrackDataCacheSnapshot.save(badColumn, corruptedFile);
+			checkLoadFails(corruptedFile, fingerprint, original, "negative RES index in the matching matrix");
+
+			final TrackDataCache badFork = TrackDataCacheSnapshot.load(snapshotFile, fingerprint, original, logService);
+			badFork.gt_tracks.remove(2);
+			TrackDataCacheSnapshot.save(badFork, corruptedFile);
+			checkLoadFails(corruptedFile, fingerprint, original, "fork of a missing track");
+
+			//calculate() ignores the corrupted snapshot and processes the images instead
+			Files.move(corruptedFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+			final SyntheticCache recalculated = calculate(root, snapshotFolder);
+			check(recalculated.noOfCreatedLevels == NO_OF_TIMEPOINTS, "the levels should have been created again");
+			checkSameLevels(original.levels, recalculated.levels);
+			checkSameTracks(original.gt_tracks, recalculated.gt_tracks, "GT");
+		}
+		finally
+		{
+			deleteFolders(root);
+		}
+	}
+
+	void checkLoadFails(final Path file, final TrackDataCacheSnapshot.Fingerprint fingerprint,
+	                    final TrackDataCache template, final String what)
+	{
+		try
+		{
+			TrackDataCacheSnapshot.load(file, fingerprint, template, logService);
+		}
+		catch (IOException e)
+		{
+			return;
+		}
+		check(false, "snapshot with "+what+" was loaded");
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		final TestTrackDataCacheSnapshot tst = new TestTrackDataCacheSnapshot();
+		run("snapshot round-trip", tst::testRoundTrip);
+		run("changed track file", tst::testChangedTrackFile);
+		run("corrupted snapshots", tst::testCorruptedSnapshots);
+	}
+}
@@ -0,0 +1,180 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.celltrackingchallenge.measures.TrackDataCache.Track;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+
+import static net.celltrackingchallenge.measures.Checks.check;
+import static net.celltrackingchallenge.measures.Checks.run;
+
+public class TestTrackFileIO
+{
+	final Path folder;
+	//
+	public TestTrackFileIO() throws IOException
+	{
+		folder = Files.createTempDirectory("ctc-trackfile-test");
+		folder.toFile().deleteOnExit();
+	}
+
+	Path createFile(final String content) throws IOException
+	{
+		final Path file = Files.createTempFile(folder, "tracks", ".txt");
+		file.toFile().deleteOnExit();
+		Files.write(file, content.getBytes(StandardCharsets.US_ASCII));
+		return file;
+	}
+
+	static String toString(final Map<Integer,Track> tracks)
+	{
+		final StringBuilder sb = new StringBuilder();
+		tracks.values().stream().sorted((a,b) -> Integer.compare(a.m_id,b.m_id))
+			.forEach(t -> sb.append(t.exportToString(0)).append(';'));
+		return sb.toString();
+	}
+
+	/// the original, Scanner-based, reading of the track files
+	static Map<Integer,Track> readWithScanner(final Path file) throws IOException
+	{
+		final Map<Integer,Track> tracks = new HashMap<>();
+		try (Scanner s = new Scanner(file))
+		{
+			while (s.hasNext())
+			{
+				final int id = Integer.parseInt(s.next());
+				final int begin = Integer.parseInt(s.next());
+				final int end = Integer.parseInt(s.next());
+				tracks.put(id, new Track(id, begin, end, Integer.parseInt(s.next())));
+			}
+		}
+		return tracks;
+	}
+
+	void expectSameAsScanner(final String content, final String expected, final String testName)
+	throws IOException
+	{
+		final Path file = createFile(content);
+		final Map<Integer,Track> tracks = new HashMap<>();
+		TrackFileIO.read(file.toString(), tracks);
+		check(toString(tracks).equals(expected), testName+": got "+toString(tracks));
+		check(toString(readWithScanner(file)).equals(expected), testName+": the Scanner disagrees");
+	}
+
+	void expectError(final String content, final int lineNo, final String messagePart, final String testName)
+	throws IOException
+	{
+		final Path file = createFile(content);
+		try {
+			TrackFileIO.read(file.toString(), new HashMap<>());
+		}
+		catch (IOException e) {
+			check(e.getMessage().contains(", line "+lineNo+": "),
+				testName+": wrong line in \""+e.getMessage()+"\"");
+			check(e.getMessage().contains(messagePart),
+				testName+": unexpected message \""+e.getMessage()+"\"");
+			return;
+		}
+		throw new RuntimeException("Test failed: "+testName+": no error reported");
+	}
+
+	public void testLayouts() throws IOException
+	{
+		final String twoTracks = "1 0 9 0;2 10 12 1;";
+		expectSameAsScanner("1 0 9 0\n2 10 12 1\n",       twoTracks, "LF");
+		expectSameAsScanner("1 0 9 0\r\n2 10 12 1\r\n", twoTracks, "CRLF");
+		expectSameAsScanner("1 0 9 0\r\n2 10 12 1",       twoTracks, "no final EOL");
+		expectSameAsScanner("\n\n1 0 9 0\n\n  \r\n\t\n2 10 12 1\n\n", twoTracks, "blank lines");
+		expectSameAsScanner("  1\t0  9 0   \n\t2 10\t12\t1 \t\n", twoTracks, "spaces and tabs");
+		expectSameAsScanner("1 0\n9\n0 2\r\n10 12\n1\n", twoTracks, "tracks split across lines");
+		expectSameAsScanner("1 0 9 0 2 10 12 1\n",         twoTracks, "tracks sharing a line");
+		expectSameAsScanner("1\f0\u000B9 0\n2 10 12 1\n", twoTracks, "form feed and vertical tab");
+		expectSameAsScanner("",                             "", "empty file");
+		expectSameAsScanner("\r\n \n",                     "", "blank file");
+	}
+
+	public void testNumbers() throws IOException
+	{
+		expectSameAsScanner("+1 -5 +7 -0\n-2 0 0 +1\n", "-2 0 0 1;1 -5 7 0;", "signs");
+		expectSameAsScanner("2147483647 -2147483648 2147483647 -2147483648\n",
+			"2147483647 -2147483648 2147483647 -2147483648;", "int limits");
+		expectSameAsScanner("007 0010 0012 0\n", "7 10 12 0;", "leading zeros");
+
+		expectError("1 0 9 0\n2 2147483648 9 0\n", 2, "out of range", "above int range");
+		expectError("1 0 9 0\n\n-2147483649 0 9 0\n", 3, "out of range", "below int range");
+		expectError("1 0 9 0\n2 99999999999999999999 9 0\n", 2, "out of range", "far out of range");
+		expectError("1 0 9 0\r\n2 1a 9 0\r\n", 2, "Not a number", "letters after digits");
+		expectError("1 0 9 0\n2 0 9 x\n", 2, "Not a number", "not a number");
+		expectError("1 0 9 0\n2 0 - 0\n", 2, "Not a number", "sign only");
+		expectError("1 0 9 0\n2 0 9 1.5\n", 2, "Not a number", "decimal number");
+	}
+
+	public void testTrackErrors() throws IOException
+	{
+		expectError("1 0 9 0\n\n2 3\n", 3, "ends after only 2", "incomplete last track");
+		expectError("1 0 9 0\n2\n3\n", 2, "ends after only 2", "incomplete track spanning lines");
+		expectError("1 0 9 0\n2 0 9 0\r\n\r\n1 5 6 0\r\n", 4, "multiple occurrence", "duplicate track");
+		expectError("1 0 9 0\n2 7 6 1\n", 2, "wrong time stamps", "begin after end");
+		expectError("1 0 9 0\n2 7\n6 1\n", 2, "wrong time stamps", "begin after end, track across lines");
+	}
+
+	public void testWriteAndReadBack() throws IOException
+	{
+		final Map<Integer,Track> tracks = new HashMap<>();
+		tracks.put(1, new Track(1, 0, 9, 0));
+		tracks.put(-7, new Track(-7, -3, 5, 1));
+		tracks.put(Integer.MAX_VALUE, new Track(Integer.MAX_VALUE, 10, Integer.MAX_VALUE-1, Integer.MIN_VALUE));
+		tracks.put(Integer.MIN_VALUE, new Track(Integer.MIN_VALUE, Integer.MIN_VALUE+1, 0, -1));
+
+		final Path file = createFile("");
+		TrackFileIO.write(file.toString(), tracks.values(), 1);
+
+		final Map<Integer,Track> readBack = new HashMap<>();
+		TrackFileIO.read(file.toString(), readBack);
+		final String expected = "-2147483648 -2147483646 1 -1;-7 -2 6 1;1 1 10 0;2147483647 11 2147483647 -2147483648;";
+		check(toString(readBack).equals(expected), "write and read back: got "+toString(readBack));
+		check(toString(readWithScanner(file)).equals(expected), "write and read back: the Scanner disagrees");
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		final TestTrackFileIO tst = new TestTrackFileIO();
+		run("layouts", tst::testLayouts);
+		run("numbers", tst::testNumbers);
+		run("track errors", tst::testTrackErrors);
+		run("write and read back", tst::testWriteAndReadBack);
+	}
+}
@@ -0,0 +1,192 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures;
+
+import net.celltrackingchallenge.measures.TrackDataCache.TemporalLevel;
+
+import org.scijava.Context;
+import org.scijava.log.LogService;
+
+import java.util.Random;
+
+import static net.celltrackingchallenge.measures.Checks.check;
+import static net.celltrackingchallenge.measures.Checks.run;
+
+public class TestUniqueMatch
+{
+	final LogService logService;
+	//
+	public TestUniqueMatch()
+	{
+		final Context ctx = new Context(LogService.class);
+		logService = ctx.getService(LogService.class);
+	}
+
+	static TemporalLevel createLevel(final TrackDataCache cache,
+	                                 final int[] gtLabels, final int[] resLabels, final int[] gtMatch)
+	{
+		final TemporalLevel level = cache.new TemporalLevel(0);
+		level.m_gt_lab  = gtLabels;
+		level.m_res_lab = resLabels;
+		level.m_gt_size  = new int[gtLabels.length];
+		level.m_res_size = new int[resLabels.length];
+		level.m_gt_match = gtMatch;
+		level.buildLabelIndices();
+		level.buildResMatch();
+		return level;
+	}
+
+	///the index of the label in the list, or -1
+	static int indexOf(final int[] labels, final int label)
+	{
+		for (int i = 0; i < labels.length; ++i)
+			if (labels[i] == label) return i;
+		return -1;
+	}
+
+	///the number of GT labels matched to the RES label of the given index
+	static int noOfMatches(final TemporalLevel level, final int resIdx)
+	{
+		int cnt = 0;
+		for (int j : level.m_gt_match)
+			if (j == resIdx) ++cnt;
+		return cnt;
+	}
+
+	///the definition: both labels are present, the GT label is matched to the RES label,
+	///and the RES label is matched to no other GT label
+	static boolean isUniqueMatch(final TemporalLevel level, final int gt, final int res)
+	{
+		final int gtIdx = indexOf(level.m_gt_lab, gt);
+		final int resIdx = indexOf(level.m_res_lab, res);
+		return gtIdx != -1 && resIdx != -1
+		    && level.m_gt_match[gtIdx] == resIdx && noOfMatches(level, resIdx) == 1;
+	}
+
+	/// checks the 1:1 matching of the level against the definition, for all labels from the given range
+	static void checkLevel(final TrackDataCache cache, final TemporalLevel level,
+	                       final int minLabel, final int maxLabel, final String testName)
+	{
+		for (int i = 0; i < level.m_gt_lab.length; ++i)
+		{
+			final int j = level.m_gt_match[i];
+			final int expected = j > -1 && noOfMatches(level, j) == 1 ? j : -1;
+			check(level.gt_uniqueMatch(i) == expected,
+				testName+": GT label "+level.m_gt_lab[i]+" unique match "+level.gt_uniqueMatch(i));
+		}
+
+		for (int j = 0; j < level.m_res_lab.length; ++j)
+		{
+			final int expected = noOfMatches(level, j) == 1 ? indexOf(level.m_gt_match, j) : -1;
+			check(level.res_matchCount(j) == noOfMatches(level, j),
+				testName+": RES label "+level.m_res_lab[j]+" match count "+level.res_matchCount(j));
+			check(level.res_uniqueMatch(j) == expected,
+				testName+": RES label "+level.m_res_lab[j]+" unique match "+level.res_uniqueMatch(j));
+		}
+
+		for (int gt = minLabel; gt <= maxLabel; ++gt)
+			for (int res = minLabel; res <= maxLabel; ++res)
+				check(cache.UniqueMatch(gt, res, level) == isUniqueMatch(level, gt, res),
+					testName+": UniqueMatch("+gt+","+res+")");
+	}
+
+	public void testHandmadeLevels()
+	{
+		final TrackDataCache cache = new TrackDataCache(logService);
+
+		//GT 3 and RES 20 match 1:1, GT 1 and GT 7 both match RES 5,
+		//GT 12 matches nothing and RES 9 and RES 30 are matched by nothing
+		final TemporalLevel level = createLevel(cache,
+			new int[] { 3, 1, 7, 12 }, new int[] { 20, 5, 9, 30 }, new int[] { 0, 1, 1, -1 });
+		check(cache.UniqueMatch(3, 20, level), "GT 3 and RES 20 match 1:1");
+		check(!cache.UniqueMatch(1, 5, level) && !cache.UniqueMatch(7, 5, level), "RES 5 matches two GT labels");
+		check(level.res_uniqueMatch(1) == -1 && level.gt_uniqueMatch(1) == -1 && level.gt_uniqueMatch(2) == -1,
+			"RES 5 matches two GT labels");
+		check(!cache.UniqueMatch(12, 9, level) && !cache.UniqueMatch(3, 9, level), "RES 9 is matched by nothing");
+
+		//labels missing from the level: in between the present ones, beyond the largest one, and negative
+		check(!cache.UniqueMatch(2, 20, level) && !cache.UniqueMatch(3, 21, level), "missing labels in between");
+		check(!cache.UniqueMatch(100, 20, level) && !cache.UniqueMatch(3, 100, level), "missing labels beyond");
+		check(!cache.UniqueMatch(-1, 20, level) && !cache.UniqueMatch(3, -1, level), "negative labels");
+		checkLevel(cache, level, -2, 35, "handmade level");
+
+		//the same labels, but the RES label is present at other time point only
+		final TemporalLevel other = createLevel(cache,
+			new int[] { 3, 1 }, new int[] { 5 }, new int[] { -1, 0 });
+		check(!cache.UniqueMatch(3, 20, other), "RES 20 is missing");
+		check(cache.UniqueMatch(1, 5, other), "GT 1 and RES 5 match 1:1");
+		checkLevel(cache, other, -2, 35, "other level");
+
+		//empty level
+		checkLevel(cache, createLevel(cache, new int[0], new int[0], new int[0]), -2, 5, "empty level");
+		checkLevel(cache, createLevel(cache, new int[] { 4 }, new int[0], new int[] { -1 }), -2, 5, "no RES labels");
+		checkLevel(cache, createLevel(cache, new int[0], new int[] { 4 }, new int[0]), -2, 5, "no GT labels");
+	}
+
+	public void testRandomLevels()
+	{
+		final TrackDataCache cache = new TrackDataCache(logService);
+		final Random rnd = new Random(19);
+		for (int l = 0; l < 200; ++l)
+		{
+			//random subsets of the labels 1..40, in random order
+			final int[] gtLabels  = randomLabels(rnd, 40);
+			final int[] resLabels = randomLabels(rnd, 40);
+
+			//the GT labels match often the same few RES labels
+			final int[] gtMatch = new int[gtLabels.length];
+			final int noOfTargets = resLabels.length == 0 ? 0 : 1 + rnd.nextInt(resLabels.length);
+			for (int i = 0; i < gtMatch.length; ++i)
+				gtMatch[i] = noOfTargets > 0 && rnd.nextInt(4) > 0 ? rnd.nextInt(noOfTargets) : -1;
+
+			checkLevel(cache, createLevel(cache, gtLabels, resLabels, gtMatch), -2, 45, "random level "+l);
+		}
+	}
+
+	static int[] randomLabels(final Random rnd, final int maxLabel)
+	{
+		final int[] labels = new int[maxLabel];
+		for (int i = 0; i < maxLabel; ++i) labels[i] = i+1;
+		for (int i = maxLabel-1; i > 0; --i)
+		{
+			final int k = rnd.nextInt(i+1);
+			final int tmp = labels[i]; labels[i] = labels[k]; labels[k] = tmp;
+		}
+		final int[] subset = new int[rnd.nextInt(maxLabel/2 +1)];
+		System.arraycopy(labels, 0, subset, 0, subset.length);
+		return subset;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		final TestUniqueMatch tst = new TestUniqueMatch();
+		run("handmade levels", tst::testHandmadeLevels);
+		run("random levels", tst::testRandomLevels);
+	}
+}
@@ -0,0 +1,180 @@
+/*-
+ * #%L
+ * CTC-measures
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.measures.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static net.celltrackingchallenge.measures.Checks.check;
+import static net.celltrackingchallenge.measures.Checks.checkIllegalArgument;
+import static net.celltrackingchallenge.measures.Checks.run;
+
+public class TestLabelPairsCounter
+{
+	static long pairOf(final int labelA, final int labelB)
+	{
+		return (long)labelA << 32 | labelB;
+	}
+
+	/// compares the content of the 'counter' with the 'reference' map, incl. the iteration
+	static void compare(final LabelPairsCounter counter, final Map<Long,Integer> reference)
+	{
+		check(counter.size() == reference.size(),
+			"size "+counter.size()+" vs. reference size "+reference.size());
+
+		final Map<Long,Integer> visited = new HashMap<>();
+		counter.forEach( (a,b,count) -> {
+			check(visited.put(pairOf(a,b), count) == null, "pair ("+a+","+b+") visited twice");
+			check(counter.get(a,b) == count, "get() disagrees with forEach() at ("+a+","+b+")");
+		} );
+		check(visited.equals(reference), "forEach() content differs from the reference");
+	}
+
+	public static void testInvalidLabels()
+	{
+		final LabelPairsCounter c = new LabelPairsCounter();
+
+		//label 0 (background) is not a valid label, the pair (0,0) would pack to the "empty" key
+		checkIllegalArgument( () -> c.add(0,5),           "pair (0,5)");
+		checkIllegalArgument( () -> c.add(5,0),           "pair (5,0)");
+		checkIllegalArgument( () -> c.add(0,0),           "pair (0,0)");
+		checkIllegalArgument( () -> c.get(0,5),           "query (0,5)");
+		checkIllegalArgument( () -> c.add(0x10000,1),     "label 0x10000");
+		checkIllegalArgument( () -> c.add(1,-1),          "label -1");
+		check(c.size() == 0, "invalid pairs must not be stored");
+	}
+
+	public static void testExtremeLabels()
+	{
+		final LabelPairsCounter c = new LabelPairsCounter(1);
+		final Map<Long,Integer> ref = new HashMap<>();
+
+		//0xFFFF,0xFFFF packs to -1 (all bits set), 1,1 to the smallest key,
+		//0xFFFF,1 and 1,0xFFFF occupy the upper and lower halves only
+		final int[][] pairs = { {0xFFFF,0xFFFF}, {1,1}, {0xFFFF,1}, {1,0xFFFF}, {0x8000,0x8000} };
+		for (int rep = 1; rep <= 3; ++rep)
+			for (int[] p : pairs)
+			{
+				c.add(p[0],p[1],rep);
+				ref.merge(pairOf(p[0],p[1]), rep, Integer::sum);
+			}
+
+		compare(c, ref);
+		check(c.get(0xFFFF,0xFFFF) == 6, "count of (0xFFFF,0xFFFF)");
+		check(c.get(2,2) == 0, "count of never seen pair");
+	}
+
+	public static void testGrowthAndRandomContent()
+	{
+		final Random rnd = new Random(42);
+		for (int round = 0; round < 20; ++round)
+		{
+			//start small to force several re-hashings
+			final LabelPairsCounter c = new LabelPairsCounter(1);
+			final Map<Long,Integer> ref = new HashMap<>();
+
+			final int maxLabel = round % 2 == 0 ? 50 : 0xFFFF;
+			final int noOfAdds = 1000 + rnd.nextInt(20000);
+			for (int i = 0; i < noOfAdds; ++i)
+			{
+				final int a = 1 + rnd.nextInt(maxLabel);
+				final int b = 1 + rnd.nextInt(maxLabel);
+				if (rnd.nextBoolean())
+				{
+					c.add(a,b);
+					ref.merge(pairOf(a,b), 1, Integer::sum);
+				}
+				else
+				{
+					final int cnt = 1 + rnd.nextInt(100);
+					c.add(a,b,cnt);
+					ref.merge(pairOf(a,b), cnt, Integer::sum);
+				}
+			}
+			compare(c, ref);
+
+			//merging of two counters
+			final LabelPairsCounter other = new LabelPairsCounter();
+			for (int i = 0; i < 500; ++i)
+			{
+				final int a = 1 + rnd.nextInt(maxLabel);
+				final int b = 1 + rnd.nextInt(maxLabel);
+				other.add(a,b);
+				ref.merge(pairOf(a,b), 1, Integer::sum);
+			}
+			c.addAll(other);
+			compare(c, ref);
+
+			//the counter is reusable after clear()
+			c.clear();
+			ref.clear();
+			compare(c, ref);
+			c.add(0xFFFF,7);
+			ref.put(pairOf(0xFFFF,7), 1);
+			compare(c, ref);
+		}
+	}
+
+	/**
+	 * One label overlaps thousands of others (over-segmentation), on either side
+	 * of the pair. The pairs then differ only in the bits of one label, and
+	 * must still spread over the whole table rather than pile up in few slots.
+	 */
+	public static void testOneLabelOverlappingMany()
+	{
+		for (int noOfPartners : new int[] { 1000, 5000, 20000 })
+		{
+			final LabelPairsCounter sharedB = new LabelPairsCounter();
+			final LabelPairsCounter sharedA = new LabelPairsCounter();
+			for (int label = 1; label <= noOfPartners; ++label)
+			{
+				sharedB.add(label, 7);
+				sharedA.add(7, label, 2);
+			}
+
+			check(sharedB.size() == noOfPartners && sharedA.size() == noOfPartners,
+				"all "+noOfPartners+" pairs should be stored");
+			for (int label = 1; label <= noOfPartners; ++label)
+				check(sharedB.get(label,7) == 1 && sharedA.get(7,label) == 2, "count of the pair with "+label);
+
+			//at most half full table, the runs of linear probing are short
+			check(sharedB.maxProbeLength() <= 32, noOfPartners+" pairs (x,7): probe length "+sharedB.maxProbeLength());
+			check(sharedA.maxProbeLength() <= 32, noOfPartners+" pairs (7,x): probe length "+sharedA.maxProbeLength());
+		}
+	}
+
+	public static void main(final String... args) throws Exception
+	{
+		run("invalid labels", TestLabelPairsCounter::testInvalidLabels);
+		run("extreme labels", TestLabelPairsCounter::testExtremeLabels);
+		run("growth and random content", TestLabelPairsCounter::testGrowthAndRandomContent);
+		run("one label overlapping many", TestLabelPairsCounter::testOneLabelOverlappingMany);
+	}
+}